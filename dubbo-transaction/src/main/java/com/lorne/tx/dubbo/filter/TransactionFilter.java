@@ -13,6 +13,10 @@ public class TransactionFilter implements Filter {
     public Result invoke(Invoker<?> invoker, Invocation invocation) throws RpcException {
         TxTransactionLocal txTransactionLocal = TxTransactionLocal.current();
         if(txTransactionLocal!=null){
+            if(txTransactionLocal.isGroupFailed()){
+                //事务组创建失败,不再调用下游服务
+                throw new RpcException("创建事务组失败.");
+            }
             if(txTransactionLocal.isHasCompensate()){
                 RpcContext.getContext().setAttachment("tx-group", CompensateServiceImpl.COMPENSATE_KEY);
             }else{
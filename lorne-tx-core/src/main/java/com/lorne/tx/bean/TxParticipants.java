@@ -0,0 +1,99 @@
+package com.lorne.tx.bean;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 随rpc响应返回的参与方列表.
+ * 调用方在请求中带上tx-piggyback(值为发起方连接的TxManager)时,与发起方连接同一TxManager的参与方不再单独发送加入事务组(atg),
+ * 而是把自己和下游参与方通过响应(tx-participants)带回调用方,最终由发起方在关闭事务组(ctg)时一次提交到该TxManager.
+ * 参与方没有到该TxManager的连接时单独加入事务组.
+ * 格式: kid,isGroup,modelName 多个参与方以;分隔
+ */
+public class TxParticipants {
+
+    /**
+     * 请求中声明调用方可以接收参与方列表
+     */
+    public final static String REQUEST_KEY = "tx-piggyback";
+
+    /**
+     * 响应中返回的参与方列表
+     */
+    public final static String RESPONSE_KEY = "tx-participants";
+
+    private final static ThreadLocal<TxParticipants> currentLocal = new ThreadLocal<TxParticipants>();
+
+    private final List<String> items = new ArrayList<>();
+
+    /**
+     * 发起方连接的TxManager(连接的remoteAddress),参与方只在连接同一TxManager时随响应返回
+     */
+    private final String manager;
+
+    public TxParticipants(String manager) {
+        this.manager = manager;
+    }
+
+    public String getManager() {
+        return manager;
+    }
+
+
+    /**
+     * 当前rpc请求要求返回的参与方列表,调用方未声明时为空
+     */
+    public static TxParticipants current() {
+        return currentLocal.get();
+    }
+
+    public static void setCurrent(TxParticipants current) {
+        currentLocal.set(current);
+    }
+
+    public synchronized void add(String kid, boolean isGroup, String modelName) {
+        items.add(kid + "," + (isGroup ? 1 : 0) + "," + modelName);
+    }
+
+    /**
+     * 加入下游响应中返回的参与方
+     */
+    public synchronized void addAll(String value) {
+        if (StringUtils.isEmpty(value)) {
+            return;
+        }
+        for (String item : value.split(";")) {
+            if (item.split(",", 3).length == 3) {
+                items.add(item);
+            }
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    public synchronized String toValue() {
+        return StringUtils.join(items, ";");
+    }
+
+    /**
+     * 关闭事务组时提交的参与方 [{"t":kid,"s":isGroup,"m":modelName}]
+     */
+    public synchronized JSONArray toJson() {
+        JSONArray array = new JSONArray(items.size());
+        for (String item : items) {
+            String[] values = item.split(",", 3);
+            JSONObject jsonObject = new JSONObject();
+            jsonObject.put("t", values[0]);
+            jsonObject.put("s", "1".equals(values[1]) ? 1 : 0);
+            jsonObject.put("m", values[2]);
+            array.add(jsonObject);
+        }
+        return array;
+    }
+}
@@ -20,6 +20,17 @@ public class TxTransactionLocal {
 
     private String compensateId;
 
+    /**
+     * 收集下游随响应返回的参与方,为空时下游参与方各自加入事务组
+     */
+    private TxParticipants participants;
+
+    /**
+     * 异步创建事务组失败或TxManager返回繁忙,在io线程中设置.
+     * 设置后不再调用下游服务,业务方法执行完后回滚
+     */
+    private volatile boolean groupFailed = false;
+
     public boolean isHasIsGroup() {
         return hasIsGroup;
     }
@@ -74,6 +85,22 @@ public class TxTransactionLocal {
         this.compensateId = compensateId;
     }
 
+    public TxParticipants getParticipants() {
+        return participants;
+    }
+
+    public void setParticipants(TxParticipants participants) {
+        this.participants = participants;
+    }
+
+    public boolean isGroupFailed() {
+        return groupFailed;
+    }
+
+    public void setGroupFailed(boolean groupFailed) {
+        this.groupFailed = groupFailed;
+    }
+
     public static TxTransactionLocal current() {
         return currentLocal.get();
     }
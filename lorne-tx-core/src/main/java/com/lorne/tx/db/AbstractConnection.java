@@ -1,10 +1,10 @@
 package com.lorne.tx.db;
 
-import com.lorne.core.framework.utils.task.ConditionUtils;
-import com.lorne.core.framework.utils.task.Task;
 import com.lorne.tx.bean.TxTransactionLocal;
 import com.lorne.tx.compensate.service.impl.CompensateServiceImpl;
 import com.lorne.tx.db.service.DataSourceService;
+import com.lorne.tx.task.WaitTask;
+import com.lorne.tx.task.WaitTaskManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +36,7 @@ public abstract class AbstractConnection implements Connection {
 
     private String groupId;
 
-    protected Task waitTask;
+    protected WaitTask waitTask;
 
 
     public AbstractConnection(Connection connection, DataSourceService dataSourceService, TxTransactionLocal transactionLocal, LCNDataSourceProxy.ISubNowConnection runnable) {
@@ -46,7 +46,7 @@ public abstract class AbstractConnection implements Connection {
         this.dataSourceService = dataSourceService;
         groupId = transactionLocal.getGroupId();
         if (!CompensateServiceImpl.COMPENSATE_KEY.equals(transactionLocal.getGroupId())) {
-            waitTask = ConditionUtils.getInstance().createTask(transactionLocal.getKid());
+            waitTask = WaitTaskManager.getInstance().createTask(transactionLocal.getKid());
             logger.info("task-create-> " + waitTask.getKey());
         }
     }
@@ -134,7 +134,7 @@ public abstract class AbstractConnection implements Connection {
         return groupId;
     }
 
-    public Task getWaitTask() {
+    public WaitTask getWaitTask() {
         return waitTask;
     }
 
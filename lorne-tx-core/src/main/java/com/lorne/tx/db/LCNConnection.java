@@ -1,15 +1,21 @@
 package com.lorne.tx.db;
 
+import com.lorne.core.framework.utils.config.ConfigUtils;
 import com.lorne.tx.bean.TxTransactionLocal;
 import com.lorne.tx.db.service.DataSourceService;
+import com.lorne.tx.mq.handler.TransactionHandler;
+import com.lorne.tx.utils.WheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Timer;
-import java.util.TimerTask;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -21,10 +27,70 @@ public class LCNConnection extends AbstractConnection {
     private Logger logger = LoggerFactory.getLogger(LCNConnection.class);
 
 
+    /**
+     * 等待通知超时后主动检查事务状态的时间(秒) tx.properties transaction.check.time,未配置时为0,由getCheckTime计算
+     */
+    private final static int configCheckTime = loadCheckTime();
+
+    /**
+     * 检查事务状态会请求TxManager,不在时间轮线程中执行
+     */
+    private final static Executor checkExecutor = Executors.newCachedThreadPool(new DefaultThreadFactory("tx-check", true));
+
+    /**
+     * 检查结果不确定时再次检查的定时
+     */
+    private Timeout checkTimeout;
+
+
     public LCNConnection(Connection connection, DataSourceService dataSourceService, TxTransactionLocal transactionLocal, LCNDataSourceProxy.ISubNowConnection runnable) {
         super(connection, dataSourceService, transactionLocal, runnable);
     }
 
+    private static int loadCheckTime() {
+        try {
+            int time = ConfigUtils.getInt("tx.properties", "transaction.check.time");
+            return time > 0 ? time : 0;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * 未配置时为TxManager上事务组的最大等待时间+1秒+delay,此时事务组已关闭或已超时回滚,检查的结果即为最终状态.
+     * 尚未从TxManager获取等待时间时为30秒
+     */
+    private static int getCheckTime() {
+        if (configCheckTime > 0) {
+            return configCheckTime;
+        }
+        int waitTime = TransactionHandler.waitTime;
+        return waitTime > 0 ? waitTime + 1 + Math.max(TransactionHandler.delay, 1) : 30;
+    }
+
+    private Timeout scheduleCheck(int seconds) {
+        return WheelTimer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                checkExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        logger.info("自动回滚->" + transactionLocal.getGroupId());
+                        dataSourceService.schedule(transactionLocal.getGroupId(), waitTask);
+                        if (!waitTask.isSignaled()) {
+                            //TxManager无法确定状态,稍后再检查,不再无限等待
+                            synchronized (LCNConnection.this) {
+                                if (!waitTask.isSignaled()) {
+                                    checkTimeout = scheduleCheck(Math.max(TransactionHandler.delay, 1));
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+        }, seconds, TimeUnit.SECONDS);
+    }
+
     @Override
     public void transaction() throws SQLException {
         logger.info("transaction-running->" + transactionLocal.getGroupId());
@@ -36,20 +102,18 @@ public class LCNConnection extends AbstractConnection {
         }
 
         //start 结束就是全部事务的结束表示,考虑start挂掉的情况
-        Timer timer = new Timer();
-        timer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                logger.info("自动回滚->" + transactionLocal.getGroupId());
-                dataSourceService.schedule(transactionLocal.getGroupId(), waitTask);
-            }
-        }, 30 * 1000);
+        final Timeout timeout = scheduleCheck(getCheckTime());
 
         logger.info("transaction-awaitTask->" + transactionLocal.getGroupId());
 
-        waitTask.awaitTask();
+        waitTask.await();
 
-        timer.cancel();
+        timeout.cancel();
+        synchronized (this) {
+            if (checkTimeout != null) {
+                checkTimeout.cancel();
+            }
+        }
 
         try {
             int rs = waitTask.getState();
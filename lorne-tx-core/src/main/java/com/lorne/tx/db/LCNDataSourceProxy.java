@@ -1,9 +1,9 @@
 package com.lorne.tx.db;
 
-import com.lorne.core.framework.utils.task.Task;
 import com.lorne.tx.bean.TxTransactionLocal;
 import com.lorne.tx.compensate.service.impl.CompensateServiceImpl;
 import com.lorne.tx.db.service.DataSourceService;
+import com.lorne.tx.task.WaitTask;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -59,7 +59,7 @@ public class LCNDataSourceProxy implements DataSource {
 
         @Override
         public void close(AbstractConnection connection) {
-            Task waitTask = connection.getWaitTask();
+            WaitTask waitTask = connection.getWaitTask();
             if (waitTask != null) {
                 if (!waitTask.isRemove()) {
                     waitTask.remove();
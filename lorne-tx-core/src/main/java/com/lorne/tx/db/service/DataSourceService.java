@@ -1,6 +1,6 @@
 package com.lorne.tx.db.service;
 
-import com.lorne.core.framework.utils.task.Task;
+import com.lorne.tx.task.WaitTask;
 
 /**
  * create by lorne on 2017/7/29
@@ -8,7 +8,7 @@ import com.lorne.core.framework.utils.task.Task;
 public interface DataSourceService {
 
 
-    void schedule(String groupId, Task waitTask);
+    void schedule(String groupId, WaitTask waitTask);
 
     void deleteCompensateId(String compensateId);
 }
@@ -2,10 +2,10 @@ package com.lorne.tx.db.service.impl;
 
 import com.lorne.core.framework.utils.config.ConfigUtils;
 import com.lorne.core.framework.utils.http.HttpUtils;
-import com.lorne.core.framework.utils.task.Task;
 import com.lorne.tx.compensate.service.CompensateService;
 import com.lorne.tx.db.service.DataSourceService;
 import com.lorne.tx.mq.service.MQTxManagerService;
+import com.lorne.tx.task.WaitTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -42,21 +42,19 @@ public class DataSourceServiceImpl implements DataSourceService {
 
 
     @Override
-    public void schedule(String groupId, Task waitTask) {
+    public void schedule(String groupId, WaitTask waitTask) {
         String waitTaskId = waitTask.getKey();
         int rs = txManagerService.checkTransactionInfo(groupId, waitTaskId);
         logger.info("schedule-checkTransactionInfo-res->" + rs);
         if (rs == 1 || rs == 0) {
-            waitTask.setState(rs);
-            waitTask.signalTask();
+            waitTask.signal(rs);
             logger.info("schedule-checkTransactionInfo-server->" + rs);
             return;
         }
         rs = httpCheckTransactionInfo(groupId, waitTaskId);
         logger.info("schedule-httpCheckTransactionInfo-res->" + rs);
         if (rs == 1 || rs == 0) {
-            waitTask.setState(rs);
-            waitTask.signalTask();
+            waitTask.signal(rs);
             logger.info("schedule-httpCheckTransactionInfo-server->" + rs);
             return;
         }
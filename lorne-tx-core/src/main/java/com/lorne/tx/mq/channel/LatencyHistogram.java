@@ -0,0 +1,156 @@
+package com.lorne.tx.mq.channel;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 延迟直方图(微秒),每2倍区间分4个桶,误差不超过25%.
+ * 滚动模式统计当前与上一个窗口的数据,累计模式(cumulative)不清除数据并记录延迟总和.
+ * 除包名外与tx-manager中的com.lorne.tx.metrics.LatencyHistogram相同,两个模块没有共同依赖,修改时需同时修改
+ */
+public class LatencyHistogram {
+
+    private final static int SUB_BUCKETS = 4;
+
+    private final static int MAX_OCTAVE = 40;
+
+    public final static int BUCKETS = (MAX_OCTAVE + 1) * SUB_BUCKETS;
+
+    private final static LongSupplier SYSTEM_CLOCK = new LongSupplier() {
+        @Override
+        public long getAsLong() {
+            return System.nanoTime();
+        }
+    };
+
+    private final long windowNanos;
+
+    /**
+     * 纳秒时钟,测试中手动推进
+     */
+    private final LongSupplier clock;
+
+    private volatile AtomicLongArray current = new AtomicLongArray(BUCKETS);
+
+    private volatile AtomicLongArray previous = new AtomicLongArray(BUCKETS);
+
+    private volatile long windowStart;
+
+    /**
+     * 延迟总和(微秒),仅累计模式记录
+     */
+    private final LongAdder sum;
+
+
+    public LatencyHistogram(long windowMillis) {
+        this(windowMillis, SYSTEM_CLOCK);
+    }
+
+    LatencyHistogram(long windowMillis, LongSupplier clock) {
+        this.windowNanos = windowMillis * 1000000L;
+        this.clock = clock;
+        this.windowStart = clock.getAsLong();
+        this.sum = windowMillis > 0 ? null : new LongAdder();
+    }
+
+    /**
+     * 不滚动窗口的累计直方图
+     */
+    public static LatencyHistogram cumulative() {
+        return new LatencyHistogram(0, SYSTEM_CLOCK);
+    }
+
+    private static int index(long micros) {
+        if (micros < 1) {
+            micros = 1;
+        }
+        int octave = 63 - Long.numberOfLeadingZeros(micros);
+        if (octave > MAX_OCTAVE) {
+            return BUCKETS - 1;
+        }
+        int sub = octave >= 2 ? (int) ((micros >>> (octave - 2)) & 3) : 0;
+        return octave * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * 桶的上界(微秒),不含上界
+     */
+    public static long upperBound(int index) {
+        int octave = index / SUB_BUCKETS;
+        int sub = index % SUB_BUCKETS;
+        if (octave < 2) {
+            return 1L << (octave + 1);
+        }
+        return (SUB_BUCKETS + sub + 1L) << (octave - 2);
+    }
+
+    private void rotate() {
+        if (windowNanos <= 0) {
+            return;
+        }
+        long now = clock.getAsLong();
+        if (now - windowStart < windowNanos) {
+            return;
+        }
+        synchronized (this) {
+            if (now - windowStart >= windowNanos) {
+                previous = current;
+                current = new AtomicLongArray(BUCKETS);
+                windowStart = now;
+            }
+        }
+    }
+
+    public void record(long micros) {
+        rotate();
+        current.incrementAndGet(index(micros));
+        if (sum != null) {
+            sum.add(micros);
+        }
+    }
+
+    /**
+     * 各桶的样本数,下标与upperBound相同
+     */
+    public long[] getCounts() {
+        rotate();
+        AtomicLongArray cur = current;
+        AtomicLongArray pre = previous;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = cur.get(i) + pre.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * 延迟总和(微秒),滚动模式返回0
+     */
+    public long getSum() {
+        return sum == null ? 0 : sum.sum();
+    }
+
+    /**
+     * 百分位延迟(微秒),样本数不足minSamples时返回-1
+     */
+    public long percentile(double percentile, int minSamples) {
+        long[] counts = getCounts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total < minSamples || total == 0) {
+            return -1;
+        }
+        long target = (long) Math.ceil(total * percentile);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += counts[i];
+            if (cumulative >= target) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+}
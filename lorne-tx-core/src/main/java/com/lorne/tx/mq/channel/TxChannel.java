@@ -0,0 +1,234 @@
+package com.lorne.tx.mq.channel;
+
+import com.lorne.tx.mq.model.Request;
+import com.lorne.tx.utils.WheelTimer;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.util.AttributeKey;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.collection.LongObjectHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * 与TxManager之间的单个连接及其等待响应的请求
+ */
+public class TxChannel {
+
+    public final static AttributeKey<TxChannel> KEY = AttributeKey.valueOf("txChannel");
+
+    /**
+     * 超时时间 = p99.9延迟 * timeoutFactor,不小于minTimeout(毫秒),不大于delay
+     */
+    private static volatile double timeoutFactor = 4;
+
+    private static volatile int minTimeout = 200;
+
+    /**
+     * 计算超时时间需要的最少样本数
+     */
+    private final static int MIN_SAMPLES = 100;
+
+    private Logger logger = LoggerFactory.getLogger(TxChannel.class);
+
+    private final int slot;
+
+    private final Channel channel;
+
+    /**
+     * 请求id序列,每个连接独立递增
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * 等待TxManager响应的请求 key:请求id,访问时需同步
+     */
+    private final LongObjectHashMap<CompletableFuture<String>> pendingRequests = new LongObjectHashMap<>();
+
+    /**
+     * 每个action的响应延迟
+     */
+    private final ConcurrentHashMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    /**
+     * TxManager返回繁忙后,在该时间(毫秒)之前不再通过该连接创建事务组
+     */
+    private volatile long busyUntil = 0;
+
+
+    public TxChannel(int slot, Channel channel) {
+        this.slot = slot;
+        this.channel = channel;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public boolean isActive() {
+        return channel.isActive();
+    }
+
+    /**
+     * 正在等待响应的请求数
+     */
+    public int getInFlight() {
+        synchronized (pendingRequests) {
+            return pendingRequests.size();
+        }
+    }
+
+    /**
+     * TxManager返回繁忙
+     * @param retryTime 建议等待的毫秒数
+     */
+    public void setBusy(long retryTime) {
+        busyUntil = System.currentTimeMillis() + Math.max(retryTime, 0);
+        logger.info("TxManager繁忙->" + channel + ",retry:" + retryTime);
+    }
+
+    public boolean isBusy() {
+        return busyUntil > System.currentTimeMillis();
+    }
+
+    public static void setTimeoutPolicy(double factor, int minMillis) {
+        timeoutFactor = factor;
+        minTimeout = minMillis;
+    }
+
+    private LatencyHistogram getLatency(String action) {
+        LatencyHistogram histogram = latencies.get(action);
+        if (histogram == null) {
+            histogram = new LatencyHistogram(10 * 1000);
+            LatencyHistogram old = latencies.putIfAbsent(action, histogram);
+            if (old != null) {
+                histogram = old;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * 根据该连接上的响应延迟计算超时时间(毫秒),样本不足时使用最大值
+     */
+    public long getTimeout(String action, long maxMillis) {
+        long p999 = getLatency(action).percentile(0.999, MIN_SAMPLES);
+        if (p999 < 0) {
+            return maxMillis;
+        }
+        long timeout = (long) (p999 * timeoutFactor / 1000);
+        return Math.min(Math.max(timeout, minTimeout), maxMillis);
+    }
+
+    public long nextId() {
+        return sequence.incrementAndGet();
+    }
+
+    private boolean remove(long id, CompletableFuture<String> future) {
+        synchronized (pendingRequests) {
+            if (pendingRequests.get(id) == future) {
+                pendingRequests.remove(id);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * 异步发送请求,响应由channelRead直接唤醒,超时由时间轮处理.
+     * 超时时间由该action的响应延迟计算,最大为delay秒. 超时或链接异常时返回null
+     */
+    public CompletableFuture<String> send(final Request request, int delay) {
+        final CompletableFuture<String> future = new CompletableFuture<>();
+        if (!channel.isActive()) {
+            future.complete(null);
+            return future;
+        }
+        final long key = nextId();
+        request.setKey(key);
+        synchronized (pendingRequests) {
+            pendingRequests.put(key, future);
+        }
+
+        final long timeoutMillis = getTimeout(request.getAction(), delay * 1000L);
+        final Timeout timeout = WheelTimer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                if (remove(key, future)) {
+                    logger.info("sendMsg-timeout->" + key + ",timeout:" + timeoutMillis);
+                    future.complete(null);
+                }
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+
+        //在时间轮之后计时,首次发送启动时间轮线程的耗时不计入延迟
+        final long startTime = System.nanoTime();
+        future.whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String s, Throwable throwable) {
+                timeout.cancel();
+                if (s != null) {
+                    getLatency(request.getAction()).record((System.nanoTime() - startTime) / 1000);
+                }
+            }
+        });
+
+        //由RequestBatchHandler序列化,atg/ctg/ckg可能与其他请求合并发送
+        channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture channelFuture) throws Exception {
+                if (!channelFuture.isSuccess() && remove(key, future)) {
+                    future.complete(null);
+                }
+            }
+        });
+        logger.info("send-msg->" + request.getAction() + ",key:" + key);
+        return future;
+    }
+
+    /**
+     * 唤醒等待响应的请求
+     */
+    public void response(long key, String data) {
+        CompletableFuture<String> future;
+        synchronized (pendingRequests) {
+            future = pendingRequests.remove(key);
+        }
+        if (future != null) {
+            future.complete(data);
+        }
+    }
+
+    /**
+     * 连接断开时释放所有等待中的请求
+     */
+    public void failPendingRequests() {
+        List<CompletableFuture<String>> futures;
+        synchronized (pendingRequests) {
+            futures = new ArrayList<>(pendingRequests.values());
+            pendingRequests.clear();
+        }
+        for (CompletableFuture<String> future : futures) {
+            future.complete(null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "slot:" + slot + ",channel:" + channel + ",inFlight:" + getInFlight();
+    }
+}
@@ -0,0 +1,248 @@
+package com.lorne.tx.mq.channel;
+
+import com.lorne.tx.Constants;
+import com.lorne.tx.mq.model.TxServer;
+import com.lorne.tx.mq.service.NettyDistributeService;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.EventLoopGroup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 业务模块到TxManager的连接池,每个连接独立重连,按等待请求数最少选择连接.
+ * 开启备用连接时最后一个连接连到slbList中的另一台TxManager,主连接全部不可用时直接使用备用连接
+ */
+public class TxChannelPool {
+
+    private Logger logger = LoggerFactory.getLogger(TxChannelPool.class);
+
+    private final AtomicReferenceArray<TxChannel> channels;
+
+    /**
+     * 每个连接连续重连失败次数
+     */
+    private final AtomicIntegerArray attempts;
+
+    /**
+     * 主连接数
+     */
+    private final int size;
+
+    private final EventLoopGroup workerGroup;
+
+    /**
+     * 获取服务地址(http请求)的线程,不占用io线程
+     */
+    private final Executor discoveryExecutor;
+
+    private final NettyDistributeService nettyDistributeService;
+
+    /**
+     * 重连最小/最大间隔(毫秒)
+     */
+    private final int minBackoff;
+
+    private final int maxBackoff;
+
+    private Bootstrap bootstrap;
+
+    private volatile boolean closed = false;
+
+
+    public TxChannelPool(int size, boolean standby, int minBackoff, int maxBackoff, EventLoopGroup workerGroup,
+                         Executor discoveryExecutor, NettyDistributeService nettyDistributeService) {
+        this.size = size;
+        this.channels = new AtomicReferenceArray<>(standby ? size + 1 : size);
+        this.attempts = new AtomicIntegerArray(channels.length());
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+        this.workerGroup = workerGroup;
+        this.discoveryExecutor = discoveryExecutor;
+        this.nettyDistributeService = nettyDistributeService;
+    }
+
+    public void start(Bootstrap bootstrap) {
+        this.bootstrap = bootstrap;
+        for (int slot = 0; slot < channels.length(); slot++) {
+            locateAndConnect(slot, false);
+        }
+    }
+
+    private boolean isStandby(int slot) {
+        return slot >= size;
+    }
+
+    /**
+     * 在discovery线程中获取服务地址后连接
+     */
+    private void locateAndConnect(final int slot, final boolean reconnect) {
+        if (closed) {
+            return;
+        }
+        try {
+            discoveryExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    TxServer txServer;
+                    if (isStandby(slot)) {
+                        txServer = nettyDistributeService.loadStandbyServer();
+                    } else {
+                        if (reconnect) {
+                            nettyDistributeService.loadTxServer();
+                        }
+                        txServer = Constants.txServer;
+                    }
+                    if (txServer == null) {
+                        schedule(slot);
+                    } else {
+                        connect(slot, txServer);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.info("connect rejected,slot:" + slot);
+        }
+    }
+
+    private void connect(final int slot, TxServer txServer) {
+        if (closed) {
+            return;
+        }
+        String host = txServer.getHost();
+        int port = txServer.getPort();
+        logger.info("连接manager-socket服务-> host:" + host + ",port:" + port + ",slot:" + slot + (isStandby(slot) ? ",standby" : ""));
+
+        ChannelFuture future;
+        try {
+            future = bootstrap.connect(host, port);
+        } catch (RejectedExecutionException e) {
+            logger.info("connect rejected,slot:" + slot);
+            return;
+        }
+        final TxChannel txChannel = new TxChannel(slot, future.channel());
+        future.channel().attr(TxChannel.KEY).set(txChannel);
+
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture channelFuture) throws Exception {
+                if (channelFuture.isSuccess()) {
+                    attempts.set(slot, 0);
+                    channels.set(slot, txChannel);
+                } else {
+                    schedule(slot);
+                }
+            }
+        });
+    }
+
+    /**
+     * 连接断开后仅重连该连接,其他连接不受影响
+     */
+    public void reconnect(TxChannel txChannel) {
+        txChannel.failPendingRequests();
+        //未连接成功的连接由connect负责重连
+        if (channels.compareAndSet(txChannel.getSlot(), txChannel, null)) {
+            schedule(txChannel.getSlot());
+        }
+    }
+
+    /**
+     * 带随机抖动的指数退避 [间隔/2,间隔)
+     */
+    private long backoff(int attempt) {
+        long delay = (long) minBackoff << Math.min(attempt, 20);
+        if (delay > maxBackoff) {
+            delay = maxBackoff;
+        }
+        long half = Math.max(delay / 2, 1);
+        return half + ThreadLocalRandom.current().nextLong(half);
+    }
+
+    private void schedule(final int slot) {
+        if (closed) {
+            return;
+        }
+        long delay = backoff(attempts.getAndIncrement(slot));
+        try {
+            workerGroup.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    locateAndConnect(slot, true);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            logger.info("reconnect rejected,slot:" + slot);
+        }
+    }
+
+    /**
+     * 选择等待请求数最少的可用主连接,没有可用主连接时使用备用连接
+     */
+    public TxChannel select() {
+        return select(false);
+    }
+
+    /**
+     * @param skipBusy 是否跳过返回繁忙的TxManager,创建事务组时使用
+     */
+    public TxChannel select(boolean skipBusy) {
+        TxChannel selected = null;
+        for (int slot = 0; slot < size; slot++) {
+            TxChannel txChannel = channels.get(slot);
+            if (txChannel != null && txChannel.isActive() && !(skipBusy && txChannel.isBusy())) {
+                if (selected == null || txChannel.getInFlight() < selected.getInFlight()) {
+                    selected = txChannel;
+                }
+            }
+        }
+        if (selected == null && channels.length() > size) {
+            TxChannel standby = channels.get(size);
+            if (standby != null && standby.isActive() && !(skipBusy && standby.isBusy())) {
+                selected = standby;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 连接到指定TxManager(remoteAddress)的可用连接,没有时返回null
+     */
+    public TxChannel select(String manager) {
+        for (int slot = 0; slot < channels.length(); slot++) {
+            TxChannel txChannel = channels.get(slot);
+            if (txChannel != null && txChannel.isActive() && String.valueOf(txChannel.getChannel().remoteAddress()).equals(manager)) {
+                return txChannel;
+            }
+        }
+        return null;
+    }
+
+    public boolean isActive() {
+        for (int slot = 0; slot < channels.length(); slot++) {
+            TxChannel txChannel = channels.get(slot);
+            if (txChannel != null && txChannel.isActive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void close() {
+        closed = true;
+        for (int slot = 0; slot < channels.length(); slot++) {
+            TxChannel txChannel = channels.getAndSet(slot, null);
+            if (txChannel != null) {
+                txChannel.failPendingRequests();
+            }
+        }
+    }
+}
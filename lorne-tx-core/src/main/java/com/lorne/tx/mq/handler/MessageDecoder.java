@@ -0,0 +1,60 @@
+package com.lorne.tx.mq.handler;
+
+import com.alibaba.fastjson.JSONObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.CharsetUtil;
+
+/**
+ * 消息解码 4字节长度 + 内容,解码为JSONObject.
+ * 以'{'开头的帧为JSON,其他为MessageProtocol二进制帧.
+ * 与另一模块(lorne-tx-core/tx-manager)中的同名类相同,两个模块没有共同依赖,修改时需同时修改(由两个模块中的WireFormatTest检查)
+ */
+public class MessageDecoder extends LengthFieldBasedFrameDecoder {
+
+    /**
+     * 默认最大帧长度(字节)
+     */
+    public final static int DEFAULT_MAX_FRAME_LENGTH = 4 * 1024 * 1024;
+
+    /**
+     * @param maxFrameLength 最大帧长度(字节),超过时关闭连接
+     */
+    public MessageDecoder(int maxFrameLength) {
+        super(maxFrameLength > 0 ? maxFrameLength : DEFAULT_MAX_FRAME_LENGTH, 0, 4, 0, 4);
+    }
+
+    @Override
+    protected Object decode(ChannelHandlerContext ctx, ByteBuf in) throws Exception {
+        ByteBuf frame;
+        try {
+            frame = (ByteBuf) super.decode(ctx, in);
+        } catch (TooLongFrameException e) {
+            //长度错误时之后的数据无法再分帧
+            ctx.close();
+            throw e;
+        }
+        if (frame == null) {
+            return null;
+        }
+        try {
+            if (!frame.isReadable()) {
+                return null;
+            }
+            if (frame.getByte(frame.readerIndex()) == '{') {
+                return JSONObject.parseObject(frame.toString(CharsetUtil.UTF_8));
+            }
+            return MessageProtocol.decode(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Override
+    protected ByteBuf extractFrame(ChannelHandlerContext ctx, ByteBuf buffer, int index, int length) {
+        //只在解码时使用,不需要复制
+        return buffer.retainedSlice(index, length);
+    }
+}
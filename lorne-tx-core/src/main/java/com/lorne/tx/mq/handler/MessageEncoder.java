@@ -0,0 +1,48 @@
+package com.lorne.tx.mq.handler;
+
+import com.alibaba.fastjson.JSONObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToByteEncoder;
+
+/**
+ * 消息编码 4字节长度 + 内容,直接写入池化的直接内存.
+ * JSONObject在连接协商了二进制协议时按MessageProtocol编码,否则与String一样以UTF-8 JSON发送.
+ * 与另一模块(lorne-tx-core/tx-manager)中的同名类相同,两个模块没有共同依赖,修改时需同时修改(由两个模块中的WireFormatTest检查)
+ */
+@ChannelHandler.Sharable
+public class MessageEncoder extends MessageToByteEncoder<Object> {
+
+    public final static MessageEncoder INSTANCE = new MessageEncoder();
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        return msg instanceof String || msg instanceof JSONObject;
+    }
+
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, Object msg, boolean preferDirect) throws Exception {
+        if (msg instanceof String) {
+            //纯ASCII时不需要扩容
+            return ctx.alloc().ioBuffer(((String) msg).length() + 4);
+        }
+        return ctx.alloc().ioBuffer();
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, Object msg, ByteBuf out) throws Exception {
+        int index = out.writerIndex();
+        out.writeInt(0);
+        if (msg instanceof JSONObject) {
+            JSONObject json = (JSONObject) msg;
+            if (MessageProtocol.getVersion(ctx.channel()) <= 0 || !MessageProtocol.encode(json, out)) {
+                ByteBufUtil.writeUtf8(out, json.toJSONString());
+            }
+        } else {
+            ByteBufUtil.writeUtf8(out, (String) msg);
+        }
+        out.setInt(index, out.writerIndex() - index - 4);
+    }
+}
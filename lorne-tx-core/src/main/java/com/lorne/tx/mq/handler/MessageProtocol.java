@@ -0,0 +1,277 @@
+package com.lorne.tx.mq.handler;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.util.AttributeKey;
+import io.netty.util.CharsetUtil;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 二进制消息协议
+ * 帧: 帧格式版本(1) + 操作码(1) + 请求id(8) + 字段数(2) + 字段
+ * 字段: 名称(1) + 类型(1) + 值, 类型 s:字符串 i:int l:long o:对象 r:数组
+ * JSON帧以'{'开头,解码时按首字节区分. 发送时按握手(a:p)协商的版本选择,未协商时使用JSON.
+ * 与另一模块(lorne-tx-core/tx-manager)中的同名类相同,两个模块没有共同依赖,修改时需同时修改(由两个模块中的WireFormatTest检查),
+ * 事务模块与TxManager必须使用相同的操作码与字段编码,修改协议时同时增加VERSION
+ */
+public class MessageProtocol {
+
+    /**
+     * 当前协议版本 1:二进制帧,批量请求(a:b) 2:批量通知(a:mt) 3:事务模块生成事务组id 4:关闭事务组时提交参与方
+     */
+    public final static int VERSION = 4;
+
+    /**
+     * 支持批量请求的协议版本,未握手的TxManager不支持
+     */
+    public final static int VERSION_BATCH = 1;
+
+    /**
+     * 支持批量通知的协议版本
+     */
+    public final static int VERSION_BATCH_NOTIFY = 2;
+
+    /**
+     * 支持事务模块生成事务组id的协议版本
+     */
+    public final static int VERSION_GROUP_ID = 3;
+
+    /**
+     * 支持关闭事务组(ctg)时一并提交参与方列表的协议版本
+     */
+    public final static int VERSION_PIGGYBACK = 4;
+
+    /**
+     * 二进制帧格式版本,写在帧的首字节,不能为'{'
+     */
+    private final static int FRAME_VERSION = 1;
+
+    /**
+     * 连接协商后的协议版本 空或0表示JSON
+     */
+    public final static AttributeKey<Integer> VERSION_KEY = AttributeKey.valueOf("protocolVersion");
+
+    /**
+     * 操作码 下标即操作码,0为响应
+     */
+    private final static String[] actions = {null, "cg", "atg", "ctg", "ckg", "h", "t", "b", "mt"};
+
+    private final static byte TYPE_STRING = 's';
+    private final static byte TYPE_INT = 'i';
+    private final static byte TYPE_LONG = 'l';
+    private final static byte TYPE_OBJECT = 'o';
+    private final static byte TYPE_ARRAY = 'r';
+
+
+    public static int getVersion(Channel channel) {
+        Integer version = channel.attr(VERSION_KEY).get();
+        return version == null ? 0 : version;
+    }
+
+    public static void setVersion(Channel channel, int version) {
+        channel.attr(VERSION_KEY).set(Math.min(version, VERSION));
+    }
+
+    private static int opcode(String action) {
+        if (action == null) {
+            return 0;
+        }
+        for (int i = 1; i < actions.length; i++) {
+            if (actions[i].equals(action)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 数字key作为请求id,其他key作为普通字段 返回-1
+     */
+    private static long id(Object key) {
+        if (key instanceof Integer || key instanceof Long) {
+            long id = ((Number) key).longValue();
+            return id >= 0 ? id : -1;
+        }
+        if (key instanceof String) {
+            String str = (String) key;
+            int length = str.length();
+            if (length == 0 || length > 18 || (length > 1 && str.charAt(0) == '0')) {
+                return -1;
+            }
+            for (int i = 0; i < length; i++) {
+                char c = str.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+            }
+            return Long.parseLong(str);
+        }
+        return -1;
+    }
+
+    /**
+     * 写入二进制帧,存在无法编码的操作或字段时还原并返回false,由调用方改用JSON
+     */
+    public static boolean encode(JSONObject msg, ByteBuf out) {
+        int start = out.writerIndex();
+        int opcode = opcode(msg.getString("a"));
+        if (opcode < 0) {
+            return false;
+        }
+        long id = id(msg.get("k"));
+        out.writeByte(FRAME_VERSION);
+        out.writeByte(opcode);
+        out.writeLong(id);
+        int countIndex = out.writerIndex();
+        out.writeShort(0);
+        int count = 0;
+        for (Map.Entry<String, Object> entry : msg.entrySet()) {
+            String name = entry.getKey();
+            if ("a".equals(name) || ("k".equals(name) && id >= 0)) {
+                continue;
+            }
+            if (!writeField(name, entry.getValue(), out)) {
+                out.writerIndex(start);
+                return false;
+            }
+            count++;
+        }
+        out.setShort(countIndex, count);
+        return true;
+    }
+
+    private static boolean writeField(String name, Object value, ByteBuf out) {
+        if (name.length() != 1 || name.charAt(0) > 127) {
+            return false;
+        }
+        out.writeByte(name.charAt(0));
+        return writeValue(value, out);
+    }
+
+    private static boolean writeValue(Object value, ByteBuf out) {
+        if (value instanceof String) {
+            out.writeByte(TYPE_STRING);
+            int index = out.writerIndex();
+            out.writeInt(0);
+            out.setInt(index, ByteBufUtil.writeUtf8(out, (String) value));
+            return true;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(TYPE_INT);
+            out.writeInt(((Number) value).intValue());
+            return true;
+        }
+        if (value instanceof Long) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long) value);
+            return true;
+        }
+        if (value instanceof Map) {
+            out.writeByte(TYPE_OBJECT);
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeShort(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!(entry.getKey() instanceof String) || !writeField((String) entry.getKey(), entry.getValue(), out)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof List) {
+            out.writeByte(TYPE_ARRAY);
+            List<?> list = (List<?>) value;
+            out.writeInt(list.size());
+            for (Object item : list) {
+                if (!writeValue(item, out)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 读取二进制帧
+     */
+    public static JSONObject decode(ByteBuf in) {
+        int version = in.readUnsignedByte();
+        if (version > FRAME_VERSION) {
+            throw new DecoderException("unsupported protocol version:" + version);
+        }
+        int opcode = in.readUnsignedByte();
+        long id = in.readLong();
+        JSONObject msg = readObject(in);
+        if (opcode > 0) {
+            if (opcode >= actions.length) {
+                throw new DecoderException("unknown opcode:" + opcode);
+            }
+            msg.put("a", actions[opcode]);
+        }
+        if (id >= 0) {
+            msg.put("k", id);
+        }
+        return msg;
+    }
+
+    private static JSONObject readObject(ByteBuf in) {
+        int count = in.readUnsignedShort();
+        JSONObject object = new JSONObject();
+        for (int i = 0; i < count; i++) {
+            String name = String.valueOf((char) in.readByte());
+            object.put(name, readValue(in));
+        }
+        return object;
+    }
+
+    private static Object readValue(ByteBuf in) {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_STRING: {
+                int length = in.readInt();
+                String value = in.toString(in.readerIndex(), length, CharsetUtil.UTF_8);
+                in.skipBytes(length);
+                return value;
+            }
+            case TYPE_INT:
+                return in.readInt();
+            case TYPE_LONG:
+                return in.readLong();
+            case TYPE_OBJECT:
+                return readObject(in);
+            case TYPE_ARRAY: {
+                int size = in.readInt();
+                JSONArray array = new JSONArray(size);
+                for (int i = 0; i < size; i++) {
+                    array.add(readValue(in));
+                }
+                return array;
+            }
+            default:
+                throw new DecoderException("unknown field type:" + type);
+        }
+    }
+
+    /**
+     * 请求参数,兼容p为JSON字符串的旧格式
+     */
+    public static JSONObject getParams(JSONObject msg) {
+        Object params = msg.get("p");
+        if (params instanceof JSONObject) {
+            return (JSONObject) params;
+        }
+        if (params instanceof String) {
+            return JSONObject.parseObject((String) params);
+        }
+        if (params instanceof Map) {
+            return new JSONObject((Map<String, Object>) params);
+        }
+        return new JSONObject();
+    }
+}
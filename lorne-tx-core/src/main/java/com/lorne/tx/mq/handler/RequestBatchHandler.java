@@ -0,0 +1,133 @@
+package com.lorne.tx.mq.handler;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.lorne.tx.mq.channel.TxChannel;
+import com.lorne.tx.mq.model.Request;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求合并发送,atg/ctg/ckg请求在窗口时间内或达到最大数量时合并为一个批量帧(a:b)发送.
+ * 只在握手协商的版本支持批量请求时合并,其他请求直接发送,由MessageEncoder编码. 每个连接一个实例,只在io线程中执行.
+ */
+public class RequestBatchHandler extends ChannelOutboundHandlerAdapter {
+
+    /**
+     * 合并窗口时间(毫秒) 0表示不合并
+     */
+    private final int window;
+
+    /**
+     * 单个批量帧的最大请求数
+     */
+    private final int maxSize;
+
+    private final List<Request> requests = new ArrayList<>();
+
+    private final List<ChannelPromise> promises = new ArrayList<>();
+
+    private ScheduledFuture<?> flushFuture;
+
+
+    public RequestBatchHandler(int window, int maxSize) {
+        this.window = window;
+        this.maxSize = maxSize > 1 ? maxSize : 1;
+    }
+
+    private static boolean isBatchable(String action) {
+        return "atg".equals(action) || "ctg".equals(action) || "ckg".equals(action);
+    }
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof Request)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        Request request = (Request) msg;
+        if (window <= 0 || !isBatchable(request.getAction())
+            || MessageProtocol.getVersion(ctx.channel()) < MessageProtocol.VERSION_BATCH) {
+            //未协商批量请求的TxManager无法解析批量帧
+            ctx.write(request.toJson(), promise);
+            return;
+        }
+
+        requests.add(request);
+        promises.add(promise);
+        if (requests.size() >= maxSize) {
+            //达到最大数量,随调用方的flush一起发出
+            writeBatch(ctx);
+        } else if (flushFuture == null) {
+            flushFuture = ctx.executor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushFuture = null;
+                    writeBatch(ctx);
+                    ctx.flush();
+                }
+            }, window, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void writeBatch(ChannelHandlerContext ctx) {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+        if (requests.size() == 1) {
+            ctx.write(requests.get(0).toJson(), promises.get(0));
+        } else {
+            JSONArray items = new JSONArray(requests.size());
+            for (Request request : requests) {
+                items.add(request.toJson());
+            }
+            JSONObject msg = new JSONObject();
+            msg.put("a", "b");
+            msg.put("k", ctx.channel().attr(TxChannel.KEY).get().nextId());
+            msg.put("p", items);
+
+            final List<ChannelPromise> batchPromises = new ArrayList<>(promises);
+            ctx.write(msg).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    for (ChannelPromise promise : batchPromises) {
+                        if (future.isSuccess()) {
+                            promise.trySuccess();
+                        } else {
+                            promise.tryFailure(future.cause());
+                        }
+                    }
+                }
+            });
+        }
+        requests.clear();
+        promises.clear();
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        if (flushFuture != null) {
+            flushFuture.cancel(false);
+            flushFuture = null;
+        }
+        for (ChannelPromise p : promises) {
+            p.tryFailure(new ClosedChannelException());
+        }
+        requests.clear();
+        promises.clear();
+        ctx.close(promise);
+    }
+}
@@ -1,11 +1,11 @@
 package com.lorne.tx.mq.handler;
 
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
-import com.lorne.core.framework.utils.task.ConditionUtils;
-import com.lorne.core.framework.utils.task.IBack;
-import com.lorne.core.framework.utils.task.Task;
-import com.lorne.tx.mq.model.Request;
-import com.lorne.tx.mq.service.NettyService;
+import com.lorne.tx.mq.channel.TxChannel;
+import com.lorne.tx.mq.channel.TxChannelPool;
+import com.lorne.tx.task.WaitTask;
+import com.lorne.tx.task.WaitTaskManager;
 import com.lorne.tx.utils.SocketUtils;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
@@ -16,7 +16,9 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by lorne on 2017/6/30.
@@ -37,138 +39,125 @@ public class TransactionHandler extends ChannelInboundHandlerAdapter {
      */
     public static volatile int delay = 1;
 
-    private ChannelHandlerContext ctx;
-
-    private NettyService nettyService;
-
-    private String heartJson;
-
+    /**
+     * TxManager上事务组的最大等待时间(秒),由TxManager返回的事务组获取,尚未获取时为0
+     */
+    public static volatile int waitTime = 0;
 
-    private final static int max_size = 50;
+    private TxChannelPool channelPool;
 
-    private Executor threadPool = Executors.newFixedThreadPool(max_size);
+    private JSONObject heartJson;
 
-    private ScheduledExecutorService executorService = Executors.newScheduledThreadPool(max_size);
+    private JSONObject handshakeJson;
 
 
-    public TransactionHandler(NettyService nettyService, int delay) {
-        this.nettyService = nettyService;
+    public TransactionHandler(TxChannelPool channelPool, int delay) {
+        this.channelPool = channelPool;
         this.delay = delay;
 
         //心跳包
         JSONObject heartJo = new JSONObject();
         heartJo.put("a", "h");
         heartJo.put("k", "h");
-        heartJo.put("p", "{}");
-        heartJson = heartJo.toString();
+        heartJo.put("p", new JSONObject());
+        heartJson = heartJo;
+
+        //协议握手包,TxManager返回支持的二进制协议版本,旧版本返回空
+        JSONObject handshakeJo = new JSONObject();
+        handshakeJo.put("a", "p");
+        handshakeJo.put("k", "p");
+        JSONObject versionJo = new JSONObject();
+        versionJo.put("v", MessageProtocol.VERSION);
+        handshakeJo.put("p", versionJo);
+        handshakeJson = handshakeJo;
 
     }
 
-    private String notifyWaitTask(Task task, int state) {
-        String res = "0";
-        task.setState(state);
-        task.signalTask();
-        int count = 0;
-        while (true) {
-            if (task.isRemove()) {
-                res = "1";
-                break;
-            }
-            if (count > 800) {
-                res = "0";
-                break;
-            }
+    /**
+     * 通知事务单元,通知先于等待到达时由WaitTask保留.
+     * 本地事务结束(remove)后返回1,超时未结束返回0,事务单元不存在返回空
+     */
+    private void notifyTransaction(final ChannelHandlerContext ctx, final JSONObject resObj) {
+        logger.info("接受通知数据->" + resObj);
+        final int state = resObj.getInteger("c");
+        String taskId = resObj.getString("t");
+        final Object key = resObj.get("k");
+        WaitTask task = WaitTaskManager.getInstance().getTask(taskId);
+        if (task == null) {
+            sendNotifyRes(ctx, key, "");
+            return;
+        }
+        task.signal(state);
 
-            count++;
-            try {
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        final AtomicBoolean hasRes = new AtomicBoolean(false);
+        final ScheduledFuture<?> timeout = ctx.executor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (hasRes.compareAndSet(false, true)) {
+                    sendNotifyRes(ctx, key, "0");
+                }
             }
-        }
+        }, delay, TimeUnit.SECONDS);
 
-        return res;
+        task.getRemoveFuture().thenRun(new Runnable() {
+            @Override
+            public void run() {
+                timeout.cancel(false);
+                if (hasRes.compareAndSet(false, true)) {
+                    sendNotifyRes(ctx, key, "1");
+                }
+            }
+        });
     }
 
+    private void sendNotifyRes(ChannelHandlerContext ctx, Object key, String res) {
+        JSONObject data = new JSONObject();
+        data.put("k", key);
+        data.put("a", "t");
 
-    private void service(String json) {
-        if (StringUtils.isNotEmpty(json)) {
-            JSONObject resObj = JSONObject.parseObject(json);
-            if (resObj.containsKey("a")) {
-
-                String action = resObj.getString("a");
-
-                switch (action) {
-                    case "t": {
-                        //通知提醒
-                        final int state = resObj.getInteger("c");
-                        String taskId = resObj.getString("t");
-                        String key = resObj.getString("k");
-                        Task task = ConditionUtils.getInstance().getTask(taskId);
-                        logger.info("接受通知数据->" + json);
-                        String res = "";
-                        if (task != null) {
-                            int index = 0;
-                            if (task.isAwait()) {   //已经等待
-                                res = notifyWaitTask(task, state);
-                            } else {
-                                while (true) {
-                                    if (index > 800) {
-                                        res = "0";
-                                        break;
-                                    }
-                                    if (task.isAwait()) {   //已经等待
-                                        res = notifyWaitTask(task, state);
-                                        break;
-                                    }
-                                    index++;
-                                    try {
-                                        Thread.sleep(1);
-                                    } catch (InterruptedException e) {
-                                        e.printStackTrace();
-                                    }
-                                }
-                            }
-                        }
-                        JSONObject data = new JSONObject();
-                        data.put("k", key);
-                        data.put("a", action);
+        JSONObject params = new JSONObject();
+        params.put("d", res);
+        data.put("p", params);
 
-                        JSONObject params = new JSONObject();
-                        params.put("d", res);
-                        data.put("p", params);
+        SocketUtils.sendMsg(ctx, data);
+        logger.info("返回通知状态->" + data);
+    }
 
-                        SocketUtils.sendMsg(ctx, data.toString());
-                        logger.info("返回通知状态->" + data.toString());
-                        break;
-                    }
+    private void response(ChannelHandlerContext ctx, JSONObject resObj) {
+        Object key = resObj.get("k");
+        if ("p".equals(key)) {
+            //协议握手
+            String data = resObj.getString("d");
+            if (StringUtils.isNotEmpty(data)) {
+                MessageProtocol.setVersion(ctx.channel(), Integer.parseInt(data));
+            }
+            logger.info("协议版本->" + MessageProtocol.getVersion(ctx.channel()));
+        } else if (!"h".equals(key)) {
+            TxChannel txChannel = ctx.channel().attr(TxChannel.KEY).get();
+            if (txChannel == null) {
+                return;
+            }
+            JSONArray batch = resObj.getJSONArray("b");
+            if (batch != null) {
+                //批量响应
+                for (int i = 0; i < batch.size(); i++) {
+                    JSONObject item = batch.getJSONObject(i);
+                    txChannel.response(item.getLongValue("k"), item.getString("d"));
                 }
-
             } else {
-                String key = resObj.getString("k");
-                if (!"h".equals(key)) {
-                    final String data = resObj.getString("d");
-                    Task task = ConditionUtils.getInstance().getTask(key);
-                    if (task != null) {
-                        if (task.isAwait()) {
-                            task.setBack(new IBack() {
-                                @Override
-                                public Object doing(Object... objs) throws Throwable {
-                                    return data;
-                                }
-                            });
-                            task.signalTask();
-                        }
-                    }
-                } else {
-                    final String data = resObj.getString("d");
-                    if (StringUtils.isNotEmpty(data)) {
-                        try {
-                            delay = Integer.parseInt(data);
-                        } catch (Exception e) {
-                            delay = 1;
-                        }
-                    }
+                if ("busy".equals(resObj.getString("e"))) {
+                    //TxManager拒绝创建事务组
+                    txChannel.setBusy(resObj.getLongValue("r"));
+                }
+                txChannel.response(resObj.getLongValue("k"), resObj.getString("d"));
+            }
+        } else {
+            final String data = resObj.getString("d");
+            if (StringUtils.isNotEmpty(data)) {
+                try {
+                    delay = Integer.parseInt(data);
+                } catch (Exception e) {
+                    delay = 1;
                 }
             }
         }
@@ -176,17 +165,25 @@ public class TransactionHandler extends ChannelInboundHandlerAdapter {
 
 
     @Override
-    public void channelRead(ChannelHandlerContext ctx, final Object msg) throws Exception {
+    public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
         net_state = true;
-        final String json = SocketUtils.getJson(msg);
-        logger.info("接受->" + json);
-
-        threadPool.execute(new Runnable() {
-            @Override
-            public void run() {
-                service(json);
+        //MessageDecoder已解码
+        final JSONObject resObj = (JSONObject) msg;
+        logger.info("接受->" + resObj);
+        String action = resObj.getString("a");
+        if ("t".equals(action)) {
+            //通知消息不阻塞io线程,本地事务结束后返回确认
+            notifyTransaction(ctx, resObj);
+        } else if ("mt".equals(action)) {
+            //批量通知,确认由NotifyBatchHandler合并返回
+            JSONArray items = resObj.getJSONArray("p");
+            for (int i = 0; i < items.size(); i++) {
+                notifyTransaction(ctx, items.getJSONObject(i));
             }
-        });
+        } else if (!resObj.containsKey("a")) {
+            //响应消息直接在io线程中唤醒等待的请求
+            response(ctx, resObj);
+        }
     }
 
     @Override
@@ -197,19 +194,20 @@ public class TransactionHandler extends ChannelInboundHandlerAdapter {
     @Override
     public void channelUnregistered(ChannelHandlerContext ctx) throws Exception {
         super.channelUnregistered(ctx);
-        net_state = false;
-        //链接断开,重新连接
-        nettyService.close();
-        Thread.sleep(1000 * 3);
-        nettyService.start();
+        net_state = channelPool.isActive();
+        //链接断开,仅重新连接当前链接
+        TxChannel txChannel = ctx.channel().attr(TxChannel.KEY).get();
+        if (txChannel != null) {
+            channelPool.reconnect(txChannel);
+        }
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         super.channelActive(ctx);
-        this.ctx = ctx;
         logger.info("建立链接-->" + ctx);
         net_state = true;
+        SocketUtils.sendMsg(ctx, handshakeJson);
     }
 
 
@@ -231,68 +229,4 @@ public class TransactionHandler extends ChannelInboundHandlerAdapter {
             }
         }
     }
-
-    private void sleepSend(Task task, Request request) {
-        while (!task.isAwait() && !Thread.currentThread().interrupted()) {
-            try {
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-        SocketUtils.sendMsg(ctx, request.toMsg());
-        logger.info("send-msg->" + request.toMsg());
-    }
-
-    public String sendMsg(final Request request) {
-        final String key = request.getKey();
-        if (ctx != null && ctx.channel() != null && ctx.channel().isActive()) {
-
-            final Task task = ConditionUtils.getInstance().createTask(key);
-            ScheduledFuture future = executorService.schedule(new Runnable() {
-                @Override
-                public void run() {
-                    Task task = ConditionUtils.getInstance().getTask(key);
-                    logger.info("sendMsg-schedule->" + request.getKey());
-                    if (task != null && !task.isNotify()) {
-                        task.setBack(new IBack() {
-                            @Override
-                            public Object doing(Object... objs) throws Throwable {
-                                return null;
-                            }
-                        });
-                        task.signalTask();
-                        logger.info("sendMsg-schedule-signalTask->" + request.getKey());
-                    }
-                }
-            }, delay, TimeUnit.SECONDS);
-
-
-            threadPool.execute(new Runnable() {
-                @Override
-                public void run() {
-                    sleepSend(task, request);
-                }
-            });
-
-
-            task.awaitTask();
-
-            if (!future.isDone()) {
-                future.cancel(false);
-            }
-
-            try {
-                Object msg = task.getBack().doing();
-                return (String) msg;
-            } catch (Throwable e) {
-            } finally {
-                task.remove();
-            }
-
-
-        }
-        return null;
-
-    }
 }
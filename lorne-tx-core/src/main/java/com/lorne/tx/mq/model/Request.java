@@ -1,6 +1,6 @@
 package com.lorne.tx.mq.model;
 
-import com.lorne.core.framework.utils.KidUtils;
+import com.alibaba.fastjson.JSONObject;
 
 /**
  * Created by lorne on 2017/6/30.
@@ -8,9 +8,9 @@ import com.lorne.core.framework.utils.KidUtils;
 public class Request {
 
     /**
-     * key
+     * key 发送时由所在连接分配的请求id
      */
-    private String key;
+    private long key;
     /**
      * action
      */
@@ -18,20 +18,19 @@ public class Request {
     /**
      * params
      */
-    private String params;
+    private JSONObject params;
 
 
-    public Request(String action, String params) {
+    public Request(String action, JSONObject params) {
         this.action = action;
         this.params = params;
-        this.key = KidUtils.generateShortUuid();
     }
 
-    public String getKey() {
+    public long getKey() {
         return key;
     }
 
-    public void setKey(String key) {
+    public void setKey(long key) {
         this.key = key;
     }
 
@@ -43,20 +42,23 @@ public class Request {
         this.action = action;
     }
 
-    public String getParams() {
+    public JSONObject getParams() {
         return params;
     }
 
-    public void setParams(String params) {
+    public void setParams(JSONObject params) {
         this.params = params;
     }
 
+    public JSONObject toJson() {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("a", getAction());
+        jsonObject.put("k", getKey());
+        jsonObject.put("p", getParams());
+        return jsonObject;
+    }
+
     public String toMsg() {
-//        JSONObject jsonObject = new JSONObject();
-//        jsonObject.put("a", getAction());
-//        jsonObject.put("k", getKey());
-//        jsonObject.put("p", getParams());
-        String json = "{\"a\":\"" + getAction() + "\",\"k\":\"" + getKey() + "\",\"p\":" + getParams() + "}";
-        return json;
+        return toJson().toString();
     }
 }
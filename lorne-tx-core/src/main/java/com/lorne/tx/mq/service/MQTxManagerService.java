@@ -1,8 +1,11 @@
 package com.lorne.tx.mq.service;
 
 import com.lorne.core.framework.utils.task.Task;
+import com.lorne.tx.bean.TxParticipants;
+import com.lorne.tx.bean.TxTransactionLocal;
 import com.lorne.tx.mq.model.TxGroup;
 
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Created by lorne on 2017/6/7.
@@ -18,6 +21,15 @@ public interface MQTxManagerService {
     TxGroup createTransactionGroup();
 
 
+    /**
+     * 开始事务组,TxManager支持时在本地生成事务组id并异步创建事务组,否则同步创建.
+     * 失败时返回null,异步创建失败时设置txTransactionLocal的groupFailed
+     *
+     * @return 事务组id
+     */
+    String startTransactionGroup(TxTransactionLocal txTransactionLocal);
+
+
     /**
      * 添加事务组子对象
      *
@@ -49,4 +61,44 @@ public interface MQTxManagerService {
     int checkTransactionInfo(String groupId, String taskId);
 
 
+    /**
+     * 异步创建事务组,失败时返回null
+     *
+     * @return
+     */
+    CompletableFuture<TxGroup> createTransactionGroupAsync();
+
+
+    /**
+     * 异步添加事务组子对象,失败时返回null
+     *
+     * @return
+     */
+    CompletableFuture<TxGroup> addTransactionGroupAsync(String groupId, String taskId, boolean isGroup);
+
+
+    /**
+     * 异步关闭事务组
+     *
+     * @return 1 成功 0 失败 -1 网络异常
+     */
+    CompletableFuture<Integer> closeTransactionGroupAsync(String groupId, int state);
+
+
+    /**
+     * 异步关闭事务组,同时提交随rpc响应返回的参与方
+     *
+     * @return 1 成功 0 失败 -1 网络异常
+     */
+    CompletableFuture<Integer> closeTransactionGroupAsync(String groupId, int state, TxParticipants participants);
+
+
+    /**
+     * 异步检查事务组
+     *
+     * @return 1 提交 0 回滚 -1 网络异常
+     */
+    CompletableFuture<Integer> checkTransactionInfoAsync(String groupId, String taskId);
+
+
 }
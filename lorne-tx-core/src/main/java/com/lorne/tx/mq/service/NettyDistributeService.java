@@ -1,8 +1,19 @@
 package com.lorne.tx.mq.service;
 
+import com.lorne.tx.mq.model.TxServer;
+
 /**
  * Created by lorne on 2017/6/30.
  */
 public interface NettyDistributeService {
+
+    /**
+     * 获取TxManager服务地址,尚未获取过时阻塞等待,之后每次只请求一次
+     */
     void loadTxServer();
+
+    /**
+     * 从TxManager的slbList中选择另一台可用的TxManager作为备用,没有时返回null
+     */
+    TxServer loadStandbyServer();
 }
@@ -2,6 +2,8 @@ package com.lorne.tx.mq.service;
 
 import com.lorne.tx.mq.model.Request;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Created by lorne on 2017/6/30.
  */
@@ -15,5 +17,52 @@ public interface NettyService {
 
     String sendMsg(Request request);
 
+    CompletableFuture<String> sendMsgAsync(Request request);
+
+    /**
+     * 发送到指定的TxManager,没有到该TxManager的可用连接时按sendMsgAsync(request)选择连接
+     */
+    CompletableFuture<String> sendMsgAsync(Request request, String manager);
+
     boolean checkState();
+
+    /**
+     * 当前可用连接协商的协议版本,没有可用连接时返回0
+     */
+    int getProtocolVersion();
+
+    /**
+     * 到指定TxManager的连接协商的协议版本,没有到该TxManager的可用连接时返回0
+     */
+    int getProtocolVersion(String manager);
+
+    /**
+     * 所有连接的TxManager都返回了繁忙,此时不应创建新的事务组
+     */
+    boolean isBusy();
+
+    /**
+     * 参与方是否随rpc响应返回,需要配置netty.piggyback=1且TxManager支持
+     */
+    boolean isPiggyback();
+
+    /**
+     * 发起方关闭事务组是否不等待TxManager响应,需要配置netty.close.async=1
+     */
+    boolean isCloseAsync();
+
+    /**
+     * 当前可用连接的TxManager标识(连接的remoteAddress),没有可用连接时返回null
+     */
+    String getManagerName();
+
+    /**
+     * @param skipBusy 是否跳过返回繁忙的TxManager,与创建事务组时选择的连接一致
+     */
+    String getManagerName(boolean skipBusy);
+
+    /**
+     * 到指定TxManager的连接在该TxManager上的模块标识,没有到该TxManager的可用连接时返回null
+     */
+    String getModelName(String manager);
 }
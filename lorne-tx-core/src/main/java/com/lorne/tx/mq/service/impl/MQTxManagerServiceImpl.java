@@ -1,18 +1,23 @@
 package com.lorne.tx.mq.service.impl;
 
 import com.alibaba.fastjson.JSONObject;
-import com.lorne.core.framework.utils.task.Task;
+import com.lorne.tx.bean.TxParticipants;
+import com.lorne.tx.bean.TxTransactionLocal;
+import com.lorne.tx.mq.handler.MessageProtocol;
+import com.lorne.tx.mq.handler.TransactionHandler;
 import com.lorne.tx.mq.model.Request;
 import com.lorne.tx.mq.model.TxGroup;
 import com.lorne.tx.mq.service.MQTxManagerService;
 import com.lorne.tx.mq.service.NettyService;
+import com.lorne.tx.utils.GroupIdGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * Created by lorne on 2017/6/30.
@@ -25,36 +30,70 @@ public class MQTxManagerServiceImpl implements MQTxManagerService {
 
     private Logger logger = LoggerFactory.getLogger(MQTxManagerServiceImpl.class);
 
-    private Executor threadPool = Executors.newFixedThreadPool(100);
+    private final static Function<String, TxGroup> txGroupParser = new Function<String, TxGroup>() {
+        @Override
+        public TxGroup apply(String json) {
+            TxGroup txGroup = TxGroup.parser(json);
+            if (txGroup != null && txGroup.getWaitTime() > 0) {
+                TransactionHandler.waitTime = txGroup.getWaitTime();
+            }
+            return txGroup;
+        }
+    };
+
+    private final static Function<String, Integer> stateParser = new Function<String, Integer>() {
+        @Override
+        public Integer apply(String json) {
+            return "1".equals(json) ? 1 : (json == null) ? -1 : 0;
+        }
+    };
 
     @Override
     public TxGroup createTransactionGroup() {
-        JSONObject jsonObject = new JSONObject();
-        Request request = new Request("cg", jsonObject.toString());
-        String json = nettyService.sendMsg(request);
-        return TxGroup.parser(json);
+        return createTransactionGroupAsync().join();
     }
 
     @Override
-    public TxGroup addTransactionGroup(String groupId, String taskId, boolean isGroup) {
+    public String startTransactionGroup(final TxTransactionLocal txTransactionLocal) {
+        //与发送cg使用同一连接,协议版本以该连接协商的为准
+        String manager = nettyService.getManagerName(true);
+        if (manager == null) {
+            //TxManager繁忙或未连接,不等待直接失败,由调用方稍后重试
+            logger.info("TxManager繁忙或未连接,不创建事务组");
+            return null;
+        }
+        if (nettyService.getProtocolVersion(manager) < MessageProtocol.VERSION_GROUP_ID) {
+            Request request = new Request("cg", new JSONObject());
+            TxGroup txGroup = nettyService.sendMsgAsync(request, manager).thenApply(txGroupParser).join();
+            return txGroup == null ? null : txGroup.getGroupId();
+        }
+        final String groupId = GroupIdGenerator.next();
         JSONObject jsonObject = new JSONObject();
         jsonObject.put("g", groupId);
-        jsonObject.put("t", taskId);
-        jsonObject.put("s", isGroup ? 1 : 0);
-        Request request = new Request("atg", jsonObject.toString());
-        String json = nettyService.sendMsg(request);
-        return TxGroup.parser(json);
+        Request request = new Request("cg", jsonObject);
+        //不等待响应,参与方先于创建到达时TxManager在最大等待时间内等待创建
+        nettyService.sendMsgAsync(request, manager).whenComplete(new BiConsumer<String, Throwable>() {
+            @Override
+            public void accept(String json, Throwable throwable) {
+                if (throwable != null || TxGroup.parser(json) == null) {
+                    logger.info("createTransactionGroup fail ->" + groupId);
+                    txTransactionLocal.setGroupFailed(true);
+                }
+            }
+        });
+        return groupId;
+    }
+
+    @Override
+    public TxGroup addTransactionGroup(String groupId, String taskId, boolean isGroup) {
+        return addTransactionGroupAsync(groupId, taskId, isGroup).join();
     }
 
 
     @Override
     public void closeTransactionGroup(final String groupId, final int state) {
-        JSONObject jsonObject = new JSONObject();
-        jsonObject.put("g", groupId);
-        jsonObject.put("s", state);
-        Request request = new Request("ctg", jsonObject.toString());
-        String json = nettyService.sendMsg(request);
-        logger.info("closeTransactionGroup res ->" + json);
+        int res = closeTransactionGroupAsync(groupId, state).join();
+        logger.info("closeTransactionGroup res ->" + res);
     }
 
 //    @Override
@@ -71,12 +110,51 @@ public class MQTxManagerServiceImpl implements MQTxManagerService {
 
     @Override
     public int checkTransactionInfo(String groupId, String taskId) {
+        return checkTransactionInfoAsync(groupId, taskId).join();
+    }
+
+    @Override
+    public CompletableFuture<TxGroup> createTransactionGroupAsync() {
+        JSONObject jsonObject = new JSONObject();
+        Request request = new Request("cg", jsonObject);
+        return nettyService.sendMsgAsync(request).thenApply(txGroupParser);
+    }
+
+    @Override
+    public CompletableFuture<TxGroup> addTransactionGroupAsync(String groupId, String taskId, boolean isGroup) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("g", groupId);
+        jsonObject.put("t", taskId);
+        jsonObject.put("s", isGroup ? 1 : 0);
+        Request request = new Request("atg", jsonObject);
+        return nettyService.sendMsgAsync(request).thenApply(txGroupParser);
+    }
+
+    @Override
+    public CompletableFuture<Integer> closeTransactionGroupAsync(String groupId, int state) {
+        return closeTransactionGroupAsync(groupId, state, null);
+    }
+
+    @Override
+    public CompletableFuture<Integer> closeTransactionGroupAsync(String groupId, int state, TxParticipants participants) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("g", groupId);
+        jsonObject.put("s", state);
+        if (participants != null && !participants.isEmpty()) {
+            jsonObject.put("l", participants.toJson());
+            //随响应返回的参与方连接在该TxManager上,由该TxManager通知
+            return nettyService.sendMsgAsync(new Request("ctg", jsonObject), participants.getManager()).thenApply(stateParser);
+        }
+        Request request = new Request("ctg", jsonObject);
+        return nettyService.sendMsgAsync(request).thenApply(stateParser);
+    }
+
+    @Override
+    public CompletableFuture<Integer> checkTransactionInfoAsync(String groupId, String taskId) {
         JSONObject jsonObject = new JSONObject();
         jsonObject.put("g", groupId);
         jsonObject.put("t", taskId);
-        Request request = new Request("ckg", jsonObject.toString());
-        String json = nettyService.sendMsg(request);
-        int res = "1".equals(json) ? 1 : (json == null) ? -1 : 0;
-        return res;
+        Request request = new Request("ckg", jsonObject);
+        return nettyService.sendMsgAsync(request).thenApply(stateParser);
     }
 }
@@ -1,5 +1,7 @@
 package com.lorne.tx.mq.service.impl;
 
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
 import com.lorne.core.framework.utils.config.ConfigUtils;
 import com.lorne.core.framework.utils.http.HttpUtils;
 import com.lorne.tx.Constants;
@@ -23,42 +25,102 @@ public class NettyDistributeServiceImpl implements NettyDistributeService {
     @Override
     public synchronized void loadTxServer() {
         if (Constants.txServer == null) {
-            getTxServer();
+            //启动时等待获取服务地址
+            while (!getTxServer()) {
+                logger.info("TxManager服务器无法访问.");
+                try {
+                    Thread.sleep(1000 * 2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
             return;
         }
         connectCont++;
-        if (connectCont == 3) {
+        if (connectCont >= 3) {
+            //失败时由下次重连再次获取
             getTxServer();
         }
     }
 
-    private void getTxServer() {
+    private boolean getTxServer() {
         //获取负载均衡服务地址
-        String json = null;
-        while (StringUtils.isEmpty(json)) {
-            String url = ConfigUtils.getString("tx.properties", "url");
-            //获取服务器ip
-            json = HttpUtils.get(url);
-            logger.info("获取manager服务信息->" + json);
-            if (StringUtils.isEmpty(json)) {
-                logger.info("TxManager服务器无法访问.");
-                try {
-                    Thread.sleep(1000 * 2);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
+        String url = ConfigUtils.getString("tx.properties", "url");
+        //获取服务器ip
+        String json = HttpUtils.get(url);
+        logger.info("获取manager服务信息->" + json);
+        if (StringUtils.isEmpty(json)) {
+            return false;
         }
 
         TxServer txServer = TxServer.parser(json);
-        if (txServer != null) {
-            logger.info("txServer is " + (txServer == null ? "null" : "not null"));
-            logger.info(txServer.toString());
-            Constants.txServer = txServer;
-            logger.info(Constants.txServer.toString());
-            connectCont = 0;
+        if (txServer == null) {
+            return false;
         }
+        logger.info(txServer.toString());
+        Constants.txServer = txServer;
+        connectCont = 0;
+        return true;
+    }
 
+    @Override
+    public TxServer loadStandbyServer() {
+        TxServer primary = Constants.txServer;
+        if (primary == null) {
+            return null;
+        }
+        //url为 http://ip:port/tx/manager/getServer
+        String url = ConfigUtils.getString("tx.properties", "url");
+        String stateUrl = url.substring(0, url.lastIndexOf('/') + 1) + "state";
+        String json = HttpUtils.get(stateUrl);
+        if (StringUtils.isEmpty(json)) {
+            return null;
+        }
+        JSONArray slbList;
+        try {
+            slbList = JSONObject.parseObject(json).getJSONArray("slbList");
+        } catch (Exception e) {
+            return null;
+        }
+        if (slbList == null) {
+            return null;
+        }
+        for (int i = 0; i < slbList.size(); i++) {
+            String slb = slbList.getString(i);
+            if (!slb.endsWith("/")) {
+                slb = slb + "/";
+            }
+            TxServer txServer = parserState(HttpUtils.get(slb + "tx/manager/state"));
+            if (txServer != null && !(txServer.getHost().equals(primary.getHost()) && txServer.getPort() == primary.getPort())) {
+                logger.info("standby manager->" + txServer);
+                return txServer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 解析TxManager的state,连接已满时返回null
+     */
+    private TxServer parserState(String json) {
+        if (StringUtils.isEmpty(json)) {
+            return null;
+        }
+        try {
+            JSONObject state = JSONObject.parseObject(json);
+            if (state.getIntValue("nowConnection") >= state.getIntValue("maxConnection")) {
+                return null;
+            }
+            TxServer txServer = new TxServer();
+            txServer.setHost(state.getString("ip"));
+            txServer.setPort(state.getIntValue("port"));
+            txServer.setHeart(state.getIntValue("transactionNettyHeartTime"));
+            txServer.setDelay(state.getIntValue("transactionNettyDelayTime"));
+            return txServer;
+        } catch (Exception e) {
+            return null;
+        }
     }
 
 }
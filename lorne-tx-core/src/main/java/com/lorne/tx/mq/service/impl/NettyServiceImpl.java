@@ -1,23 +1,35 @@
 package com.lorne.tx.mq.service.impl;
 
+import com.lorne.core.framework.utils.config.ConfigUtils;
 import com.lorne.tx.Constants;
+import com.lorne.tx.mq.channel.TxChannel;
+import com.lorne.tx.mq.channel.TxChannelPool;
+import com.lorne.tx.mq.handler.MessageDecoder;
+import com.lorne.tx.mq.handler.MessageEncoder;
+import com.lorne.tx.mq.handler.MessageProtocol;
+import com.lorne.tx.mq.handler.NotifyBatchHandler;
+import com.lorne.tx.mq.handler.RequestBatchHandler;
 import com.lorne.tx.mq.handler.TransactionHandler;
 import com.lorne.tx.mq.model.Request;
 import com.lorne.tx.mq.service.NettyDistributeService;
 import com.lorne.tx.mq.service.NettyService;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -32,8 +44,16 @@ public class NettyServiceImpl implements NettyService {
 
     private TransactionHandler transactionHandler;
 
+    private volatile TxChannelPool channelPool;
+
     private EventLoopGroup workerGroup;
 
+    private ExecutorService discoveryExecutor;
+
+    private volatile boolean piggyback = false;
+
+    private volatile boolean closeAsync = false;
+
 
     private static volatile boolean isStarting = false;
 
@@ -48,66 +68,80 @@ public class NettyServiceImpl implements NettyService {
         isStarting = true;
         nettyDistributeService.loadTxServer();
 
-        String host = Constants.txServer.getHost();
-        int port = Constants.txServer.getPort();
         final int heart = Constants.txServer.getHeart();
         int delay = Constants.txServer.getDelay();
 
-        transactionHandler = new TransactionHandler(this, delay);
         workerGroup = new NioEventLoopGroup();
+        discoveryExecutor = Executors.newSingleThreadExecutor(new DefaultThreadFactory("tx-discovery", true));
+        channelPool = new TxChannelPool(Math.max(1, loadConfig("netty.pool.size", 1)),
+            loadConfig("netty.standby", 0) == 1,
+            Math.max(1, loadConfig("netty.reconnect.min", 200)),
+            Math.max(1, loadConfig("netty.reconnect.max", 10000)),
+            workerGroup, discoveryExecutor, nettyDistributeService);
+        piggyback = loadConfig("netty.piggyback", 0) == 1;
+        closeAsync = loadConfig("netty.close.async", 0) == 1;
+        final int batchWindow = loadConfig("netty.batch.window", 0);
+        final int batchSize = loadConfig("netty.batch.size", 64);
+        final int maxFrameLength = loadConfig("netty.frame.max", MessageDecoder.DEFAULT_MAX_FRAME_LENGTH);
+        transactionHandler = new TransactionHandler(channelPool, delay);
+        TxChannel.setTimeoutPolicy(Math.max(1, loadConfig("netty.timeout.factor", 4)), loadConfig("netty.timeout.min", 200));
         try {
             Bootstrap b = new Bootstrap(); // (1)
             b.group(workerGroup); // (2)
             b.channel(NioSocketChannel.class); // (3)
             b.option(ChannelOption.SO_KEEPALIVE, true); // (4)
+            b.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
             b.handler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 public void initChannel(SocketChannel ch) throws Exception {
 
                     ch.pipeline().addLast("timeout", new IdleStateHandler(heart, heart, heart, TimeUnit.SECONDS));
 
-                    ch.pipeline().addLast(new LengthFieldPrepender(4, false));
-                    ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, 4, 0, 4));
+                    ch.pipeline().addLast(new MessageDecoder(maxFrameLength));
+                    ch.pipeline().addLast(MessageEncoder.INSTANCE);
+                    ch.pipeline().addLast(new RequestBatchHandler(batchWindow, batchSize));
+                    ch.pipeline().addLast(new NotifyBatchHandler());
 
                     ch.pipeline().addLast(transactionHandler);
                 }
             });
             // Start the client.
-            logger.info("连接manager-socket服务-> host:" + host + ",port:" + port);
-            ChannelFuture future = b.connect(host, port); // (5)
-
-            future.addListener(new ChannelFutureListener() {
-                @Override
-                public void operationComplete(ChannelFuture channelFuture) throws Exception {
-                    if (!channelFuture.isSuccess()) {
-                        channelFuture.channel().eventLoop().schedule(new Runnable() {
-                            @Override
-                            public void run() {
-                                isStarting = false;
-                                start();
-                            }
-                        }, 5, TimeUnit.SECONDS);
-                    }
-                }
-            });
+            channelPool.start(b); // (5)
 
         } catch (Exception e) {
             e.printStackTrace();
+        }
+    }
 
-//            isStarting = false;
-//
-//            //断开重新连接机制
-//            close();
-//
-//            if (e instanceof ConnectTimeoutException) {
-//                start();
-//            }
+    /**
+     * 读取tx.properties配置
+     * netty.pool.size 连接池大小 默认1
+     * netty.batch.window 请求合并窗口(毫秒) 默认0不合并,需要TxManager支持批量请求
+     * netty.batch.size 单次合并最大请求数 默认64
+     * netty.frame.max 接收的最大帧长度(字节) 默认4194304
+     * netty.standby 1:连接slbList中的另一台TxManager作为备用 默认0
+     * netty.reconnect.min/netty.reconnect.max 重连退避最小/最大间隔(毫秒) 默认200/10000
+     * netty.timeout.factor 请求超时为p99.9响应延迟的倍数 默认4
+     * netty.timeout.min 请求最小超时时间(毫秒) 默认200,最大为TxManager下发的delay
+     * netty.piggyback 1:参与方随rpc响应返回,由发起方关闭事务组时一次提交 默认0,需要TxManager支持,
+     *                 只有参与方与发起方连接同一TxManager时才随响应返回,否则参与方单独加入事务组
+     * netty.close.async 1:发起方关闭事务组不等待TxManager响应,关闭失败只记录日志 默认0
+     */
+    private int loadConfig(String key, int defaultValue) {
+        int value;
+        try {
+            value = ConfigUtils.getInt("tx.properties", key);
+        } catch (Exception e) {
+            value = defaultValue;
         }
+        return value >= 0 ? value : defaultValue;
     }
 
     @Override
     public synchronized void close() {
         if (workerGroup != null) {
+            channelPool.close();
+            discoveryExecutor.shutdownNow();
             workerGroup.shutdownGracefully();
             workerGroup = null;
             TransactionHandler.net_state = false;
@@ -123,7 +157,35 @@ public class NettyServiceImpl implements NettyService {
 
     @Override
     public String sendMsg(Request request) {
-        return transactionHandler.sendMsg(request);
+        try {
+            return sendMsgAsync(request).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<String> sendMsgAsync(Request request) {
+        //创建事务组时跳过繁忙的TxManager,全部繁忙时直接失败
+        TxChannel txChannel = channelPool == null ? null : channelPool.select("cg".equals(request.getAction()));
+        if (txChannel == null) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.complete(null);
+            return future;
+        }
+        return txChannel.send(request, TransactionHandler.delay);
+    }
+
+    @Override
+    public CompletableFuture<String> sendMsgAsync(Request request, String manager) {
+        TxChannel txChannel = channelPool == null || manager == null ? null : channelPool.select(manager);
+        if (txChannel == null) {
+            return sendMsgAsync(request);
+        }
+        return txChannel.send(request, TransactionHandler.delay);
     }
 
     @Override
@@ -143,4 +205,61 @@ public class NettyServiceImpl implements NettyService {
 
         return true;
     }
+
+    @Override
+    public int getProtocolVersion() {
+        TxChannel txChannel = channelPool == null ? null : channelPool.select();
+        if (txChannel == null) {
+            return 0;
+        }
+        return MessageProtocol.getVersion(txChannel.getChannel());
+    }
+
+    @Override
+    public int getProtocolVersion(String manager) {
+        TxChannel txChannel = channelPool == null || manager == null ? null : channelPool.select(manager);
+        if (txChannel == null) {
+            return 0;
+        }
+        return MessageProtocol.getVersion(txChannel.getChannel());
+    }
+
+    @Override
+    public boolean isBusy() {
+        return channelPool != null && channelPool.select(true) == null && channelPool.select(false) != null;
+    }
+
+    @Override
+    public boolean isPiggyback() {
+        return piggyback && getProtocolVersion() >= MessageProtocol.VERSION_PIGGYBACK;
+    }
+
+    @Override
+    public boolean isCloseAsync() {
+        return closeAsync;
+    }
+
+    @Override
+    public String getManagerName() {
+        return getManagerName(false);
+    }
+
+    @Override
+    public String getManagerName(boolean skipBusy) {
+        TxChannel txChannel = channelPool == null ? null : channelPool.select(skipBusy);
+        if (txChannel == null) {
+            return null;
+        }
+        return String.valueOf(txChannel.getChannel().remoteAddress());
+    }
+
+    @Override
+    public String getModelName(String manager) {
+        TxChannel txChannel = channelPool == null || manager == null ? null : channelPool.select(manager);
+        if (txChannel == null) {
+            return null;
+        }
+        //与TxManager上该连接的remoteAddress一致
+        return String.valueOf(txChannel.getChannel().localAddress());
+    }
 }
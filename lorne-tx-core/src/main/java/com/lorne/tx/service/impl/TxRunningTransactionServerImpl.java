@@ -2,20 +2,24 @@ package com.lorne.tx.service.impl;
 
 import com.lorne.core.framework.exception.ServiceException;
 import com.lorne.core.framework.utils.KidUtils;
-import com.lorne.core.framework.utils.task.ConditionUtils;
-import com.lorne.core.framework.utils.task.Task;
+import com.lorne.tx.bean.TxParticipants;
 import com.lorne.tx.bean.TxTransactionInfo;
 import com.lorne.tx.bean.TxTransactionLocal;
 import com.lorne.tx.compensate.service.CompensateService;
 import com.lorne.tx.mq.model.TxGroup;
 import com.lorne.tx.mq.service.MQTxManagerService;
+import com.lorne.tx.mq.service.NettyService;
 import com.lorne.tx.service.TransactionServer;
+import com.lorne.tx.task.WaitTask;
+import com.lorne.tx.task.WaitTaskManager;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * 分布式事务启动开始时的业务处理
  * Created by lorne on 2017/6/8.
@@ -32,6 +36,10 @@ public class TxRunningTransactionServerImpl implements TransactionServer {
     private CompensateService compensateService;
 
 
+    @Autowired
+    private NettyService nettyService;
+
+
     private Logger logger = LoggerFactory.getLogger(TxRunningTransactionServerImpl.class);
 
     @Override
@@ -42,22 +50,37 @@ public class TxRunningTransactionServerImpl implements TransactionServer {
         logger.info("tx-running-start->" + txGroupId);
         String compensateId = compensateService.saveTransactionInfo(info.getInvocation(), txGroupId, kid);
 
+        //调用方要求参与方随响应返回且连接同一TxManager时,不单独加入事务组
+        TxParticipants participants = TxParticipants.current();
+        String modelName = participants != null && nettyService.isPiggyback() ? nettyService.getModelName(participants.getManager()) : null;
+
         TxTransactionLocal txTransactionLocal = new TxTransactionLocal();
         txTransactionLocal.setGroupId(txGroupId);
         txTransactionLocal.setHasStart(false);
         txTransactionLocal.setKid(kid);
         txTransactionLocal.setCompensateId(compensateId);
+        txTransactionLocal.setParticipants(modelName == null ? null : participants);
         TxTransactionLocal.setCurrent(txTransactionLocal);
 
+        boolean hasDeleted = false;
         try {
             Object res = point.proceed();
-            final TxGroup resTxGroup = txManagerService.addTransactionGroup(txGroupId, kid, TxTransactionLocal.current().isHasIsGroup());
+            if (modelName != null) {
+                participants.add(kid, TxTransactionLocal.current().isHasIsGroup(), modelName);
+                return res;
+            }
+            CompletableFuture<TxGroup> future = txManagerService.addTransactionGroupAsync(txGroupId, kid, TxTransactionLocal.current().isHasIsGroup());
+
+            //等待TxManager响应期间清理本地补偿数据
+            compensateService.deleteTransactionInfo(compensateId);
+            hasDeleted = true;
+
+            final TxGroup resTxGroup = future.join();
             if (resTxGroup == null) {
-                Task waitTask = ConditionUtils.getInstance().getTask(kid);
+                WaitTask waitTask = WaitTaskManager.getInstance().getTask(kid);
                 if (waitTask != null) {
                     //修改事务组状态异常
-                    waitTask.setState(-1);
-                    waitTask.signalTask();
+                    waitTask.signal(-1);
                 }
                 throw new ServiceException("修改事务组状态异常." + txGroupId);
             }
@@ -66,7 +89,9 @@ public class TxRunningTransactionServerImpl implements TransactionServer {
             throw e;
         } finally {
             logger.info("tx-running-end->" + txGroupId);
-            compensateService.deleteTransactionInfo(compensateId);
+            if (!hasDeleted) {
+                compensateService.deleteTransactionInfo(compensateId);
+            }
             TxTransactionLocal.setCurrent(null);
         }
     }
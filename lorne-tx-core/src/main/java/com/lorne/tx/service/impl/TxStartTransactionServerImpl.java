@@ -1,10 +1,11 @@
 package com.lorne.tx.service.impl;
 
 import com.lorne.core.framework.exception.ServiceException;
+import com.lorne.tx.bean.TxParticipants;
 import com.lorne.tx.bean.TxTransactionInfo;
 import com.lorne.tx.bean.TxTransactionLocal;
-import com.lorne.tx.mq.model.TxGroup;
 import com.lorne.tx.mq.service.MQTxManagerService;
+import com.lorne.tx.mq.service.NettyService;
 import com.lorne.tx.service.TransactionServer;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.slf4j.Logger;
@@ -12,6 +13,9 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 /**
  * 分布式事务启动开始时的业务处理
  * Created by lorne on 2017/6/8.
@@ -26,35 +30,61 @@ public class TxStartTransactionServerImpl implements TransactionServer {
     @Autowired
     protected MQTxManagerService txManagerService;
 
+    @Autowired
+    private NettyService nettyService;
+
 
     @Override
     public Object execute(final ProceedingJoinPoint point, final TxTransactionInfo info) throws Throwable {
         //分布式事务开始执行
         logger.info("tx-start");
 
-        //创建事务组
-        TxGroup txGroup = txManagerService.createTransactionGroup();
+        //创建事务组,TxManager支持时不等待响应,创建失败时标记txTransactionLocal
+        TxTransactionLocal txTransactionLocal = new TxTransactionLocal();
+        final String groupId = txManagerService.startTransactionGroup(txTransactionLocal);
 
         //获取不到模块信息重新连接，本次事务异常返回数据.
-        if (txGroup == null) {
+        if (groupId == null) {
             throw new ServiceException("创建事务组异常.");
         }
-        String groupId = txGroup.getGroupId();
         int state = 0;
+        //参与方随rpc响应返回,关闭事务组时一次提交
+        String manager = nettyService.isPiggyback() ? nettyService.getManagerName() : null;
+        final TxParticipants participants = manager != null ? new TxParticipants(manager) : null;
         try {
-            TxTransactionLocal txTransactionLocal = new TxTransactionLocal();
             txTransactionLocal.setGroupId(groupId);
             txTransactionLocal.setHasStart(true);
+            txTransactionLocal.setParticipants(participants);
             TxTransactionLocal.setCurrent(txTransactionLocal);
             Object obj = point.proceed();
+            if (txTransactionLocal.isGroupFailed()) {
+                //事务组未创建,业务方法及已加入的参与方回滚
+                throw new ServiceException("创建事务组失败.");
+            }
             state = 1;
             return obj;
         } catch (Throwable e) {
             throw e;
         } finally {
-            txManagerService.closeTransactionGroup(groupId, state);
+            CompletableFuture<Integer> future = txManagerService.closeTransactionGroupAsync(groupId, state, participants);
             TxTransactionLocal.setCurrent(null);
             logger.info("tx-end");
+            if (nettyService.isCloseAsync()) {
+                //配置为不等待TxManager响应,业务线程直接返回,关闭失败只记录日志
+                future.thenAccept(new Consumer<Integer>() {
+                    @Override
+                    public void accept(Integer res) {
+                        logger.info("closeTransactionGroup res ->" + groupId + ":" + res);
+                    }
+                });
+            } else {
+                int res = future.join();
+                logger.info("closeTransactionGroup res ->" + groupId + ":" + res);
+                if (state == 1 && res != 1) {
+                    //TxManager未确认提交,事务组已回滚或结果未知
+                    throw new ServiceException("关闭事务组失败.");
+                }
+            }
         }
     }
 
@@ -0,0 +1,85 @@
+package com.lorne.tx.task;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 事务单元等待TxManager通知的任务.
+ * 通知先于等待到达时会被保留,await直接返回. 本地事务提交或回滚结束后remove,由removeFuture通知调用方
+ */
+public class WaitTask {
+
+    private final String key;
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private final AtomicBoolean signaled = new AtomicBoolean(false);
+
+    private final CompletableFuture<Void> removeFuture = new CompletableFuture<>();
+
+    /**
+     * 1：提交 0：回滚 -1：事务模块网络异常回滚 -2：事务模块超时异常回滚
+     */
+    private volatile int state = 0;
+
+
+    WaitTask(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * 设置状态并唤醒等待,仅第一次有效
+     */
+    public boolean signal(int state) {
+        if (!signaled.compareAndSet(false, true)) {
+            return false;
+        }
+        this.state = state;
+        latch.countDown();
+        return true;
+    }
+
+    public void await() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public boolean isSignaled() {
+        return signaled.get();
+    }
+
+    public boolean isRemove() {
+        return removeFuture.isDone();
+    }
+
+    /**
+     * 本地事务结束
+     */
+    public void remove() {
+        WaitTaskManager.getInstance().remove(this);
+        removeFuture.complete(null);
+    }
+
+    public CompletableFuture<Void> getRemoveFuture() {
+        return removeFuture;
+    }
+}
@@ -0,0 +1,35 @@
+package com.lorne.tx.task;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 等待通知的任务 key:事务单元kid
+ */
+public class WaitTaskManager {
+
+    private final static WaitTaskManager instance = new WaitTaskManager();
+
+    private final Map<String, WaitTask> tasks = new ConcurrentHashMap<>();
+
+    public static WaitTaskManager getInstance() {
+        return instance;
+    }
+
+    private WaitTaskManager() {
+    }
+
+    public WaitTask createTask(String key) {
+        WaitTask task = new WaitTask(key);
+        tasks.put(key, task);
+        return task;
+    }
+
+    public WaitTask getTask(String key) {
+        return tasks.get(key);
+    }
+
+    void remove(WaitTask task) {
+        tasks.remove(task.getKey(), task);
+    }
+}
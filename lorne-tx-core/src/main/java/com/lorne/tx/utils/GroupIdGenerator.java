@@ -0,0 +1,36 @@
+package com.lorne.tx.utils;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 在事务模块本地生成事务组id,创建事务组不需要等待TxManager响应.
+ * 格式: 时间戳(8位36进制,毫秒) + 节点(6位,进程启动时随机生成) + 序列(4位), 共18位
+ */
+public class GroupIdGenerator {
+
+    private final static int SEQUENCE_MAX = 36 * 36 * 36 * 36;
+
+    private final static String node;
+
+    private final static AtomicInteger sequence = new AtomicInteger();
+
+    static {
+        SecureRandom random = new SecureRandom();
+        node = pad(Long.toString((random.nextLong() >>> 1) % (36L * 36 * 36 * 36 * 36 * 36), 36), 6);
+        sequence.set(random.nextInt(SEQUENCE_MAX));
+    }
+
+    private static String pad(String value, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = value.length(); i < length; i++) {
+            builder.append('0');
+        }
+        return builder.append(value).toString();
+    }
+
+    public static String next() {
+        int seq = (sequence.getAndIncrement() & Integer.MAX_VALUE) % SEQUENCE_MAX;
+        return pad(Long.toString(System.currentTimeMillis(), 36), 8) + node + pad(Integer.toString(seq, 36), 4);
+    }
+}
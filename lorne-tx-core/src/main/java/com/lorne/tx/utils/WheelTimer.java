@@ -0,0 +1,20 @@
+package com.lorne.tx.utils;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 共用的时间轮,请求超时与事务等待检查共用一个线程
+ */
+public class WheelTimer {
+
+    private final static HashedWheelTimer timer = new HashedWheelTimer(new DefaultThreadFactory("tx-wheel-timer", true), 10, TimeUnit.MILLISECONDS);
+
+    public static Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        return timer.newTimeout(task, delay, unit);
+    }
+}
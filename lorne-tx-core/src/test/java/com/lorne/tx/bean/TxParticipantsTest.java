@@ -0,0 +1,72 @@
+package com.lorne.tx.bean;
+
+import com.alibaba.fastjson.JSONArray;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 随rpc响应返回的参与方列表
+ */
+public class TxParticipantsTest {
+
+    @Test
+    public void valueAndJson() {
+        TxParticipants participants = new TxParticipants("/127.0.0.1:9999");
+        Assert.assertEquals("/127.0.0.1:9999", participants.getManager());
+        Assert.assertTrue(participants.isEmpty());
+        Assert.assertEquals("", participants.toValue());
+
+        participants.add("k1", false, "/10.0.0.1:1001");
+        participants.add("k2", true, "/10.0.0.2:1002");
+        Assert.assertFalse(participants.isEmpty());
+        Assert.assertEquals("k1,0,/10.0.0.1:1001;k2,1,/10.0.0.2:1002", participants.toValue());
+
+        JSONArray array = participants.toJson();
+        Assert.assertEquals(2, array.size());
+        Assert.assertEquals("k1", array.getJSONObject(0).getString("t"));
+        Assert.assertEquals(0, array.getJSONObject(0).getIntValue("s"));
+        Assert.assertEquals(1, array.getJSONObject(1).getIntValue("s"));
+        Assert.assertEquals("/10.0.0.2:1002", array.getJSONObject(1).getString("m"));
+    }
+
+    @Test
+    public void addDownstreamParticipants() {
+        TxParticipants downstream = new TxParticipants("/127.0.0.1:9999");
+        downstream.add("k2", false, "m2");
+        downstream.add("k3", false, "m3,with,comma");
+
+        TxParticipants participants = new TxParticipants("/127.0.0.1:9999");
+        participants.add("k1", false, "m1");
+        participants.addAll(downstream.toValue());
+        //空值与格式错误的项被忽略
+        participants.addAll(null);
+        participants.addAll("");
+        participants.addAll("bad;k4,0");
+
+        JSONArray array = participants.toJson();
+        Assert.assertEquals(3, array.size());
+        Assert.assertEquals("k2", array.getJSONObject(1).getString("t"));
+        Assert.assertEquals("m3,with,comma", array.getJSONObject(2).getString("m"));
+    }
+
+    @Test
+    public void currentIsPerThread() throws Exception {
+        final TxParticipants participants = new TxParticipants("/127.0.0.1:9999");
+        TxParticipants.setCurrent(participants);
+        try {
+            Assert.assertSame(participants, TxParticipants.current());
+            final TxParticipants[] other = new TxParticipants[1];
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    other[0] = TxParticipants.current();
+                }
+            });
+            thread.start();
+            thread.join();
+            Assert.assertNull(other[0]);
+        } finally {
+            TxParticipants.setCurrent(null);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.lorne.tx.mq.channel;
+
+import com.alibaba.fastjson.JSONObject;
+import com.lorne.tx.mq.model.Request;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 延迟直方图的百分位与由延迟计算的超时时间
+ */
+public class LatencyHistogramTest {
+
+    private void assertWithin(long expected, long actual) {
+        //桶的上界,误差不超过25%
+        Assert.assertTrue("expected:" + expected + ",actual:" + actual, actual >= expected && actual <= expected * 5 / 4);
+    }
+
+    @Test
+    public void percentile() {
+        LatencyHistogram histogram = new LatencyHistogram(60 * 1000);
+        for (int i = 0; i < 990; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(10000);
+        }
+        assertWithin(100, histogram.percentile(0.5, 1));
+        assertWithin(100, histogram.percentile(0.99, 1));
+        assertWithin(10000, histogram.percentile(0.999, 1));
+        assertWithin(10000, histogram.percentile(1, 1));
+    }
+
+    @Test
+    public void smallAndHugeValues() {
+        LatencyHistogram histogram = new LatencyHistogram(60 * 1000);
+        histogram.record(0);
+        Assert.assertEquals(2, histogram.percentile(1, 1));
+
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertTrue(histogram.percentile(1, 1) >= 1L << 40);
+    }
+
+    @Test
+    public void notEnoughSamples() {
+        LatencyHistogram histogram = new LatencyHistogram(60 * 1000);
+        Assert.assertEquals(-1, histogram.percentile(0.5, 0));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        Assert.assertEquals(-1, histogram.percentile(0.5, 100));
+        histogram.record(100);
+        assertWithin(100, histogram.percentile(0.5, 100));
+    }
+
+    @Test
+    public void bucketBounds() {
+        //lorne-tx-core与tx-manager中的LatencyHistogram使用相同的桶
+        Assert.assertEquals(164, LatencyHistogram.BUCKETS);
+        long[] bounds = {2, 2, 2, 2, 4, 4, 4, 4, 5, 6, 7, 8, 10, 12, 14, 16};
+        for (int i = 0; i < bounds.length; i++) {
+            Assert.assertEquals(bounds[i], LatencyHistogram.upperBound(i));
+        }
+        Assert.assertEquals(1L << 41, LatencyHistogram.upperBound(LatencyHistogram.BUCKETS - 1));
+
+        LatencyHistogram histogram = LatencyHistogram.cumulative();
+        histogram.record(5);
+        histogram.record(Long.MAX_VALUE);
+        long[] counts = histogram.getCounts();
+        Assert.assertEquals(1, counts[9]);
+        Assert.assertEquals(1, counts[LatencyHistogram.BUCKETS - 1]);
+    }
+
+    @Test
+    public void rollingWindow() {
+        final AtomicLong now = new AtomicLong();
+        LatencyHistogram histogram = new LatencyHistogram(50, new LongSupplier() {
+            @Override
+            public long getAsLong() {
+                return now.get();
+            }
+        });
+        histogram.record(100);
+        now.set(49 * 1000000L);
+        histogram.record(200);
+        assertWithin(200, histogram.percentile(1, 2));
+
+        now.set(50 * 1000000L);
+        //上一个窗口的数据仍然统计
+        assertWithin(200, histogram.percentile(1, 2));
+        now.set(100 * 1000000L);
+        Assert.assertEquals(-1, histogram.percentile(0.5, 1));
+    }
+
+    @Test
+    public void timeoutFromLatency() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        TxChannel txChannel = new TxChannel(0, channel);
+        //样本不足时使用最大值
+        Assert.assertEquals(3000, txChannel.getTimeout("atg", 3000));
+
+        //本地响应的延迟远小于最小超时时间
+        TxChannel.setTimeoutPolicy(4, 1000);
+        try {
+            for (int i = 0; i < 100; i++) {
+                txChannel.send(new Request("atg", new JSONObject()), 5);
+                Request request = channel.readOutbound();
+                txChannel.response(request.getKey(), "1");
+            }
+            Assert.assertEquals(1000, txChannel.getTimeout("atg", 3000));
+            Assert.assertEquals(500, txChannel.getTimeout("atg", 500));
+            //其他action分别统计
+            Assert.assertEquals(3000, txChannel.getTimeout("ctg", 3000));
+        } finally {
+            TxChannel.setTimeoutPolicy(4, 200);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.lorne.tx.mq.channel;
+
+import com.alibaba.fastjson.JSONObject;
+import com.lorne.tx.mq.model.Request;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求id与等待响应的请求的对应
+ */
+public class TxChannelTest {
+
+    private Request newRequest(String action) {
+        JSONObject params = new JSONObject();
+        params.put("g", "group-1");
+        return new Request(action, params);
+    }
+
+    @Test
+    public void responsesCompleteTheirOwnRequests() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        TxChannel txChannel = new TxChannel(0, channel);
+
+        CompletableFuture<String> first = txChannel.send(newRequest("atg"), 5);
+        CompletableFuture<String> second = txChannel.send(newRequest("ctg"), 5);
+        Assert.assertEquals(2, txChannel.getInFlight());
+
+        Request firstRequest = channel.readOutbound();
+        Request secondRequest = channel.readOutbound();
+        Assert.assertEquals("atg", firstRequest.getAction());
+        Assert.assertEquals("ctg", secondRequest.getAction());
+        //每个连接独立递增
+        Assert.assertEquals(firstRequest.getKey() + 1, secondRequest.getKey());
+
+        //响应顺序与请求不同
+        txChannel.response(secondRequest.getKey(), "2");
+        Assert.assertFalse(first.isDone());
+        Assert.assertEquals("2", second.get(1, TimeUnit.SECONDS));
+
+        //重复或未知的响应被忽略
+        txChannel.response(secondRequest.getKey(), "x");
+        txChannel.response(secondRequest.getKey() + 100, "x");
+        Assert.assertFalse(first.isDone());
+
+        txChannel.response(firstRequest.getKey(), "1");
+        Assert.assertEquals("1", first.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, txChannel.getInFlight());
+    }
+
+    @Test
+    public void failPendingRequests() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        TxChannel txChannel = new TxChannel(0, channel);
+
+        CompletableFuture<String> first = txChannel.send(newRequest("atg"), 5);
+        CompletableFuture<String> second = txChannel.send(newRequest("ckg"), 5);
+        txChannel.failPendingRequests();
+
+        Assert.assertNull(first.get(1, TimeUnit.SECONDS));
+        Assert.assertNull(second.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, txChannel.getInFlight());
+    }
+
+    @Test
+    public void inactiveChannel() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        channel.close();
+        TxChannel txChannel = new TxChannel(0, channel);
+
+        CompletableFuture<String> future = txChannel.send(newRequest("atg"), 5);
+        Assert.assertNull(future.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, txChannel.getInFlight());
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void writeFailure() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelOutboundHandlerAdapter() {
+            @Override
+            public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+                promise.setFailure(new IOException("write failed"));
+            }
+        });
+        TxChannel txChannel = new TxChannel(0, channel);
+
+        CompletableFuture<String> future = txChannel.send(newRequest("atg"), 5);
+        Assert.assertNull(future.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(0, txChannel.getInFlight());
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        EmbeddedChannel channel = new EmbeddedChannel();
+        TxChannel txChannel = new TxChannel(0, channel);
+
+        //没有延迟样本时按最大值(1秒)超时
+        CompletableFuture<String> future = txChannel.send(newRequest("atg"), 1);
+        Request request = channel.readOutbound();
+        Assert.assertNull(future.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, txChannel.getInFlight());
+
+        //超时后到达的响应被忽略
+        txChannel.response(request.getKey(), "1");
+        Assert.assertNull(future.get());
+    }
+}
@@ -0,0 +1,207 @@
+package com.lorne.tx.mq.handler;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.util.CharsetUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * MessageEncoder/MessageDecoder/MessageProtocol 编解码与握手协商的版本
+ */
+public class MessageProtocolTest {
+
+    private EmbeddedChannel newChannel() {
+        return new EmbeddedChannel(new MessageDecoder(MessageDecoder.DEFAULT_MAX_FRAME_LENGTH), MessageEncoder.INSTANCE);
+    }
+
+    private JSONObject newRequest() {
+        JSONObject params = new JSONObject();
+        params.put("g", "group-1");
+        params.put("t", "任务-1");
+        params.put("s", 1);
+        params.put("l", 123456789012L);
+        JSONArray array = new JSONArray();
+        array.add(7);
+        array.add("x");
+        params.put("r", array);
+
+        JSONObject msg = new JSONObject();
+        msg.put("a", "atg");
+        msg.put("k", 12L);
+        msg.put("p", params);
+        return msg;
+    }
+
+    /**
+     * 编码后再解码
+     */
+    private JSONObject roundTrip(EmbeddedChannel channel, Object msg) {
+        Assert.assertTrue(channel.writeOutbound(msg));
+        ByteBuf frame = channel.readOutbound();
+        Assert.assertTrue(channel.writeInbound(frame));
+        return channel.readInbound();
+    }
+
+    private void assertRequest(JSONObject msg) {
+        Assert.assertEquals("atg", msg.getString("a"));
+        Assert.assertEquals(12L, msg.getLongValue("k"));
+        JSONObject params = MessageProtocol.getParams(msg);
+        Assert.assertEquals("group-1", params.getString("g"));
+        Assert.assertEquals("任务-1", params.getString("t"));
+        Assert.assertEquals(1, params.getIntValue("s"));
+        Assert.assertEquals(123456789012L, params.getLongValue("l"));
+        JSONArray array = params.getJSONArray("r");
+        Assert.assertEquals(2, array.size());
+        Assert.assertEquals(7, array.getIntValue(0));
+        Assert.assertEquals("x", array.getString(1));
+    }
+
+    @Test
+    public void versionIsNegotiatedToTheLower() {
+        EmbeddedChannel channel = newChannel();
+        Assert.assertEquals(0, MessageProtocol.getVersion(channel));
+
+        MessageProtocol.setVersion(channel, MessageProtocol.VERSION + 10);
+        Assert.assertEquals(MessageProtocol.VERSION, MessageProtocol.getVersion(channel));
+
+        MessageProtocol.setVersion(channel, MessageProtocol.VERSION_BATCH);
+        Assert.assertEquals(MessageProtocol.VERSION_BATCH, MessageProtocol.getVersion(channel));
+    }
+
+    @Test
+    public void jsonBeforeHandshake() {
+        EmbeddedChannel channel = newChannel();
+        Assert.assertTrue(channel.writeOutbound(newRequest()));
+        ByteBuf frame = channel.readOutbound();
+        Assert.assertEquals(frame.readableBytes() - 4, frame.getInt(0));
+        Assert.assertEquals('{', frame.getByte(4));
+
+        Assert.assertTrue(channel.writeInbound(frame));
+        assertRequest((JSONObject) channel.readInbound());
+        Assert.assertFalse(channel.finish());
+    }
+
+    @Test
+    public void binaryAfterHandshake() {
+        EmbeddedChannel channel = newChannel();
+        MessageProtocol.setVersion(channel, MessageProtocol.VERSION);
+        Assert.assertTrue(channel.writeOutbound(newRequest()));
+        ByteBuf frame = channel.readOutbound();
+        Assert.assertEquals(frame.readableBytes() - 4, frame.getInt(0));
+        //帧格式版本
+        Assert.assertEquals(1, frame.getByte(4));
+        //请求id不作为字段写入
+        Assert.assertEquals(12L, frame.getLong(6));
+
+        Assert.assertTrue(channel.writeInbound(frame));
+        assertRequest((JSONObject) channel.readInbound());
+        Assert.assertFalse(channel.finish());
+    }
+
+    @Test
+    public void responseAndStringKey() {
+        EmbeddedChannel channel = newChannel();
+        MessageProtocol.setVersion(channel, MessageProtocol.VERSION);
+
+        JSONObject response = new JSONObject();
+        response.put("k", "42");
+        response.put("d", "1");
+        JSONObject decoded = roundTrip(channel, response);
+        Assert.assertNull(decoded.get("a"));
+        Assert.assertEquals(42L, decoded.getLongValue("k"));
+        Assert.assertEquals("1", decoded.getString("d"));
+
+        //非数字的key作为普通字段
+        JSONObject notify = new JSONObject();
+        notify.put("a", "t");
+        notify.put("k", "abc");
+        decoded = roundTrip(channel, notify);
+        Assert.assertEquals("t", decoded.getString("a"));
+        Assert.assertEquals("abc", decoded.getString("k"));
+    }
+
+    @Test
+    public void fallbackToJson() {
+        EmbeddedChannel channel = newChannel();
+        MessageProtocol.setVersion(channel, MessageProtocol.VERSION);
+
+        //未知操作
+        JSONObject unknown = newRequest();
+        unknown.put("a", "xx");
+        Assert.assertTrue(channel.writeOutbound(unknown));
+        ByteBuf frame = channel.readOutbound();
+        Assert.assertEquals('{', frame.getByte(4));
+        frame.release();
+
+        //字段名超过一个字符,已写入的部分需还原
+        JSONObject longName = newRequest();
+        longName.getJSONObject("p").put("name", "value");
+        JSONObject decoded = roundTrip(channel, longName);
+        assertRequest(decoded);
+        Assert.assertEquals("value", decoded.getJSONObject("p").getString("name"));
+
+        ByteBuf buf = Unpooled.buffer();
+        Assert.assertFalse(MessageProtocol.encode(longName, buf));
+        Assert.assertEquals(0, buf.writerIndex());
+        buf.release();
+    }
+
+    @Test
+    public void stringIsSentAsJson() {
+        EmbeddedChannel channel = newChannel();
+        MessageProtocol.setVersion(channel, MessageProtocol.VERSION);
+        JSONObject decoded = roundTrip(channel, "{\"a\":\"h\",\"k\":1,\"p\":\"{}\"}");
+        Assert.assertEquals("h", decoded.getString("a"));
+        Assert.assertTrue(MessageProtocol.getParams(decoded).isEmpty());
+    }
+
+    @Test
+    public void partialFrame() {
+        EmbeddedChannel channel = newChannel();
+        MessageProtocol.setVersion(channel, MessageProtocol.VERSION);
+        Assert.assertTrue(channel.writeOutbound(newRequest()));
+        ByteBuf frame = channel.readOutbound();
+
+        int half = frame.readableBytes() / 2;
+        Assert.assertFalse(channel.writeInbound(frame.readRetainedSlice(half)));
+        Assert.assertTrue(channel.writeInbound(frame));
+        assertRequest((JSONObject) channel.readInbound());
+    }
+
+    @Test
+    public void unsupportedFrameVersion() {
+        EmbeddedChannel channel = newChannel();
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeInt(12);
+        frame.writeByte(2);
+        frame.writeByte(1);
+        frame.writeLong(1);
+        frame.writeShort(0);
+        try {
+            channel.writeInbound(frame);
+            Assert.fail();
+        } catch (DecoderException e) {
+            Assert.assertTrue(e.getMessage().contains("version"));
+        }
+    }
+
+    @Test
+    public void tooLongFrameClosesChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(16), MessageEncoder.INSTANCE);
+        ByteBuf frame = Unpooled.buffer();
+        frame.writeInt(100);
+        frame.writeBytes("{\"a\":\"h\"}".getBytes(CharsetUtil.UTF_8));
+        try {
+            channel.writeInbound(frame);
+            Assert.fail();
+        } catch (TooLongFrameException e) {
+            Assert.assertFalse(channel.isOpen());
+        }
+    }
+}
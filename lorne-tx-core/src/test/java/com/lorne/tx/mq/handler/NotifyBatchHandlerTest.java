@@ -0,0 +1,92 @@
+package com.lorne.tx.mq.handler;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 同一时刻写入的通知(a:t)合并为批量帧(a:mt)
+ */
+public class NotifyBatchHandlerTest {
+
+    private EmbeddedChannel newChannel(int version) {
+        EmbeddedChannel channel = new EmbeddedChannel(new NotifyBatchHandler());
+        if (version > 0) {
+            MessageProtocol.setVersion(channel, version);
+        }
+        return channel;
+    }
+
+    private JSONObject newNotify(String kid, int state) {
+        JSONObject msg = new JSONObject();
+        msg.put("a", "t");
+        msg.put("t", kid);
+        msg.put("c", state);
+        return msg;
+    }
+
+    @Test
+    public void notMergedBeforeBatchNotifyVersion() {
+        EmbeddedChannel channel = newChannel(MessageProtocol.VERSION_BATCH);
+        channel.writeAndFlush(newNotify("k1", 1));
+        channel.writeAndFlush(newNotify("k2", 1));
+        channel.runPendingTasks();
+
+        Assert.assertEquals("k1", ((JSONObject) channel.readOutbound()).getString("t"));
+        Assert.assertEquals("k2", ((JSONObject) channel.readOutbound()).getString("t"));
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void mergedInOneFrame() {
+        EmbeddedChannel channel = newChannel(MessageProtocol.VERSION_BATCH_NOTIFY);
+        ChannelFuture first = channel.writeAndFlush(newNotify("k1", 1));
+        ChannelFuture second = channel.writeAndFlush(newNotify("k2", 0));
+        Assert.assertNull(channel.readOutbound());
+
+        channel.runPendingTasks();
+        JSONObject batch = channel.readOutbound();
+        Assert.assertEquals("mt", batch.getString("a"));
+        JSONArray items = batch.getJSONArray("p");
+        Assert.assertEquals(2, items.size());
+        Assert.assertEquals("k1", items.getJSONObject(0).getString("t"));
+        Assert.assertEquals(0, items.getJSONObject(1).getIntValue("c"));
+        //批量帧中的通知不重复写入操作
+        Assert.assertNull(items.getJSONObject(0).get("a"));
+        Assert.assertTrue(first.isSuccess() && second.isSuccess());
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void singleNotifyAndOtherMessages() {
+        EmbeddedChannel channel = newChannel(MessageProtocol.VERSION);
+        JSONObject response = new JSONObject();
+        response.put("k", 1);
+        response.put("d", "1");
+        channel.writeAndFlush(response);
+        Assert.assertEquals(response, channel.readOutbound());
+
+        channel.writeAndFlush(newNotify("k1", 1));
+        channel.runPendingTasks();
+        JSONObject msg = channel.readOutbound();
+        Assert.assertEquals("t", msg.getString("a"));
+        Assert.assertEquals("k1", msg.getString("t"));
+    }
+
+    @Test
+    public void maxSizeSendsImmediately() {
+        EmbeddedChannel channel = newChannel(MessageProtocol.VERSION);
+        for (int i = 0; i < 257; i++) {
+            channel.writeAndFlush(newNotify("k" + i, 1));
+        }
+        JSONObject batch = channel.readOutbound();
+        Assert.assertEquals(256, batch.getJSONArray("p").size());
+        Assert.assertNull(channel.readOutbound());
+
+        channel.runPendingTasks();
+        Assert.assertEquals("k256", ((JSONObject) channel.readOutbound()).getString("t"));
+    }
+}
@@ -0,0 +1,124 @@
+package com.lorne.tx.mq.handler;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.lorne.tx.mq.channel.TxChannel;
+import com.lorne.tx.mq.model.Request;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.channels.ClosedChannelException;
+
+/**
+ * atg/ctg/ckg请求合并为批量帧(a:b)
+ */
+public class RequestBatchHandlerTest {
+
+    private final static int WINDOW = 5;
+
+    private EmbeddedChannel newChannel(int version, int maxSize) {
+        EmbeddedChannel channel = new EmbeddedChannel(new RequestBatchHandler(WINDOW, maxSize));
+        channel.attr(TxChannel.KEY).set(new TxChannel(0, channel));
+        if (version > 0) {
+            MessageProtocol.setVersion(channel, version);
+        }
+        return channel;
+    }
+
+    private Request newRequest(String action, long key) {
+        JSONObject params = new JSONObject();
+        params.put("g", "group-" + key);
+        Request request = new Request(action, params);
+        request.setKey(key);
+        return request;
+    }
+
+    /**
+     * 等待合并窗口结束后执行定时发送
+     */
+    private void waitWindow(EmbeddedChannel channel) throws InterruptedException {
+        Thread.sleep(WINDOW * 4);
+        channel.runScheduledPendingTasks();
+    }
+
+    @Test
+    public void notMergedBeforeHandshake() throws Exception {
+        EmbeddedChannel channel = newChannel(0, 10);
+        channel.writeAndFlush(newRequest("atg", 1));
+        channel.writeAndFlush(newRequest("atg", 2));
+
+        JSONObject first = channel.readOutbound();
+        JSONObject second = channel.readOutbound();
+        Assert.assertEquals("atg", first.getString("a"));
+        Assert.assertEquals(1L, first.getLongValue("k"));
+        Assert.assertEquals(2L, second.getLongValue("k"));
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void mergedWithinWindow() throws Exception {
+        EmbeddedChannel channel = newChannel(MessageProtocol.VERSION_BATCH, 10);
+        ChannelFuture first = channel.writeAndFlush(newRequest("atg", 1));
+        ChannelFuture second = channel.writeAndFlush(newRequest("ctg", 2));
+        ChannelFuture third = channel.writeAndFlush(newRequest("ckg", 3));
+        Assert.assertNull(channel.readOutbound());
+        Assert.assertFalse(first.isDone());
+
+        waitWindow(channel);
+        JSONObject batch = channel.readOutbound();
+        Assert.assertEquals("b", batch.getString("a"));
+        Assert.assertTrue(batch.getLongValue("k") > 0);
+        JSONArray items = batch.getJSONArray("p");
+        Assert.assertEquals(3, items.size());
+        for (int i = 0; i < items.size(); i++) {
+            Assert.assertEquals(i + 1L, items.getJSONObject(i).getLongValue("k"));
+        }
+        Assert.assertEquals("ctg", items.getJSONObject(1).getString("a"));
+        Assert.assertEquals("group-2", items.getJSONObject(1).getJSONObject("p").getString("g"));
+        Assert.assertTrue(first.isSuccess() && second.isSuccess() && third.isSuccess());
+        Assert.assertNull(channel.readOutbound());
+    }
+
+    @Test
+    public void maxSizeSendsImmediately() throws Exception {
+        EmbeddedChannel channel = newChannel(MessageProtocol.VERSION_BATCH, 2);
+        channel.writeAndFlush(newRequest("atg", 1));
+        channel.writeAndFlush(newRequest("atg", 2));
+        channel.writeAndFlush(newRequest("atg", 3));
+
+        JSONObject batch = channel.readOutbound();
+        Assert.assertEquals("b", batch.getString("a"));
+        Assert.assertEquals(2, batch.getJSONArray("p").size());
+        Assert.assertNull(channel.readOutbound());
+
+        //窗口内只有一个请求时不使用批量帧
+        waitWindow(channel);
+        JSONObject single = channel.readOutbound();
+        Assert.assertEquals("atg", single.getString("a"));
+        Assert.assertEquals(3L, single.getLongValue("k"));
+    }
+
+    @Test
+    public void otherActionsPassThrough() throws Exception {
+        EmbeddedChannel channel = newChannel(MessageProtocol.VERSION_BATCH, 10);
+        channel.writeAndFlush(newRequest("cg", 1));
+        JSONObject msg = channel.readOutbound();
+        Assert.assertEquals("cg", msg.getString("a"));
+
+        channel.writeAndFlush("{\"a\":\"h\"}");
+        Assert.assertEquals("{\"a\":\"h\"}", channel.readOutbound());
+    }
+
+    @Test
+    public void closeFailsPendingRequests() throws Exception {
+        EmbeddedChannel channel = newChannel(MessageProtocol.VERSION_BATCH, 10);
+        ChannelFuture future = channel.writeAndFlush(newRequest("atg", 1));
+        channel.close();
+
+        Assert.assertTrue(future.cause() instanceof ClosedChannelException);
+        waitWindow(channel);
+        Assert.assertNull(channel.readOutbound());
+    }
+}
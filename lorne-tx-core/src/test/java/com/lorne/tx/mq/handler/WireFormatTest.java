@@ -0,0 +1,150 @@
+package com.lorne.tx.mq.handler;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.CharsetUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 线上格式: 固定消息编码后的字节.
+ * lorne-tx-core与tx-manager中的该测试相同,任一模块的编解码类修改后与另一模块不一致时失败
+ */
+public class WireFormatTest {
+
+    /**
+     * 请求 a:atg k:12 p:{g,s,l,r,t}
+     * 长度 + 帧格式版本 + 操作码 + 请求id + 字段数, 之后每行一个字段
+     */
+    private final static String REQUEST = "0000004c" + "01" + "02" + "000000000000000c" + "0001"
+        + "706f0005"
+        + "677300000007" + "67726f75702d31"
+        + "736900000001"
+        + "6c6c0000001cbe991a14"
+        + "7272000000026900000007730000000178"
+        + "747300000008e4bbbbe58aa12d31";
+
+    /**
+     * 响应 k:42 d:"1"
+     */
+    private final static String RESPONSE = "00000013" + "01" + "00" + "000000000000002a" + "0001"
+        + "64730000000131";
+
+    /**
+     * 合并的通知 a:mt p:[{t:k1,c:1},{t:k2,c:0}]
+     */
+    private final static String BATCH_NOTIFY = "00000034" + "01" + "08" + "ffffffffffffffff" + "0001"
+        + "707200000002"
+        + "6f0002" + "7473000000026b31" + "636900000001"
+        + "6f0002" + "7473000000026b32" + "636900000000";
+
+    /**
+     * 未握手的旧版本发送的JSON帧
+     */
+    private final static String JSON_NOTIFY = "{\"a\":\"t\",\"k\":\"5\",\"p\":\"{\\\"t\\\":\\\"k1\\\",\\\"c\\\":1}\"}";
+
+    private EmbeddedChannel newChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel(new MessageDecoder(MessageDecoder.DEFAULT_MAX_FRAME_LENGTH),
+            MessageEncoder.INSTANCE, new NotifyBatchHandler());
+        MessageProtocol.setVersion(channel, MessageProtocol.VERSION);
+        return channel;
+    }
+
+    private String encode(EmbeddedChannel channel) {
+        ByteBuf frame = channel.readOutbound();
+        try {
+            return ByteBufUtil.hexDump(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    private JSONObject decode(String hex) {
+        EmbeddedChannel channel = newChannel();
+        Assert.assertTrue(channel.writeInbound(Unpooled.wrappedBuffer(ByteBufUtil.decodeHexDump(hex))));
+        return channel.readInbound();
+    }
+
+    private JSONObject newNotify(String kid, int state) {
+        //按写入顺序编码字段
+        JSONObject msg = new JSONObject(true);
+        msg.put("a", "t");
+        msg.put("t", kid);
+        msg.put("c", state);
+        return msg;
+    }
+
+    @Test
+    public void request() {
+        JSONObject params = new JSONObject(true);
+        params.put("g", "group-1");
+        params.put("s", 1);
+        params.put("l", 123456789012L);
+        JSONArray array = new JSONArray();
+        array.add(7);
+        array.add("x");
+        params.put("r", array);
+        params.put("t", "任务-1");
+        JSONObject msg = new JSONObject(true);
+        msg.put("a", "atg");
+        msg.put("k", 12L);
+        msg.put("p", params);
+
+        EmbeddedChannel channel = newChannel();
+        Assert.assertTrue(channel.writeOutbound(msg));
+        Assert.assertEquals(REQUEST, encode(channel));
+
+        JSONObject decoded = decode(REQUEST);
+        Assert.assertEquals("atg", decoded.getString("a"));
+        Assert.assertEquals(12L, decoded.getLongValue("k"));
+        Assert.assertEquals("任务-1", decoded.getJSONObject("p").getString("t"));
+        Assert.assertEquals(123456789012L, decoded.getJSONObject("p").getLongValue("l"));
+    }
+
+    @Test
+    public void response() {
+        JSONObject msg = new JSONObject(true);
+        msg.put("k", "42");
+        msg.put("d", "1");
+
+        EmbeddedChannel channel = newChannel();
+        Assert.assertTrue(channel.writeOutbound(msg));
+        Assert.assertEquals(RESPONSE, encode(channel));
+
+        JSONObject decoded = decode(RESPONSE);
+        Assert.assertNull(decoded.get("a"));
+        Assert.assertEquals(42L, decoded.getLongValue("k"));
+        Assert.assertEquals("1", decoded.getString("d"));
+    }
+
+    @Test
+    public void batchNotify() {
+        EmbeddedChannel channel = newChannel();
+        channel.writeAndFlush(newNotify("k1", 1));
+        channel.writeAndFlush(newNotify("k2", 0));
+        channel.runPendingTasks();
+        Assert.assertEquals(BATCH_NOTIFY, encode(channel));
+        Assert.assertNull(channel.readOutbound());
+
+        JSONObject decoded = decode(BATCH_NOTIFY);
+        Assert.assertEquals("mt", decoded.getString("a"));
+        Assert.assertEquals("k2", decoded.getJSONArray("p").getJSONObject(1).getString("t"));
+    }
+
+    @Test
+    public void jsonFrame() {
+        ByteBuf frame = Unpooled.buffer();
+        byte[] bytes = JSON_NOTIFY.getBytes(CharsetUtil.UTF_8);
+        frame.writeInt(bytes.length);
+        frame.writeBytes(bytes);
+
+        JSONObject decoded = decode(ByteBufUtil.hexDump(frame));
+        Assert.assertEquals("t", decoded.getString("a"));
+        Assert.assertEquals("5", decoded.getString("k"));
+        Assert.assertEquals(1, MessageProtocol.getParams(decoded).getIntValue("c"));
+    }
+}
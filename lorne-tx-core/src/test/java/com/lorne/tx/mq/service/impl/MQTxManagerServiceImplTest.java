@@ -0,0 +1,197 @@
+package com.lorne.tx.mq.service.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import com.lorne.tx.bean.TxTransactionLocal;
+import com.lorne.tx.mq.handler.MessageProtocol;
+import com.lorne.tx.mq.model.Request;
+import com.lorne.tx.mq.service.NettyService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 开始事务组: 在发送cg的连接上检查协议版本,异步创建失败时标记事务
+ */
+public class MQTxManagerServiceImplTest {
+
+    /**
+     * 记录发送的请求,响应由测试完成
+     */
+    private static class FakeNettyService implements NettyService {
+
+        private String createManager = "m1";
+
+        private int defaultVersion = MessageProtocol.VERSION;
+
+        private final Map<String, Integer> versions = new HashMap<>();
+
+        private final List<Request> requests = new ArrayList<>();
+
+        private final List<String> managers = new ArrayList<>();
+
+        private final List<CompletableFuture<String>> responses = new ArrayList<>();
+
+        /**
+         * 不为null时直接返回该响应
+         */
+        private String response;
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void restart() {
+        }
+
+        @Override
+        public String sendMsg(Request request) {
+            return sendMsgAsync(request).join();
+        }
+
+        @Override
+        public CompletableFuture<String> sendMsgAsync(Request request) {
+            return sendMsgAsync(request, null);
+        }
+
+        @Override
+        public CompletableFuture<String> sendMsgAsync(Request request, String manager) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            if (response != null) {
+                future.complete(response);
+            }
+            requests.add(request);
+            managers.add(manager);
+            responses.add(future);
+            return future;
+        }
+
+        @Override
+        public boolean checkState() {
+            return true;
+        }
+
+        @Override
+        public int getProtocolVersion() {
+            return defaultVersion;
+        }
+
+        @Override
+        public int getProtocolVersion(String manager) {
+            Integer version = versions.get(manager);
+            return version == null ? 0 : version;
+        }
+
+        @Override
+        public boolean isBusy() {
+            return createManager == null;
+        }
+
+        @Override
+        public boolean isPiggyback() {
+            return false;
+        }
+
+        @Override
+        public boolean isCloseAsync() {
+            return false;
+        }
+
+        @Override
+        public String getManagerName() {
+            return "m0";
+        }
+
+        @Override
+        public String getManagerName(boolean skipBusy) {
+            return skipBusy ? createManager : getManagerName();
+        }
+
+        @Override
+        public String getModelName(String manager) {
+            return null;
+        }
+    }
+
+    private FakeNettyService nettyService;
+
+    private MQTxManagerServiceImpl txManagerService;
+
+
+    @Before
+    public void setUp() throws Exception {
+        nettyService = new FakeNettyService();
+        txManagerService = new MQTxManagerServiceImpl();
+        Field field = MQTxManagerServiceImpl.class.getDeclaredField("nettyService");
+        field.setAccessible(true);
+        field.set(txManagerService, nettyService);
+    }
+
+    private String groupJson(String groupId) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("g", groupId);
+        jsonObject.put("ho", 0);
+        jsonObject.put("w", 10);
+        jsonObject.put("st", System.currentTimeMillis());
+        jsonObject.put("nt", System.currentTimeMillis());
+        return jsonObject.toString();
+    }
+
+    @Test
+    public void asyncCreateFailureIsRecorded() {
+        nettyService.versions.put("m1", MessageProtocol.VERSION_GROUP_ID);
+        TxTransactionLocal txTransactionLocal = new TxTransactionLocal();
+        String groupId = txManagerService.startTransactionGroup(txTransactionLocal);
+
+        Assert.assertEquals(18, groupId.length());
+        Assert.assertEquals(1, nettyService.requests.size());
+        Assert.assertEquals("cg", nettyService.requests.get(0).getAction());
+        Assert.assertEquals(groupId, nettyService.requests.get(0).getParams().getString("g"));
+        Assert.assertEquals("m1", nettyService.managers.get(0));
+        Assert.assertFalse(txTransactionLocal.isGroupFailed());
+
+        //繁忙或超时时响应为null
+        nettyService.responses.get(0).complete(null);
+        Assert.assertTrue(txTransactionLocal.isGroupFailed());
+    }
+
+    @Test
+    public void asyncCreateSucceeds() {
+        nettyService.versions.put("m1", MessageProtocol.VERSION);
+        TxTransactionLocal txTransactionLocal = new TxTransactionLocal();
+        String groupId = txManagerService.startTransactionGroup(txTransactionLocal);
+        nettyService.responses.get(0).complete(groupJson(groupId));
+        Assert.assertFalse(txTransactionLocal.isGroupFailed());
+    }
+
+    @Test
+    public void versionOfTheCreateChannel() {
+        //其他连接支持事务模块生成事务组id,发送cg的连接不支持,同步创建
+        nettyService.defaultVersion = MessageProtocol.VERSION;
+        nettyService.versions.put("m1", MessageProtocol.VERSION_GROUP_ID - 1);
+        nettyService.response = groupJson("g1");
+
+        Assert.assertEquals("g1", txManagerService.startTransactionGroup(new TxTransactionLocal()));
+        Assert.assertEquals("cg", nettyService.requests.get(0).getAction());
+        Assert.assertNull(nettyService.requests.get(0).getParams().getString("g"));
+        Assert.assertEquals("m1", nettyService.managers.get(0));
+    }
+
+    @Test
+    public void busyWithoutRequest() {
+        nettyService.createManager = null;
+        Assert.assertNull(txManagerService.startTransactionGroup(new TxTransactionLocal()));
+        Assert.assertTrue(nettyService.requests.isEmpty());
+    }
+}
@@ -0,0 +1,44 @@
+package com.lorne.tx.springcloud.feign;
+
+import com.lorne.tx.bean.TxParticipants;
+import com.lorne.tx.bean.TxTransactionLocal;
+import feign.Client;
+import feign.Request;
+import feign.Response;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * 读取下游随响应返回的参与方,feign的RequestInterceptor无法访问响应.
+ * 事务组创建失败时不再调用下游服务
+ */
+public class TransactionFeignClient implements Client {
+
+    private final Client delegate;
+
+    public TransactionFeignClient(Client delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Response execute(Request request, Request.Options options) throws IOException {
+        TxTransactionLocal txTransactionLocal = TxTransactionLocal.current();
+        if (txTransactionLocal != null && txTransactionLocal.isGroupFailed()) {
+            throw new IOException("创建事务组失败.");
+        }
+        Response response = delegate.execute(request, options);
+        if (txTransactionLocal == null || txTransactionLocal.getParticipants() == null || response.headers() == null) {
+            return response;
+        }
+        for (Map.Entry<String, Collection<String>> entry : response.headers().entrySet()) {
+            if (TxParticipants.RESPONSE_KEY.equalsIgnoreCase(entry.getKey())) {
+                for (String value : entry.getValue()) {
+                    txTransactionLocal.getParticipants().addAll(value);
+                }
+            }
+        }
+        return response;
+    }
+}
@@ -1,6 +1,7 @@
 package com.lorne.tx.springcloud.feign;
 
 
+import feign.Client;
 import feign.Feign;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -15,7 +16,14 @@ public class TransactionRestTemplateConfiguration {
     @Bean
     @Scope("prototype")
     public Feign.Builder feignBuilder() {
-        return Feign.builder().requestInterceptor(new TransactionRestTemplateInterceptor());
+        //包装FeignClientFactoryBean设置的Client,读取响应中的参与方
+        Feign.Builder builder = new Feign.Builder() {
+            @Override
+            public Feign.Builder client(Client client) {
+                return super.client(new TransactionFeignClient(client));
+            }
+        };
+        return builder.client(new Client.Default(null, null)).requestInterceptor(new TransactionRestTemplateInterceptor());
     }
 
 }
@@ -1,5 +1,6 @@
 package com.lorne.tx.springcloud.feign;
 
+import com.lorne.tx.bean.TxParticipants;
 import com.lorne.tx.bean.TxTransactionLocal;
 import com.lorne.tx.compensate.service.impl.CompensateServiceImpl;
 import feign.RequestInterceptor;
@@ -20,6 +21,10 @@ public class TransactionRestTemplateInterceptor implements RequestInterceptor {
                 requestTemplate.header("tx-group", CompensateServiceImpl.COMPENSATE_KEY);
             } else {
                 requestTemplate.header("tx-group", groupId);
+                if (txTransactionLocal.getParticipants() != null) {
+                    //响应中的参与方由TransactionFeignClient读取
+                    requestTemplate.header(TxParticipants.REQUEST_KEY, txTransactionLocal.getParticipants().getManager());
+                }
             }
         }
     }
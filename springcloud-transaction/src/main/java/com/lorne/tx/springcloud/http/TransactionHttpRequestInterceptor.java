@@ -1,5 +1,6 @@
 package com.lorne.tx.springcloud.http;
 
+import com.lorne.tx.bean.TxParticipants;
 import com.lorne.tx.bean.TxTransactionLocal;
 import com.lorne.tx.compensate.service.impl.CompensateServiceImpl;
 import org.springframework.http.HttpRequest;
@@ -17,6 +18,10 @@ public class TransactionHttpRequestInterceptor implements ClientHttpRequestInter
     @Override
     public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
         TxTransactionLocal txTransactionLocal = TxTransactionLocal.current();
+        if (txTransactionLocal != null && txTransactionLocal.isGroupFailed()) {
+            //事务组创建失败,不再调用下游服务
+            throw new IOException("创建事务组失败.");
+        }
         String groupId = txTransactionLocal==null?null:txTransactionLocal.getGroupId();
         request.getHeaders().add("tx-group",groupId);
         if (txTransactionLocal != null) {
@@ -26,6 +31,14 @@ public class TransactionHttpRequestInterceptor implements ClientHttpRequestInter
                 request.getHeaders().add("tx-group",groupId);
             }
         }
-        return execution.execute(request,body);
+        TxParticipants participants = txTransactionLocal == null || txTransactionLocal.isHasCompensate() ? null : txTransactionLocal.getParticipants();
+        if (participants == null) {
+            return execution.execute(request,body);
+        }
+        request.getHeaders().add(TxParticipants.REQUEST_KEY, participants.getManager());
+        ClientHttpResponse response = execution.execute(request,body);
+        //下游参与方随响应返回
+        participants.addAll(response.getHeaders().getFirst(TxParticipants.RESPONSE_KEY));
+        return response;
     }
 }
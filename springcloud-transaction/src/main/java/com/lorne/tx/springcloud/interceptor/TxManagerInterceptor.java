@@ -1,5 +1,6 @@
 package com.lorne.tx.springcloud.interceptor;
 
+import com.lorne.tx.bean.TxParticipants;
 import com.lorne.tx.bean.TxTransactionCompensate;
 import com.lorne.tx.service.AspectBeforeService;
 import org.aspectj.lang.ProceedingJoinPoint;
@@ -10,6 +11,7 @@ import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * Created by lorne on 2017/6/7.
@@ -25,13 +27,32 @@ public class TxManagerInterceptor {
     public Object around(ProceedingJoinPoint point) throws Throwable {
         TxTransactionCompensate compensate = TxTransactionCompensate.current();
         String groupId = null;
+        HttpServletResponse response = null;
+        TxParticipants participants = null;
         if (compensate == null) {
             try {
                 RequestAttributes requestAttributes = RequestContextHolder.currentRequestAttributes();
                 HttpServletRequest request = requestAttributes == null ? null : ((ServletRequestAttributes) requestAttributes).getRequest();
                 groupId = request == null ? null : request.getHeader("tx-group");
+                String manager = request == null ? null : request.getHeader(TxParticipants.REQUEST_KEY);
+                if (groupId != null && manager != null && manager.length() > 0) {
+                    //调用方可以接收随响应返回的参与方
+                    response = ((ServletRequestAttributes) requestAttributes).getResponse();
+                    participants = response == null ? null : new TxParticipants(manager);
+                }
             }catch (Exception e){}
         }
-        return aspectBeforeService.around(groupId, point);
+        if (participants == null) {
+            return aspectBeforeService.around(groupId, point);
+        }
+        TxParticipants.setCurrent(participants);
+        try {
+            return aspectBeforeService.around(groupId, point);
+        } finally {
+            TxParticipants.setCurrent(null);
+            if (!participants.isEmpty()) {
+                response.setHeader(TxParticipants.RESPONSE_KEY, participants.toValue());
+            }
+        }
     }
 }
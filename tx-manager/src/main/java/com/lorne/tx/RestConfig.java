@@ -5,6 +5,7 @@ import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
 /**
@@ -18,7 +19,11 @@ public class RestConfig {
 
     @Bean
     public RestTemplate getRestTemplate() {
-        RestTemplate restTemplate = new RestTemplate();
+        //读取集群负载时不因单个TxManager无响应而阻塞
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(1000);
+        requestFactory.setReadTimeout(2000);
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
         return restTemplate;
     }
 
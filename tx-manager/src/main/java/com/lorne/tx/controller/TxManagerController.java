@@ -49,4 +49,11 @@ public class TxManagerController {
     public TxState state() {
         return txService.getState();
     }
+
+
+    @RequestMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    @ResponseBody
+    public String metrics() {
+        return txService.getMetrics();
+    }
 }
@@ -7,5 +7,13 @@ import com.lorne.tx.mq.model.TxGroup;
  */
 public interface TransactionConfirmService {
 
+    /**
+     * 发送事务通知,不阻塞调用线程,提交的确认结果由回调处理
+     */
     void confirm(TxGroup group);
+
+    /**
+     * 事务组超时未关闭,通知已加入的模块回滚
+     */
+    void timeout(TxGroup group);
 }
@@ -0,0 +1,66 @@
+package com.lorne.tx.manager.service;
+
+import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 事务组存储,由store.type选择实现:
+ * redis 多个TxManager共享事务组;
+ * embedded 事务组保存在本机内存,修改记录写入本地日志,单机部署时不需要redis
+ */
+public interface TxGroupStore {
+
+    String key_prefix = "tx_manager_default_";
+
+    String key_prefix_notify = "tx_manager_notify_";
+
+    /**
+     * 写入事务组字段 seconds<=0时不过期
+     */
+    CompletableFuture<?> saveHeader(String prefix, TxGroup txGroup, int seconds);
+
+    /**
+     * 写入参与方 seconds<=0时不过期
+     */
+    CompletableFuture<?> saveInfos(String prefix, String groupId, Collection<TxInfo> infos, int seconds);
+
+    CompletableFuture<Void> save(String prefix, TxGroup txGroup, int seconds);
+
+    /**
+     * 读取事务组及参与方,不存在时返回null
+     */
+    CompletableFuture<TxGroup> load(String prefix, String groupId);
+
+    /**
+     * 事务组状态,不存在时返回-1
+     */
+    int getState(String prefix, String groupId);
+
+    /**
+     * 加入事务组,返回不含参与方的事务组,事务组不存在时返回null.
+     * 事务组已关闭时不加入,返回的事务组isHasOver为true
+     */
+    CompletableFuture<TxGroup> join(String groupId, TxInfo info);
+
+    /**
+     * 标记参与方已通知,返回事务组状态,不存在时返回-1.
+     * 参与方不在事务组中时返回0,未加入的参与方不能提交
+     */
+    CompletableFuture<Integer> notify(String prefix, String groupId, String kid, boolean deleteWhenOver);
+
+    /**
+     * 关闭事务组,返回1表示成功,事务组不存在时返回0,已被关闭时返回2且不修改.
+     * 与join互斥,关闭成功后读取的参与方即为完整列表
+     */
+    CompletableFuture<Integer> close(String groupId, int state, long endTime);
+
+    CompletableFuture<?> delete(String prefix, String groupId);
+
+    /**
+     * 等待写入的操作数
+     */
+    int getQueueSize();
+}
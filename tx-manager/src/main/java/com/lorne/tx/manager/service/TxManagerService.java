@@ -1,6 +1,10 @@
 package com.lorne.tx.manager.service;
 
 import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Created by lorne on 2017/6/7.
@@ -10,12 +14,18 @@ public interface TxManagerService {
 
 
     /**
-     * 创建事物组
+     * 创建事物组,事务组已存在时返回已有的事务组
+     * @param groupId 事务模块生成的事务组id,为空时由TxManager生成
      * @param taskId
      */
-    TxGroup createTransactionGroup(String taskId,String modelName);
+    TxGroup createTransactionGroup(String groupId, String taskId,String modelName);
 
 
+    /**
+     * 异步创建事务组,在本地创建后完成,事务组字段异步写入存储
+     */
+    CompletableFuture<TxGroup> createTransactionGroupAsync(String groupId, String taskId, String modelName);
+
     /**
      * 添加事务组子对象
      *
@@ -24,15 +34,33 @@ public interface TxManagerService {
     TxGroup addTransactionGroup(String groupId, String taskId, int isGroup,String modelName);
 
 
+    /**
+     * 异步添加事务组子对象,事务组在本地时直接完成
+     */
+    CompletableFuture<TxGroup> addTransactionGroupAsync(String groupId, String taskId, int isGroup, String modelName);
+
+
     boolean checkTransactionGroup(String groupId,String taskId);
 
 
+    CompletableFuture<Boolean> checkTransactionGroupAsync(String groupId, String taskId);
+
+
     boolean checkTransactionGroupState(String groupId);
 
 
     boolean closeTransactionGroup(String groupId,int state);
 
 
+    CompletableFuture<Boolean> closeTransactionGroupAsync(String groupId, int state);
+
+
+    /**
+     * 加入随关闭请求提交的参与方后关闭事务组,有参与方加入失败时回滚
+     */
+    CompletableFuture<Boolean> closeTransactionGroupAsync(String groupId, int state, List<TxInfo> infos);
+
+
 //    /**
 //     * 通知事务组事务执行状态
 //     *
@@ -53,4 +81,10 @@ public interface TxManagerService {
 
     int getDelayTime();
 
+
+    /**
+     * 本TxManager上进行中的事务组数
+     */
+    int getGroupCount();
+
 }
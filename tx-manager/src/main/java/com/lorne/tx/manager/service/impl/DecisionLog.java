@@ -0,0 +1,295 @@
+package com.lorne.tx.manager.service.impl;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.lorne.tx.manager.service.TxGroupStore;
+import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 事务组提交/回滚决定的日志,决定写入磁盘后才发送通知.
+ * 同一窗口(decision.sync.window微秒)内的决定由GroupCommit合并为一次写入磁盘.
+ * 记录: d 决定(事务组,状态,参与方), e 通知完成.
+ * TxManager重启时,有决定但未完成通知的事务组以决定的状态写入补偿存储,由模块检查事务组(ckg)时按决定提交或回滚.
+ * 写入补偿存储在启动完成后进行,失败时重试,期间ckg直接按决定返回
+ */
+@Component
+public class DecisionLog implements ApplicationListener<ApplicationReadyEvent> {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    @Value("${decision.path}")
+    private String decision_path;
+
+    @Value("${decision.segment.size}")
+    private int decision_segment_size;
+
+    @Value("${decision.sync.window}")
+    private int decision_sync_window;
+
+    @Value("${decision.compact.time}")
+    private int decision_compact_time;
+
+    @Autowired
+    private TxGroupStore txGroupStore;
+
+    private Logger logger = LoggerFactory.getLogger(DecisionLog.class);
+
+    private SegmentedLog log;
+
+    /**
+     * 未完成通知的决定 key:groupId,在this上同步
+     */
+    private final Map<String, JSONObject> undone = new LinkedHashMap<>();
+
+    /**
+     * 尚未写入补偿存储的决定 key:groupId,在this上同步
+     */
+    private final Map<String, JSONObject> recovering = new LinkedHashMap<>();
+
+    //写入补偿存储失败时重试的间隔(秒)
+    private final static int recover_retry_time = 1;
+
+    private GroupCommit groupCommit;
+
+    private ScheduledExecutorService compactExecutor = Executors.newSingleThreadScheduledExecutor();
+
+
+    @PostConstruct
+    public void start() throws IOException {
+        File dir = new File(decision_path);
+        if (!(dir.isDirectory() || dir.mkdirs()) || !dir.canWrite()) {
+            throw new IllegalStateException("decision.path不可写,请检查配置->" + dir.getAbsolutePath());
+        }
+        log = new SegmentedLog(dir, decision_segment_size);
+        synchronized (this) {
+            log.open(new Consumer<byte[]>() {
+                @Override
+                public void accept(byte[] data) {
+                    JSONObject record = JSONObject.parseObject(new String(data, UTF8));
+                    if ("d".equals(record.getString("o"))) {
+                        undone.put(record.getString("g"), record);
+                    } else {
+                        undone.remove(record.getString("g"));
+                    }
+                }
+            });
+            recovering.putAll(undone);
+        }
+        groupCommit = new GroupCommit(log, decision_sync_window, "decision-log");
+        compactExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    logger.error("decision-compact-error", e);
+                }
+            }
+        }, decision_compact_time, decision_compact_time, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        compactExecutor.shutdown();
+        groupCommit.close();
+        synchronized (this) {
+            log.close();
+        }
+    }
+
+    /**
+     * 启动完成后写入补偿存储,不阻塞启动
+     */
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        compactExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!recover()) {
+                    compactExecutor.schedule(this, recover_retry_time, TimeUnit.SECONDS);
+                }
+            }
+        });
+    }
+
+    /**
+     * 重启前未完成通知的事务组写入补偿存储,之后不再由本日志处理
+     *
+     * @return 是否全部写入
+     */
+    private boolean recover() {
+        List<JSONObject> records;
+        synchronized (this) {
+            records = new ArrayList<>(recovering.values());
+        }
+        boolean ok = true;
+        for (JSONObject record : records) {
+            String groupId = record.getString("g");
+            TxGroup txGroup = new TxGroup();
+            txGroup.setGroupId(groupId);
+            txGroup.hasOvered();
+            txGroup.setState(record.getIntValue("s") == 1 ? 1 : 0);
+            txGroup.setEndTime(record.getLongValue("t"));
+            Set<String> notified = new HashSet<>();
+            synchronized (this) {
+                JSONArray items = record.getJSONArray("l");
+                for (int i = 0; i < items.size(); i++) {
+                    JSONObject item = items.getJSONObject(i);
+                    TxInfo info = new TxInfo();
+                    info.setKid(item.getString("k"));
+                    info.setModelName(item.getString("m"));
+                    info.setIsGroup(item.getIntValue("ig"));
+                    info.setNotify(item.getIntValue("n"));
+                    if (info.getNotify() == 1) {
+                        notified.add(info.getKid());
+                    }
+                    //事务组已关闭,直接加入列表
+                    txGroup.getList().add(info);
+                }
+            }
+            try {
+                //删除关闭时的状态,检查事务组时以决定为准
+                txGroupStore.delete(TxGroupStore.key_prefix, groupId).join();
+                txGroupStore.save(TxGroupStore.key_prefix_notify, txGroup, 0).join();
+            } catch (Exception e) {
+                logger.error("decision-recover-error->" + groupId, e);
+                ok = false;
+                continue;
+            }
+            List<String> kids = new ArrayList<>();
+            synchronized (this) {
+                recovering.remove(groupId);
+                //写入期间ckg已通知的参与方
+                JSONArray items = record.getJSONArray("l");
+                for (int i = 0; i < items.size(); i++) {
+                    JSONObject item = items.getJSONObject(i);
+                    if (item.getIntValue("n") == 1 && !notified.contains(item.getString("k"))) {
+                        kids.add(item.getString("k"));
+                    }
+                }
+            }
+            for (String kid : kids) {
+                txGroupStore.notify(TxGroupStore.key_prefix_notify, groupId, kid, true);
+            }
+            done(groupId);
+            logger.info("decision-recovered->" + groupId + ",state:" + txGroup.getState());
+        }
+        return ok;
+    }
+
+    /**
+     * 尚未写入补偿存储的事务组按决定检查并标记参与方已通知
+     *
+     * @return 1提交 0回滚或参与方不在事务组中, 不在恢复中时返回-1
+     */
+    public synchronized int check(String groupId, String kid) {
+        JSONObject record = recovering.get(groupId);
+        if (record == null) {
+            return -1;
+        }
+        JSONArray items = record.getJSONArray("l");
+        for (int i = 0; i < items.size(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            if (item.getString("k").equals(kid)) {
+                item.put("n", 1);
+                return record.getIntValue("s") == 1 ? 1 : 0;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 记录决定,写入磁盘后完成
+     *
+     * @param state 1提交 0回滚 -1超时回滚
+     */
+    public CompletableFuture<Void> decide(TxGroup txGroup, int state) {
+        JSONObject record = new JSONObject();
+        record.put("o", "d");
+        record.put("g", txGroup.getGroupId());
+        record.put("s", state);
+        record.put("t", System.currentTimeMillis());
+        JSONArray items = new JSONArray();
+        synchronized (txGroup) {
+            for (TxInfo info : txGroup.getList()) {
+                JSONObject item = new JSONObject();
+                item.put("k", info.getKid());
+                item.put("m", info.getModelName());
+                item.put("ig", info.getIsGroup());
+                items.add(item);
+            }
+        }
+        record.put("l", items);
+        byte[] data = record.toJSONString().getBytes(UTF8);
+
+        synchronized (this) {
+            try {
+                log.append(data);
+            } catch (IOException e) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+            undone.put(txGroup.getGroupId(), record);
+        }
+        return groupCommit.commit();
+    }
+
+    /**
+     * 通知完成,不需要立即写入磁盘,重启后最多重复补偿
+     */
+    public synchronized void done(String groupId) {
+        if (undone.remove(groupId) == null) {
+            return;
+        }
+        JSONObject record = new JSONObject();
+        record.put("o", "e");
+        record.put("g", groupId);
+        try {
+            log.append(record.toJSONString().getBytes(UTF8));
+        } catch (IOException e) {
+            logger.error("decision-done-error->" + groupId, e);
+        }
+    }
+
+    /**
+     * 日志超过一个分段时,未完成的决定写入新分段,删除之前的分段
+     */
+    private synchronized void compact() throws IOException {
+        if (log.getSegmentCount() <= 1) {
+            return;
+        }
+        long segmentId = log.roll();
+        for (JSONObject record : undone.values()) {
+            log.append(record.toJSONString().getBytes(UTF8));
+        }
+        log.force();
+        log.deleteBefore(segmentId);
+        logger.info("decision-compacted->" + undone.size());
+    }
+}
@@ -0,0 +1,469 @@
+package com.lorne.tx.manager.service.impl;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.lorne.tx.manager.service.TxGroupStore;
+import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 事务组保存在本机内存,每次修改作为一条记录追加到SegmentedLog,TxManager重启时回放日志恢复事务组.
+ * 记录: h 事务组字段, i 参与方, n 参与方已通知, c 关闭事务组, d 删除事务组.
+ * 修改写入磁盘后才完成,同一窗口(store.sync.window微秒)内的修改由GroupCommit合并为一次写入磁盘.
+ * 日志写满一个分段后,定时把未过期的事务组写入新分段并删除旧分段(压缩)
+ */
+@Component
+@ConditionalOnProperty(name = "store.type", havingValue = "embedded")
+public class EmbeddedTxGroupStore implements TxGroupStore {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    @Value("${store.path}")
+    private String store_path;
+
+    @Value("${store.segment.size}")
+    private int store_segment_size;
+
+    @Value("${store.compact.time}")
+    private int store_compact_time;
+
+    @Value("${store.sync.window}")
+    private int store_sync_window;
+
+    private Logger logger = LoggerFactory.getLogger(EmbeddedTxGroupStore.class);
+
+    /**
+     * 内存中的事务组
+     */
+    private static class Entry {
+
+        private JSONObject header;
+
+        /**
+         * 参与方 key:kid
+         */
+        private final Map<String, TxInfo> infos = new LinkedHashMap<>();
+
+        /**
+         * 过期时间,0时不过期
+         */
+        private long expireTime;
+    }
+
+    /**
+     * 事务组 key:prefix+groupId,所有读写在this上同步
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private SegmentedLog log;
+
+    private GroupCommit groupCommit;
+
+    private ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+
+
+    @PostConstruct
+    public void start() throws IOException {
+        log = new SegmentedLog(new File(store_path), store_segment_size);
+        synchronized (this) {
+            log.open(new Consumer<byte[]>() {
+                @Override
+                public void accept(byte[] data) {
+                    apply(JSONObject.parseObject(new String(data, UTF8)));
+                }
+            });
+            long now = System.currentTimeMillis();
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (isExpired(iterator.next(), now)) {
+                    iterator.remove();
+                }
+            }
+            logger.info("store-recovered->" + entries.size());
+        }
+        groupCommit = new GroupCommit(log, store_sync_window, "tx-store");
+        executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    logger.error("store-compact-error", e);
+                }
+            }
+        }, store_compact_time, store_compact_time, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        executorService.shutdown();
+        groupCommit.close();
+        synchronized (this) {
+            log.close();
+        }
+    }
+
+    private static boolean isExpired(Entry entry, long now) {
+        return entry.expireTime > 0 && entry.expireTime <= now;
+    }
+
+    private static long expireTime(int seconds) {
+        return seconds > 0 ? System.currentTimeMillis() + seconds * 1000L : -1;
+    }
+
+    private static JSONObject toItem(TxInfo info) {
+        JSONObject item = new JSONObject();
+        item.put("k", info.getKid());
+        item.put("m", info.getModelName());
+        item.put("n", info.getNotify());
+        item.put("ig", info.getIsGroup());
+        return item;
+    }
+
+    private static TxInfo parseItem(JSONObject item) {
+        TxInfo info = new TxInfo();
+        info.setKid(item.getString("k"));
+        info.setModelName(item.getString("m"));
+        info.setNotify(item.getIntValue("n"));
+        info.setIsGroup(item.getIntValue("ig"));
+        return info;
+    }
+
+    private static JSONObject toHeader(TxGroup txGroup) {
+        JSONObject header = new JSONObject();
+        header.put("g", txGroup.getGroupId());
+        header.put("ho", txGroup.isHasOver() ? 1 : 0);
+        header.put("w", txGroup.getWaitTime());
+        header.put("st", txGroup.getStartTime());
+        header.put("et", txGroup.getEndTime());
+        header.put("nt", txGroup.getNowTime());
+        header.put("s", txGroup.getState());
+        return header;
+    }
+
+    private static JSONObject record(String op, String key) {
+        JSONObject record = new JSONObject();
+        record.put("o", op);
+        record.put("k", key);
+        return record;
+    }
+
+    /**
+     * 未过期的事务组
+     */
+    private Entry get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && isExpired(entry, System.currentTimeMillis())) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 修改内存中的事务组,写入日志与回放日志共用
+     */
+    private void apply(JSONObject record) {
+        String key = record.getString("k");
+        String op = record.getString("o");
+        if ("d".equals(op)) {
+            entries.remove(key);
+            return;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (!"h".equals(op) && !"i".equals(op)) {
+                return;
+            }
+            entry = new Entry();
+            entries.put(key, entry);
+        }
+        //x为-1或不存在时不修改过期时间
+        if (record.containsKey("x") && record.getLongValue("x") >= 0) {
+            entry.expireTime = record.getLongValue("x");
+        }
+        if ("h".equals(op)) {
+            entry.header = record.getJSONObject("h");
+        } else if ("i".equals(op)) {
+            JSONArray items = record.getJSONArray("l");
+            for (int i = 0; i < items.size(); i++) {
+                TxInfo info = parseItem(items.getJSONObject(i));
+                entry.infos.put(info.getKid(), info);
+            }
+        } else if ("n".equals(op)) {
+            TxInfo info = entry.infos.get(record.getString("t"));
+            if (info != null) {
+                info.setNotify(1);
+            }
+        } else if ("c".equals(op) && entry.header != null) {
+            entry.header.put("ho", 1);
+            entry.header.put("s", record.getIntValue("s"));
+            entry.header.put("et", record.getLongValue("et"));
+        }
+    }
+
+    /**
+     * 先写入日志再修改内存,写入日志失败时不修改
+     */
+    private void write(JSONObject record) {
+        try {
+            log.append(record.toJSONString().getBytes(UTF8));
+        } catch (IOException e) {
+            throw new IllegalStateException("store-append-error", e);
+        }
+        apply(record);
+    }
+
+    /**
+     * 已追加的记录写入磁盘后返回value
+     */
+    private <T> CompletableFuture<T> committed(final T value) {
+        return groupCommit.commit().thenApply(new Function<Void, T>() {
+            @Override
+            public T apply(Void v) {
+                return value;
+            }
+        });
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    @Override
+    public synchronized CompletableFuture<?> saveHeader(String prefix, TxGroup txGroup, int seconds) {
+        JSONObject record = record("h", prefix + txGroup.getGroupId());
+        record.put("h", toHeader(txGroup));
+        record.put("x", expireTime(seconds));
+        try {
+            write(record);
+        } catch (IllegalStateException e) {
+            return failed(e);
+        }
+        return groupCommit.commit();
+    }
+
+    @Override
+    public synchronized CompletableFuture<?> saveInfos(String prefix, String groupId, Collection<TxInfo> infos, int seconds) {
+        if (infos.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        JSONArray items = new JSONArray(infos.size());
+        for (TxInfo info : infos) {
+            items.add(toItem(info));
+        }
+        JSONObject record = record("i", prefix + groupId);
+        record.put("l", items);
+        record.put("x", expireTime(seconds));
+        try {
+            write(record);
+        } catch (IllegalStateException e) {
+            return failed(e);
+        }
+        return groupCommit.commit();
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> save(String prefix, TxGroup txGroup, int seconds) {
+        CompletableFuture<?> infos = saveInfos(prefix, txGroup.getGroupId(), txGroup.getList(), seconds);
+        return CompletableFuture.allOf(infos, saveHeader(prefix, txGroup, seconds));
+    }
+
+    private static TxGroup toGroup(String groupId, JSONObject header) {
+        TxGroup txGroup = new TxGroup();
+        txGroup.setGroupId(groupId);
+        txGroup.setHasOver(header.getIntValue("ho") == 1);
+        txGroup.setWaitTime(header.getIntValue("w"));
+        txGroup.setStartTime(header.getLongValue("st"));
+        txGroup.setEndTime(header.getLongValue("et"));
+        txGroup.setNowTime(header.getLongValue("nt"));
+        txGroup.setState(header.getIntValue("s"));
+        return txGroup;
+    }
+
+    @Override
+    public synchronized CompletableFuture<TxGroup> load(String prefix, String groupId) {
+        Entry entry = get(prefix + groupId);
+        if (entry == null || entry.header == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        TxGroup txGroup = toGroup(groupId, entry.header);
+        for (TxInfo info : entry.infos.values()) {
+            txGroup.getList().add(parseItem(toItem(info)));
+        }
+        return CompletableFuture.completedFuture(txGroup);
+    }
+
+    @Override
+    public synchronized int getState(String prefix, String groupId) {
+        Entry entry = get(prefix + groupId);
+        return entry == null || entry.header == null ? -1 : entry.header.getIntValue("s");
+    }
+
+    @Override
+    public synchronized CompletableFuture<TxGroup> join(String groupId, TxInfo info) {
+        String key = key_prefix + groupId;
+        Entry entry = get(key);
+        if (entry == null || entry.header == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (entry.header.getIntValue("ho") == 0) {
+            JSONArray items = new JSONArray(1);
+            items.add(toItem(info));
+            JSONObject record = record("i", key);
+            record.put("l", items);
+            try {
+                write(record);
+            } catch (IllegalStateException e) {
+                return failed(e);
+            }
+        }
+        TxGroup txGroup = toGroup(entry.header.getString("g"), entry.header);
+        txGroup.setEndTime(0);
+        txGroup.setNowTime(0);
+        txGroup.setState(0);
+        //已关闭时未写入
+        return txGroup.isHasOver() ? CompletableFuture.completedFuture(txGroup) : committed(txGroup);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Integer> notify(String prefix, String groupId, String kid, boolean deleteWhenOver) {
+        String key = prefix + groupId;
+        Entry entry = get(key);
+        if (entry == null || entry.header == null) {
+            return CompletableFuture.completedFuture(-1);
+        }
+        if (!entry.infos.containsKey(kid)) {
+            //未加入的参与方不能提交
+            return CompletableFuture.completedFuture(0);
+        }
+        int state = entry.header.getIntValue("s");
+        try {
+            JSONObject record = record("n", key);
+            record.put("t", kid);
+            write(record);
+            if (deleteWhenOver) {
+                for (TxInfo info : entry.infos.values()) {
+                    if (info.getIsGroup() == 0 && info.getNotify() == 0) {
+                        return committed(state);
+                    }
+                }
+                write(record("d", key));
+            }
+        } catch (IllegalStateException e) {
+            return failed(e);
+        }
+        return committed(state);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Integer> close(String groupId, int state, long endTime) {
+        String key = key_prefix + groupId;
+        Entry entry = get(key);
+        if (entry == null || entry.header == null) {
+            return CompletableFuture.completedFuture(0);
+        }
+        if (entry.header.getIntValue("ho") == 1) {
+            return CompletableFuture.completedFuture(2);
+        }
+        JSONObject record = record("c", key);
+        record.put("s", state);
+        record.put("et", endTime);
+        try {
+            write(record);
+        } catch (IllegalStateException e) {
+            return failed(e);
+        }
+        return committed(1);
+    }
+
+    @Override
+    public synchronized CompletableFuture<?> delete(String prefix, String groupId) {
+        String key = prefix + groupId;
+        if (entries.containsKey(key)) {
+            try {
+                write(record("d", key));
+            } catch (IllegalStateException e) {
+                return failed(e);
+            }
+            return groupCommit.commit();
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public int getQueueSize() {
+        return 0;
+    }
+
+    /**
+     * 日志超过一个分段时,把未过期的事务组写入新分段,删除之前的分段
+     */
+    private synchronized void compact() throws IOException {
+        if (log.getSegmentCount() <= 1) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long segmentId = log.roll();
+        int count = 0;
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Entry> item = iterator.next();
+            Entry entry = item.getValue();
+            if (isExpired(entry, now)) {
+                iterator.remove();
+                continue;
+            }
+            List<JSONObject> records = new ArrayList<>(2);
+            if (!entry.infos.isEmpty()) {
+                JSONArray items = new JSONArray(entry.infos.size());
+                for (TxInfo info : entry.infos.values()) {
+                    items.add(toItem(info));
+                }
+                JSONObject record = record("i", item.getKey());
+                record.put("l", items);
+                record.put("x", entry.expireTime);
+                records.add(record);
+            }
+            if (entry.header != null) {
+                JSONObject record = record("h", item.getKey());
+                record.put("h", entry.header);
+                record.put("x", entry.expireTime);
+                records.add(record);
+            }
+            for (JSONObject record : records) {
+                log.append(record.toJSONString().getBytes(UTF8));
+            }
+            count++;
+        }
+        log.force();
+        log.deleteBefore(segmentId);
+        logger.info("store-compacted->" + count);
+    }
+}
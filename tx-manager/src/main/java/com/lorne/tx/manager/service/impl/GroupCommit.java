@@ -0,0 +1,117 @@
+package com.lorne.tx.manager.service.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * SegmentedLog的组提交: 等待第一个写入,再等待一个窗口合并之后的写入,一次写入磁盘后全部完成.
+ * 写入磁盘由一个线程完成,追加记录的线程不等待磁盘
+ */
+public class GroupCommit {
+
+    private Logger logger = LoggerFactory.getLogger(GroupCommit.class);
+
+    private final SegmentedLog log;
+
+    private final long windowNanos;
+
+    /**
+     * 已追加但尚未写入磁盘的记录,在this上同步
+     */
+    private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+
+    private volatile boolean closed = false;
+
+    private final Thread thread;
+
+
+    /**
+     * @param windowMicros 合并写入的窗口(微秒)
+     */
+    public GroupCommit(SegmentedLog log, int windowMicros, String name) {
+        this.log = log;
+        this.windowNanos = windowMicros * 1000L;
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    try {
+                        sync();
+                    } catch (InterruptedException e) {
+                        break;
+                    } catch (Exception e) {
+                        logger.error("log-sync-error", e);
+                    }
+                }
+                //关闭前追加的记录
+                force();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 之前追加的记录写入磁盘后完成,须在追加记录之后调用
+     */
+    public synchronized CompletableFuture<Void> commit() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        waiting.add(future);
+        if (waiting.size() == 1) {
+            notifyAll();
+        }
+        return future;
+    }
+
+    private void sync() throws InterruptedException {
+        synchronized (this) {
+            while (waiting.isEmpty() && !closed) {
+                wait();
+            }
+        }
+        LockSupport.parkNanos(windowNanos);
+        force();
+    }
+
+    private void force() {
+        List<CompletableFuture<Void>> batch;
+        synchronized (this) {
+            batch = waiting;
+            waiting = new ArrayList<>();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        Throwable error = null;
+        try {
+            log.force();
+        } catch (Exception e) {
+            error = e;
+        }
+        for (CompletableFuture<Void> future : batch) {
+            if (error == null) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * 等待已追加的记录写入磁盘后停止,之后再关闭日志
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        //不等待窗口结束
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+}
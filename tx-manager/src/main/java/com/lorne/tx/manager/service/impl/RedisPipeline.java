@@ -0,0 +1,152 @@
+package com.lorne.tx.manager.service.impl;
+
+import com.lorne.tx.metrics.TxMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * redis命令合并发送,所有线程提交的命令由一个线程按pipeline批量发送.
+ * 上一批命令等待响应期间提交的命令合并为下一批,每批最多redis_pipeline_size个操作
+ */
+@Component
+@ConditionalOnProperty(name = "store.type", havingValue = "redis", matchIfMissing = true)
+public class RedisPipeline {
+
+    /**
+     * 一个操作,可以包含多个redis命令
+     */
+    public interface Operation {
+
+        /**
+         * 在pipeline中写入命令
+         * @return 写入的命令数
+         */
+        int write(RedisConnection connection);
+    }
+
+    @Value("${redis_pipeline_size}")
+    private int redis_pipeline_size;
+
+    @Autowired
+    private RedisTemplate<String, String> redisTemplate;
+
+    private Logger logger = LoggerFactory.getLogger(RedisPipeline.class);
+
+    private static class Task {
+
+        private final Operation operation;
+
+        private final CompletableFuture<List<Object>> future = new CompletableFuture<>();
+
+        private final long startTime = System.nanoTime();
+
+        private int count;
+
+        private Task(Operation operation) {
+            this.operation = operation;
+        }
+    }
+
+    private final LinkedBlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+
+    private volatile boolean closed = false;
+
+    private Thread thread;
+
+
+    @PostConstruct
+    public void start() {
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed || !queue.isEmpty()) {
+                    try {
+                        Task first = queue.poll(100, TimeUnit.MILLISECONDS);
+                        if (first == null) {
+                            continue;
+                        }
+                        List<Task> tasks = new ArrayList<>();
+                        tasks.add(first);
+                        queue.drainTo(tasks, Math.max(redis_pipeline_size, 1) - 1);
+                        execute(tasks);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        }, "tx-redis-pipeline");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * 提交操作,返回该操作中各命令的结果
+     */
+    public CompletableFuture<List<Object>> submit(Operation operation) {
+        Task task = new Task(operation);
+        if (closed) {
+            task.future.completeExceptionally(new IllegalStateException("redis pipeline closed"));
+            return task.future;
+        }
+        queue.add(task);
+        return task.future;
+    }
+
+    /**
+     * 等待发送的操作数
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void execute(final List<Task> tasks) {
+        List<Object> results;
+        try {
+            results = redisTemplate.executePipelined(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) throws DataAccessException {
+                    for (Task task : tasks) {
+                        task.count = task.operation.write(connection);
+                    }
+                    return null;
+                }
+            });
+        } catch (Exception e) {
+            logger.error("redis-pipeline-error->" + tasks.size(), e);
+            for (Task task : tasks) {
+                task.future.completeExceptionally(e);
+            }
+            return;
+        }
+        int index = 0;
+        for (Task task : tasks) {
+            List<Object> res = new ArrayList<>(task.count);
+            for (int i = 0; i < task.count && index < results.size(); i++, index++) {
+                res.add(results.get(index));
+            }
+            TxMetrics.getInstance().recordRedis((System.nanoTime() - task.startTime) / 1000);
+            task.future.complete(res);
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.lorne.tx.manager.service.impl;
+
+import com.alibaba.fastjson.JSONObject;
+import com.lorne.tx.manager.service.TxGroupStore;
+import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * 事务组在redis中的存储结构:
+ * prefix+groupId 为hash,保存事务组的字段(g,ho,w,st,et,nt,s);
+ * prefix+groupId+"_l" 为hash,key:kid value:参与方json(k,m,n,ig).
+ * 加入事务组,修改通知状态,关闭事务组分别由一个lua脚本完成,只修改变化的字段.
+ * 创建方TxManager在本地加入参与方并异步写入,其他TxManager通过JOIN_SCRIPT加入参与方,
+ * 创建方关闭时先由CLOSE_SCRIPT标记关闭再读取参与方合并.
+ * 所有命令通过RedisPipeline合并发送
+ */
+@Component
+@ConditionalOnProperty(name = "store.type", havingValue = "redis", matchIfMissing = true)
+public class RedisTxGroupStore implements TxGroupStore {
+
+    private final static String list_suffix = "_l";
+
+    private final static StringRedisSerializer serializer = new StringRedisSerializer();
+
+    /**
+     * 加入事务组,事务组已结束时不加入. 返回事务组字段 g,ho,w,st,事务组不存在时返回空
+     */
+    private final static byte[] JOIN_SCRIPT = bytes(
+        "local ho = redis.call('hget', KEYS[1], 'ho') " +
+        "if not ho then return {} end " +
+        "if ho == '0' then " +
+        "  redis.call('hset', KEYS[2], ARGV[1], ARGV[2]) " +
+        "  local ttl = redis.call('pttl', KEYS[1]) " +
+        "  if ttl > 0 then redis.call('pexpire', KEYS[2], ttl) end " +
+        "end " +
+        "return redis.call('hmget', KEYS[1], 'g', 'ho', 'w', 'st')");
+
+    /**
+     * 标记参与方已通知,返回事务组状态,事务组不存在时返回-1,参与方不在事务组中时返回0(未提交).
+     * ARGV[2]为1时所有参与方都已通知后删除事务组
+     */
+    private final static byte[] NOTIFY_SCRIPT = bytes(
+        "local s = redis.call('hget', KEYS[1], 's') " +
+        "if not s then return -1 end " +
+        "local info = redis.call('hget', KEYS[2], ARGV[1]) " +
+        "if not info then return 0 end " +
+        "local item = cjson.decode(info) " +
+        "item['n'] = 1 " +
+        "redis.call('hset', KEYS[2], ARGV[1], cjson.encode(item)) " +
+        "if ARGV[2] == '1' then " +
+        "  for _, v in ipairs(redis.call('hvals', KEYS[2])) do " +
+        "    local item = cjson.decode(v) " +
+        "    if item['ig'] == 0 and item['n'] == 0 then return tonumber(s) end " +
+        "  end " +
+        "  redis.call('del', KEYS[1], KEYS[2]) " +
+        "end " +
+        "return tonumber(s)");
+
+    /**
+     * 关闭事务组,事务组不存在时返回0,已被关闭时返回2且不修改.
+     * 关闭后JOIN_SCRIPT不再加入参与方,之后读取的参与方即为完整列表
+     */
+    private final static byte[] CLOSE_SCRIPT = bytes(
+        "local ho = redis.call('hget', KEYS[1], 'ho') " +
+        "if not ho then return 0 end " +
+        "if ho == '1' then return 2 end " +
+        "redis.call('hmset', KEYS[1], 'ho', '1', 's', ARGV[1], 'et', ARGV[2]) " +
+        "return 1");
+
+    @Autowired
+    private RedisPipeline redisPipeline;
+
+    private static String toItem(TxInfo info) {
+        JSONObject item = new JSONObject();
+        item.put("k", info.getKid());
+        item.put("m", info.getModelName());
+        item.put("n", info.getNotify());
+        item.put("ig", info.getIsGroup());
+        return item.toString();
+    }
+
+    private static TxInfo parseItem(String json) {
+        JSONObject item = JSONObject.parseObject(json);
+        TxInfo info = new TxInfo();
+        info.setKid(item.getString("k"));
+        info.setModelName(item.getString("m"));
+        info.setNotify(item.getIntValue("n"));
+        info.setIsGroup(item.getIntValue("ig"));
+        return info;
+    }
+
+    private static byte[] bytes(String value) {
+        return serializer.serialize(value);
+    }
+
+    private static Map<byte[], byte[]> toHeader(TxGroup txGroup) {
+        Map<byte[], byte[]> header = new HashMap<>();
+        header.put(bytes("g"), bytes(txGroup.getGroupId()));
+        header.put(bytes("ho"), bytes(txGroup.isHasOver() ? "1" : "0"));
+        header.put(bytes("w"), bytes(String.valueOf(txGroup.getWaitTime())));
+        header.put(bytes("st"), bytes(String.valueOf(txGroup.getStartTime())));
+        header.put(bytes("et"), bytes(String.valueOf(txGroup.getEndTime())));
+        header.put(bytes("nt"), bytes(String.valueOf(txGroup.getNowTime())));
+        header.put(bytes("s"), bytes(String.valueOf(txGroup.getState())));
+        return header;
+    }
+
+    private static long parseLong(Object value) {
+        return value == null ? 0 : Long.parseLong(value.toString());
+    }
+
+    private static Object get(List<Object> res, int index) {
+        return res != null && res.size() > index ? res.get(index) : null;
+    }
+
+    /**
+     * 写入事务组字段 seconds<=0时不过期
+     */
+    @Override
+    public CompletableFuture<List<Object>> saveHeader(String prefix, TxGroup txGroup, final int seconds) {
+        final byte[] key = bytes(prefix + txGroup.getGroupId());
+        final Map<byte[], byte[]> header = toHeader(txGroup);
+        return redisPipeline.submit(new RedisPipeline.Operation() {
+            @Override
+            public int write(RedisConnection connection) {
+                connection.hMSet(key, header);
+                if (seconds > 0) {
+                    connection.expire(key, seconds);
+                    return 2;
+                }
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * 写入参与方 seconds<=0时不过期
+     */
+    @Override
+    public CompletableFuture<List<Object>> saveInfos(String prefix, String groupId, Collection<TxInfo> infos, final int seconds) {
+        if (infos.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        final byte[] key = bytes(prefix + groupId + list_suffix);
+        final Map<byte[], byte[]> items = new HashMap<>();
+        for (TxInfo info : infos) {
+            items.put(bytes(info.getKid()), bytes(toItem(info)));
+        }
+        return redisPipeline.submit(new RedisPipeline.Operation() {
+            @Override
+            public int write(RedisConnection connection) {
+                connection.hMSet(key, items);
+                if (seconds > 0) {
+                    connection.expire(key, seconds);
+                    return 2;
+                }
+                return 1;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> save(String prefix, TxGroup txGroup, int seconds) {
+        return CompletableFuture.allOf(saveHeader(prefix, txGroup, seconds),
+            saveInfos(prefix, txGroup.getGroupId(), txGroup.getList(), seconds));
+    }
+
+    @Override
+    public CompletableFuture<TxGroup> load(final String prefix, final String groupId) {
+        final byte[] key = bytes(prefix + groupId);
+        final byte[] listKey = bytes(prefix + groupId + list_suffix);
+        return redisPipeline.submit(new RedisPipeline.Operation() {
+            @Override
+            public int write(RedisConnection connection) {
+                connection.hGetAll(key);
+                connection.hVals(listKey);
+                return 2;
+            }
+        }).thenApply(new Function<List<Object>, TxGroup>() {
+            @Override
+            public TxGroup apply(List<Object> res) {
+                Map<?, ?> header = (Map<?, ?>) get(res, 0);
+                if (header == null || header.isEmpty()) {
+                    return null;
+                }
+                TxGroup txGroup = new TxGroup();
+                txGroup.setGroupId(groupId);
+                txGroup.setHasOver("1".equals(header.get("ho")));
+                txGroup.setWaitTime((int) parseLong(header.get("w")));
+                txGroup.setStartTime(parseLong(header.get("st")));
+                txGroup.setEndTime(parseLong(header.get("et")));
+                txGroup.setNowTime(parseLong(header.get("nt")));
+                txGroup.setState((int) parseLong(header.get("s")));
+                List<?> items = (List<?>) get(res, 1);
+                if (items != null) {
+                    for (Object item : items) {
+                        txGroup.getList().add(parseItem(item.toString()));
+                    }
+                }
+                return txGroup;
+            }
+        });
+    }
+
+    /**
+     * 事务组状态,不存在时返回-1
+     */
+    @Override
+    public int getState(String prefix, String groupId) {
+        final byte[] key = bytes(prefix + groupId);
+        Object state = get(redisPipeline.submit(new RedisPipeline.Operation() {
+            @Override
+            public int write(RedisConnection connection) {
+                connection.hGet(key, bytes("s"));
+                return 1;
+            }
+        }).join(), 0);
+        return state == null ? -1 : Integer.parseInt(state.toString());
+    }
+
+    /**
+     * JedisConnection的eval不支持pipeline,以原始命令发送,返回的整数为Long,批量结果为字符串列表
+     */
+    private CompletableFuture<List<Object>> eval(byte[] script, int numKeys, byte[]... keysAndArgs) {
+        final byte[][] args = new byte[keysAndArgs.length + 2][];
+        args[0] = script;
+        args[1] = bytes(String.valueOf(numKeys));
+        System.arraycopy(keysAndArgs, 0, args, 2, keysAndArgs.length);
+        return redisPipeline.submit(new RedisPipeline.Operation() {
+            @Override
+            public int write(RedisConnection connection) {
+                connection.execute("EVAL", args);
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * 加入事务组,返回不含参与方的事务组,事务组不存在时返回null,已关闭时isHasOver为true且未加入
+     */
+    @Override
+    public CompletableFuture<TxGroup> join(String groupId, TxInfo info) {
+        String key = key_prefix + groupId;
+        return eval(JOIN_SCRIPT, 2,
+            bytes(key), bytes(key + list_suffix), bytes(info.getKid()), bytes(toItem(info))).thenApply(new Function<List<Object>, TxGroup>() {
+            @Override
+            public TxGroup apply(List<Object> list) {
+                List<?> res = (List<?>) get(list, 0);
+                if (res == null || res.size() < 4 || res.get(0) == null) {
+                    return null;
+                }
+                TxGroup txGroup = new TxGroup();
+                txGroup.setGroupId(res.get(0).toString());
+                txGroup.setHasOver("1".equals(res.get(1)));
+                txGroup.setWaitTime((int) parseLong(res.get(2)));
+                txGroup.setStartTime(parseLong(res.get(3)));
+                return txGroup;
+            }
+        });
+    }
+
+    private final static Function<List<Object>, Integer> intParser = new Function<List<Object>, Integer>() {
+        @Override
+        public Integer apply(List<Object> list) {
+            Object res = get(list, 0);
+            return res == null ? -1 : ((Number) res).intValue();
+        }
+    };
+
+    /**
+     * 标记参与方已通知,返回事务组状态,不存在时返回-1,参与方不在事务组中时返回0
+     */
+    @Override
+    public CompletableFuture<Integer> notify(String prefix, String groupId, String kid, boolean deleteWhenOver) {
+        String key = prefix + groupId;
+        return eval(NOTIFY_SCRIPT, 2,
+            bytes(key), bytes(key + list_suffix), bytes(kid), bytes(deleteWhenOver ? "1" : "0")).thenApply(intParser);
+    }
+
+    /**
+     * 关闭事务组,返回1表示成功,事务组不存在时返回0,已被关闭时返回2
+     */
+    @Override
+    public CompletableFuture<Integer> close(String groupId, int state, long endTime) {
+        return eval(CLOSE_SCRIPT, 1,
+            bytes(key_prefix + groupId), bytes(String.valueOf(state)), bytes(String.valueOf(endTime))).thenApply(intParser);
+    }
+
+    @Override
+    public CompletableFuture<List<Object>> delete(String prefix, String groupId) {
+        final byte[] key = bytes(prefix + groupId);
+        final byte[] listKey = bytes(prefix + groupId + list_suffix);
+        return redisPipeline.submit(new RedisPipeline.Operation() {
+            @Override
+            public int write(RedisConnection connection) {
+                connection.del(key, listKey);
+                return 1;
+            }
+        });
+    }
+
+    @Override
+    public int getQueueSize() {
+        return redisPipeline.getQueueSize();
+    }
+}
@@ -0,0 +1,215 @@
+package com.lorne.tx.manager.service.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * 内存映射文件上的分段追加日志.
+ * 记录格式: 长度(int)+crc32(int)+内容, 长度为0或校验失败处为分段末尾.
+ * 每个分段为固定大小的文件(序号.log),写满后创建新分段,旧分段由调用方压缩后删除
+ */
+public class SegmentedLog {
+
+    private final static String SUFFIX = ".log";
+
+    private final static int HEADER_SIZE = 8;
+
+    private Logger logger = LoggerFactory.getLogger(SegmentedLog.class);
+
+    private final File dir;
+
+    private final int segmentSize;
+
+    /**
+     * 当前写入的分段
+     */
+    private long segmentId = -1;
+
+    private RandomAccessFile file;
+
+    private volatile MappedByteBuffer buffer;
+
+    private final CRC32 crc = new CRC32();
+
+
+    public SegmentedLog(File dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+    }
+
+    private File segmentFile(long id) {
+        return new File(dir, String.format("%020d", id) + SUFFIX);
+    }
+
+    /**
+     * 按序号排列的已有分段
+     */
+    private List<Long> segmentIds() {
+        List<Long> ids = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.endsWith(SUFFIX)) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        logger.info("ignore-log-file->" + name);
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static MappedByteBuffer map(RandomAccessFile file, int size) throws IOException {
+        return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * 读取分段中的记录,返回最后一条有效记录之后的位置
+     */
+    private int read(MappedByteBuffer buffer, Consumer<byte[]> consumer) {
+        int position = 0;
+        while (position + HEADER_SIZE <= buffer.limit()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_SIZE + length > buffer.limit()) {
+                break;
+            }
+            byte[] data = new byte[length];
+            buffer.position(position + HEADER_SIZE);
+            buffer.get(data);
+            crc.reset();
+            crc.update(data, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                //未写完整的记录
+                logger.info("log-crc-error->" + position);
+                break;
+            }
+            consumer.accept(data);
+            position += HEADER_SIZE + length;
+        }
+        return position;
+    }
+
+    /**
+     * 打开日志,按顺序回放所有分段中的记录,之后的记录追加到最后一个分段
+     */
+    public synchronized void open(Consumer<byte[]> consumer) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can not create " + dir);
+        }
+        List<Long> ids = segmentIds();
+        for (int i = 0; i < ids.size(); i++) {
+            long id = ids.get(i);
+            RandomAccessFile f = new RandomAccessFile(segmentFile(id), "rw");
+            int size = (int) Math.min(f.length(), segmentSize);
+            MappedByteBuffer mapped = map(f, size);
+            int position = read(mapped, consumer);
+            segmentId = id;
+            if (i == ids.size() - 1 && size == segmentSize) {
+                file = f;
+                buffer = mapped;
+                buffer.position(position);
+            } else {
+                f.close();
+            }
+        }
+        if (buffer == null) {
+            roll();
+        }
+        logger.info("log-opened->" + dir + ",segment:" + segmentId + ",position:" + buffer.position());
+    }
+
+    /**
+     * 创建新分段,之后的记录写入新分段
+     *
+     * @return 新分段的序号,小于该序号的分段不再写入
+     */
+    public synchronized long roll() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            file.close();
+        }
+        segmentId++;
+        RandomAccessFile f = new RandomAccessFile(segmentFile(segmentId), "rw");
+        f.setLength(segmentSize);
+        file = f;
+        buffer = map(f, segmentSize);
+        return segmentId;
+    }
+
+    /**
+     * 追加一条记录,当前分段剩余空间不足时写入新分段
+     */
+    public synchronized void append(byte[] data) throws IOException {
+        int size = HEADER_SIZE + data.length;
+        if (size > segmentSize) {
+            throw new IOException("log record too large:" + data.length);
+        }
+        if (buffer.remaining() < size) {
+            roll();
+        }
+        int position = buffer.position();
+        crc.reset();
+        crc.update(data, 0, data.length);
+        buffer.position(position + 4);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(data);
+        if (buffer.remaining() >= 4) {
+            //标记末尾,覆盖之前未写完整的记录
+            buffer.putInt(buffer.position(), 0);
+        }
+        //最后写入长度,长度有效时记录已完整
+        buffer.putInt(position, data.length);
+    }
+
+    /**
+     * 写入磁盘,不阻塞同时进行的追加. 创建新分段时已写入之前分段
+     */
+    public void force() {
+        MappedByteBuffer mapped = buffer;
+        if (mapped != null) {
+            mapped.force();
+        }
+    }
+
+    /**
+     * 删除序号小于id的分段
+     */
+    public synchronized void deleteBefore(long id) {
+        for (long old : segmentIds()) {
+            if (old < id && !segmentFile(old).delete()) {
+                logger.info("log-delete-fail->" + segmentFile(old));
+            }
+        }
+    }
+
+    public synchronized int getSegmentCount() {
+        return segmentIds().size();
+    }
+
+    public synchronized void close() {
+        if (buffer != null) {
+            buffer.force();
+            try {
+                file.close();
+            } catch (IOException e) {
+                logger.error("log-close-error", e);
+            }
+            buffer = null;
+        }
+    }
+}
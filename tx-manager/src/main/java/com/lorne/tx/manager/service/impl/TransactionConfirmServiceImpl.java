@@ -2,26 +2,29 @@ package com.lorne.tx.manager.service.impl;
 
 
 import com.alibaba.fastjson.JSONObject;
-import com.lorne.core.framework.utils.KidUtils;
-import com.lorne.core.framework.utils.task.ConditionUtils;
-import com.lorne.core.framework.utils.task.IBack;
-import com.lorne.core.framework.utils.task.Task;
-import com.lorne.core.framework.utils.thread.CountDownLatchHelper;
-import com.lorne.core.framework.utils.thread.IExecute;
 import com.lorne.tx.manager.service.TransactionConfirmService;
 import com.lorne.tx.manager.service.TxManagerService;
+import com.lorne.tx.metrics.TxMetrics;
 import com.lorne.tx.mq.model.TxGroup;
 import com.lorne.tx.mq.model.TxInfo;
+import com.lorne.tx.socket.NotifyRequests;
 import com.lorne.tx.socket.SocketManager;
 import com.lorne.tx.socket.utils.SocketUtils;
+import com.lorne.tx.socket.utils.WheelTimer;
 import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 
 /**
@@ -33,13 +36,12 @@ public class TransactionConfirmServiceImpl implements TransactionConfirmService
 
     private Logger logger = LoggerFactory.getLogger(TransactionConfirmServiceImpl.class);
 
-    private ScheduledExecutorService executorService  = Executors.newScheduledThreadPool(100);
-
-    private Executor threadPool = Executors.newFixedThreadPool(100);
-
     @Autowired
     private TxManagerService txManagerService;
 
+    @Autowired
+    private DecisionLog decisionLog;
+
     @Override
     public void confirm(TxGroup txGroup) {
       //  logger.info("end:" + txGroup.toJsonString());
@@ -61,7 +63,7 @@ public class TransactionConfirmServiceImpl implements TransactionConfirmService
 
         //事务不满足直接回滚事务
         if (txGroup.getState()==0) {
-            transaction(txGroup, 0);
+            decide(txGroup, 0);
             return;
         }
 //        txGroup.setState(1);
@@ -71,17 +73,16 @@ public class TransactionConfirmServiceImpl implements TransactionConfirmService
 
         if (isOk) {
             if(hasOvertime){
-                transaction(txGroup, -1);
+                decide(txGroup, -1);
             }else{
-                //提交事务
-               boolean hasOk =  transaction(txGroup, 1);
-               txManagerService.dealTxGroup(txGroup,hasOk);
+                //提交事务,全部确认后由回调处理事务组
+                decide(txGroup, 1);
             }
         } else {
             if(hasOvertime){
-                transaction(txGroup, -1);
+                decide(txGroup, -1);
             }else{
-                transaction(txGroup, 0);
+                decide(txGroup, 0);
             }
         }
 
@@ -89,6 +90,35 @@ public class TransactionConfirmServiceImpl implements TransactionConfirmService
     }
 
 
+    @Override
+    public void timeout(TxGroup txGroup) {
+        reloadChannel(txGroup.getList());
+        decide(txGroup, -1);
+    }
+
+
+    /**
+     * 决定写入磁盘后再发送通知,写入失败时回滚
+     *
+     * @param checkSate 1提交 0回滚 -1超时回滚
+     */
+    private void decide(final TxGroup txGroup, final int checkSate) {
+        decisionLog.decide(txGroup, checkSate).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void v, Throwable throwable) {
+                if (throwable != null) {
+                    logger.error("decision-error->" + txGroup.getGroupId(), throwable);
+                }
+                if (checkSate == 1 && throwable == null) {
+                    commit(txGroup);
+                } else {
+                    rollback(txGroup, checkSate == 1 ? 0 : checkSate);
+                }
+            }
+        });
+    }
+
+
     /**
      * 检查事务是否提交
      *
@@ -109,111 +139,109 @@ public class TransactionConfirmServiceImpl implements TransactionConfirmService
     }
 
 
-    private void awaitSend(Task task, TxInfo txInfo,JSONObject jsonObject){
-        while (!task.isAwait()&&!Thread.currentThread().interrupted()){
-            try {
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    /**
+     * 一个参与方的提交通知
+     */
+    private static class Notify {
+
+        private final TxInfo txInfo;
+
+        private final NotifyRequests notifyRequests;
+
+        private final long key;
+
+        private Notify(TxInfo txInfo, NotifyRequests notifyRequests, long key) {
+            this.txInfo = txInfo;
+            this.notifyRequests = notifyRequests;
+            this.key = key;
         }
-        SocketUtils.sendMsg( txInfo.getChannel(),jsonObject.toString());
+    }
+
+    private static JSONObject notifyMsg(TxInfo txInfo, int checkSate, long key) {
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("a", "t");
+        jsonObject.put("c", checkSate);
+        jsonObject.put("t", txInfo.getKid());
+        jsonObject.put("k", key);
+        return jsonObject;
     }
 
     /**
-     * 事务提交或回归
-     *
-     * @param checkSate
+     * 提交事务,发送全部通知后由各确认的回调汇总,全部确认或超时后处理事务组,等待期间不占用线程
      */
-    private boolean transaction(TxGroup txGroup, final int checkSate) {
-        if (checkSate == 1) {
-            CountDownLatchHelper<Boolean> countDownLatchHelper = new CountDownLatchHelper<>();
-            for (final TxInfo txInfo : txGroup.getList()) {
-                if (txInfo.getIsGroup() == 0) {
-                    countDownLatchHelper.addExecute(new IExecute<Boolean>() {
-                        @Override
-                        public Boolean execute() {
-                            final JSONObject jsonObject = new JSONObject();
-                            jsonObject.put("a", "t");
-                            jsonObject.put("c", checkSate);
-                            jsonObject.put("t", txInfo.getKid());
-                            String key = KidUtils.generateShortUuid();
-                            jsonObject.put("k", key);
-                            final Task task = ConditionUtils.getInstance().createTask(key);
-
-                            ScheduledFuture future = executorService.schedule(new Runnable() {
-                                @Override
-                                public void run() {
-                                    task.setBack(new IBack() {
-                                        @Override
-                                        public Object doing(Object... objs) throws Throwable {
-                                            return "-2";
-                                        }
-                                    });
-                                    task.signalTask();
-                                }
-                            }, txManagerService.getDelayTime() * 3, TimeUnit.SECONDS);
-
-                            threadPool.execute(new Runnable() {
-                                @Override
-                                public void run() {
-                                    awaitSend(task, txInfo, jsonObject);
-                                }
-                            });
-                            task.awaitTask();
-
-                            if (!future.isDone()) {
-                                future.cancel(false);
-                            }
-
-
-                            try {
-                                String data = (String) task.getBack().doing();
-                                // 1  成功 0 失败 -1 task为空 -2 超过
-                                boolean res = "1".equals(data);
-
-                                if ("1".equals(data) || "0".equals(data)) {
-                                    txInfo.setNotify(1);
-                                }
-
-                                return res;
-                            } catch (Throwable throwable) {
-                                throwable.printStackTrace();
-                                return false;
-                            } finally {
-                                task.remove();
-                            }
-                        }
-                    });
-                }
+    private void commit(final TxGroup txGroup) {
+        final long startTime = System.nanoTime();
+        final List<Notify> notifies = new ArrayList<>();
+        List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+        for (final TxInfo txInfo : txGroup.getList()) {
+            if (txInfo.getIsGroup() != 0) {
+                continue;
             }
+            Channel channel = txInfo.getChannel();
+            NotifyRequests notifyRequests = NotifyRequests.get(channel);
+            long key = notifyRequests.nextId();
+            //先注册再发送,确认先于等待到达时也不会丢失
+            CompletableFuture<String> future = notifyRequests.register(key);
+            notifies.add(new Notify(txInfo, notifyRequests, key));
+            futures.add(future.thenApply(new Function<String, Boolean>() {
+                @Override
+                public Boolean apply(String data) {
+                    TxMetrics.getInstance().recordAck(data);
+                    // 1  成功 0 失败 -1 task为空 -2 超过
+                    if ("1".equals(data) || "0".equals(data)) {
+                        txInfo.setNotify(1);
+                    }
+                    return "1".equals(data);
+                }
+            }));
+            SocketUtils.sendMsg(channel, notifyMsg(txInfo, 1, key));
+        }
 
-            List<Boolean> hasOks = countDownLatchHelper.execute().getData();
-
-            boolean hasOk = true;
-            for (boolean bl : hasOks) {
-                if (bl == false) {
-                    hasOk = false;
-                    break;
+        //整个事务组一个超时,未确认的通知按超时处理
+        final Timeout timeout = WheelTimer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                for (Notify notify : notifies) {
+                    notify.notifyRequests.complete(notify.key, "-2");
                 }
             }
-            logger.info("--->" + hasOk + ",group:" + txGroup.getGroupId() + ",state:" + checkSate + ",list:" + txGroup.toJsonString());
-            return hasOk;
-        }else{
-            //回滚操作只发送通过不需要等待确认
-            for (TxInfo txInfo : txGroup.getList()) {
-                JSONObject jsonObject = new JSONObject();
-                jsonObject.put("a", "t");
-                jsonObject.put("c", checkSate);
-                jsonObject.put("t", txInfo.getKid());
-                String key = KidUtils.generateShortUuid();
-                jsonObject.put("k", key);
-                SocketUtils.sendMsg( txInfo.getChannel(),jsonObject.toString());
+        }, txManagerService.getDelayTime() * 3, TimeUnit.SECONDS);
+
+        final CompletableFuture[] all = futures.toArray(new CompletableFuture[futures.size()]);
+        CompletableFuture.allOf(all).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void v, Throwable throwable) {
+                timeout.cancel();
+                TxMetrics.getInstance().recordCommit((System.nanoTime() - startTime) / 1000);
+                boolean hasOk = throwable == null;
+                for (CompletableFuture future : all) {
+                    if (!Boolean.TRUE.equals(future.getNow(false))) {
+                        hasOk = false;
+                        break;
+                    }
+                }
+                logger.info("--->" + hasOk + ",group:" + txGroup.getGroupId() + ",state:1,list:" + txGroup.toJsonString());
+                txManagerService.dealTxGroup(txGroup, hasOk);
+                decisionLog.done(txGroup.getGroupId());
             }
-            txManagerService.deleteTxGroup(txGroup);
-            return true;
-        }
+        });
+    }
 
+    /**
+     * 回滚事务,只发送通知不需要等待确认
+     *
+     * @param checkSate
+     */
+    private void rollback(TxGroup txGroup, int checkSate) {
+        for (TxInfo txInfo : txGroup.getList()) {
+            Channel channel = txInfo.getChannel();
+            if (channel == null) {
+                continue;
+            }
+            SocketUtils.sendMsg(channel, notifyMsg(txInfo, checkSate, NotifyRequests.get(channel).nextId()));
+        }
+        txManagerService.deleteTxGroup(txGroup);
+        decisionLog.done(txGroup.getGroupId());
     }
 
 
@@ -0,0 +1,221 @@
+package com.lorne.tx.manager.service.impl;
+
+import com.lorne.tx.manager.service.TxGroupStore;
+import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+
+/**
+ * 本TxManager创建的事务组异步写入TxGroupStore,同一事务组尚未写入的修改合并为一次写入,只写入变化的字段和参与方.
+ * 存储用于TxManager重启后恢复,http查询,以及其他TxManager上的参与方加入事务组
+ */
+@Component
+public class TxGroupWriteBehind {
+
+    @Value("${redis_save_max_time}")
+    private int redis_save_max_time;
+
+    @Value("${redis_write_behind_time}")
+    private int redis_write_behind_time;
+
+    @Autowired
+    private TxGroupStore txGroupStore;
+
+    private Logger logger = LoggerFactory.getLogger(TxGroupWriteBehind.class);
+
+    /**
+     * 事务组待写入的修改
+     */
+    private static class Pending {
+
+        private final TxGroup txGroup;
+
+        private boolean delete;
+
+        private boolean header;
+
+        private final Set<TxInfo> infos = new LinkedHashSet<>();
+
+        private Pending(TxGroup txGroup) {
+            this.txGroup = txGroup;
+        }
+    }
+
+    /**
+     * 待写入的事务组 key:groupId
+     */
+    private final ConcurrentHashMap<String, Pending> pending = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+
+
+    @PostConstruct
+    public void start() {
+        executorService.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, redis_write_behind_time, redis_write_behind_time, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        executorService.shutdown();
+        flush();
+    }
+
+    private Pending get(Pending old, TxGroup txGroup) {
+        return old == null || old.delete ? new Pending(txGroup) : old;
+    }
+
+    /**
+     * 事务组字段有修改
+     */
+    public void save(final TxGroup txGroup) {
+        pending.compute(txGroup.getGroupId(), new BiFunction<String, Pending, Pending>() {
+            @Override
+            public Pending apply(String groupId, Pending old) {
+                Pending p = get(old, txGroup);
+                p.header = true;
+                return p;
+            }
+        });
+    }
+
+    /**
+     * 参与方有修改
+     */
+    public void save(final TxGroup txGroup, final TxInfo info) {
+        pending.compute(txGroup.getGroupId(), new BiFunction<String, Pending, Pending>() {
+            @Override
+            public Pending apply(String groupId, Pending old) {
+                Pending p = get(old, txGroup);
+                p.infos.add(info);
+                return p;
+            }
+        });
+    }
+
+    public void delete(String groupId) {
+        Pending p = new Pending(null);
+        p.delete = true;
+        pending.put(groupId, p);
+    }
+
+    /**
+     * 是否已删除但尚未写入存储
+     */
+    public boolean isDeleting(String groupId) {
+        Pending p = pending.get(groupId);
+        return p != null && p.delete;
+    }
+
+    /**
+     * 事务组字段是否尚未写入存储. 在事务组锁内调用时,返回false则字段已在之前写入或将在之后按当前状态写入
+     */
+    public boolean isHeaderPending(String groupId) {
+        Pending p = pending.get(groupId);
+        return p != null && !p.delete && p.header;
+    }
+
+    /**
+     * 所有事务组的修改通过pipeline一次发送,等待全部写入后再进行下一次写入
+     */
+    private void flush() {
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (String groupId : pending.keySet()) {
+            Pending p = pending.remove(groupId);
+            if (p != null) {
+                futures.add(write(groupId, p));
+            }
+        }
+        if (futures.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+        } catch (Exception e) {
+            //已在write中重试
+        }
+    }
+
+    private CompletableFuture<?> write(final String groupId, final Pending p) {
+        CompletableFuture<?> future;
+        if (p.delete) {
+            future = txGroupStore.delete(TxGroupStore.key_prefix, groupId);
+        } else {
+            //在事务组锁内复制并提交,与关闭事务组时在存储中的关闭保持顺序
+            synchronized (p.txGroup) {
+                List<TxInfo> infos = new ArrayList<>();
+                for (TxInfo info : p.infos) {
+                    TxInfo copy = new TxInfo();
+                    copy.setKid(info.getKid());
+                    copy.setModelName(info.getModelName());
+                    copy.setNotify(info.getNotify());
+                    copy.setIsGroup(info.getIsGroup());
+                    infos.add(copy);
+                }
+                //同一pipeline中按顺序执行,先写入参与方
+                future = txGroupStore.saveInfos(TxGroupStore.key_prefix, groupId, infos, redis_save_max_time);
+                if (p.header) {
+                    TxGroup header = new TxGroup();
+                    header.setGroupId(groupId);
+                    header.setHasOver(p.txGroup.isHasOver());
+                    header.setWaitTime(p.txGroup.getWaitTime());
+                    header.setStartTime(p.txGroup.getStartTime());
+                    header.setEndTime(p.txGroup.getEndTime());
+                    header.setNowTime(p.txGroup.getNowTime());
+                    header.setState(p.txGroup.getState());
+                    future = CompletableFuture.allOf(future,
+                        txGroupStore.saveHeader(TxGroupStore.key_prefix, header, redis_save_max_time));
+                }
+            }
+        }
+        return future.whenComplete(new BiConsumer<Object, Throwable>() {
+            @Override
+            public void accept(Object o, Throwable throwable) {
+                if (throwable != null) {
+                    logger.error("write-behind-error->" + groupId, throwable);
+                    //稍后重试,期间有新的修改时合并
+                    retry(groupId, p);
+                }
+            }
+        });
+    }
+
+    private void retry(String groupId, final Pending failed) {
+        pending.compute(groupId, new BiFunction<String, Pending, Pending>() {
+            @Override
+            public Pending apply(String groupId, Pending old) {
+                if (old == null) {
+                    return failed;
+                }
+                if (old.delete || failed.delete) {
+                    return old;
+                }
+                old.header |= failed.header;
+                old.infos.addAll(failed.infos);
+                return old;
+            }
+        });
+    }
+}
@@ -3,21 +3,33 @@ package com.lorne.tx.manager.service.impl;
 
 import com.lorne.core.framework.utils.KidUtils;
 import com.lorne.tx.manager.service.TransactionConfirmService;
+import com.lorne.tx.manager.service.TxGroupStore;
 import com.lorne.tx.manager.service.TxManagerService;
 import com.lorne.tx.mq.model.TxGroup;
 import com.lorne.tx.mq.model.TxInfo;
+import com.lorne.tx.socket.utils.WheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
 import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.stereotype.Service;
 
-import java.util.concurrent.Executor;
+import javax.annotation.PostConstruct;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Created by lorne on 2017/6/7.
@@ -35,31 +47,52 @@ public class TxManagerServiceImpl implements TxManagerService {
     private int transaction_netty_delay_time;
 
 
-    private final static String key_prefix = "tx_manager_default_";
-
-    private final static String key_prefix_notify = "tx_manager_notify_";
-
     //网络消耗
     private final  static  long dt = 500;
 
+    //参与方先于创建到达时,第一次重新加入的间隔(毫秒),之后每次加倍
+    private final static long join_retry_time = 10;
+
     @Autowired
-    private RedisTemplate<String, String> redisTemplate;
+    private TxGroupStore txGroupStore;
 
-    private Executor threadPool = Executors.newFixedThreadPool(100);
+    /**
+     * 本TxManager上进行中的事务组 key:groupId,修改事务组时锁定该事务组
+     */
+    private final ConcurrentHashMap<String, TxGroup> groups = new ConcurrentHashMap<>();
+
+    /**
+     * 先于创建到达的参与方等待本TxManager创建事务组 key:groupId
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<TxGroup>> waiting = new ConcurrentHashMap<>();
+
+    @Autowired
+    private TxGroupWriteBehind writeBehind;
+
+    private ScheduledExecutorService expireExecutor = Executors.newSingleThreadScheduledExecutor();
 
     @Autowired
     private TransactionConfirmService transactionConfirmService;
 
+    @Autowired
+    private DecisionLog decisionLog;
+
     private Logger logger = LoggerFactory.getLogger(TxManagerServiceImpl.class);
 
 
     @Override
-    public TxGroup createTransactionGroup(String taskId,String modelName) {
-        String groupId = KidUtils.generateShortUuid();
-        TxGroup txGroup = new TxGroup();
-        txGroup.setStartTime(System.currentTimeMillis());
-        txGroup.setGroupId(groupId);
-        txGroup.setWaitTime(transaction_wait_max_time);
+    public TxGroup createTransactionGroup(String groupId, String taskId,String modelName) {
+        return createTransactionGroupAsync(groupId, taskId, modelName).join();
+    }
+
+    @Override
+    public CompletableFuture<TxGroup> createTransactionGroupAsync(String groupId, String taskId, String modelName) {
+        if (StringUtils.isEmpty(groupId)) {
+            groupId = KidUtils.generateShortUuid();
+        } else if (writeBehind.isDeleting(groupId)) {
+            //事务组已结束
+            return CompletableFuture.completedFuture(null);
+        }
 
 //        TxInfo txInfo = new TxInfo();
 //        txInfo.setModelName(modelName);
@@ -67,125 +100,492 @@ public class TxManagerServiceImpl implements TxManagerService {
 //        txInfo.setIsGroup(0);
 //        txGroup.addTransactionInfo(txInfo);
 
-        String key = key_prefix + groupId;
-        ValueOperations<String, String> value = redisTemplate.opsForValue();
-        value.set(key, txGroup.toJsonString(), redis_save_max_time, TimeUnit.SECONDS);
-        return txGroup;
+        final TxGroup txGroup = new TxGroup();
+        txGroup.setStartTime(System.currentTimeMillis());
+        txGroup.setGroupId(groupId);
+        txGroup.setWaitTime(transaction_wait_max_time);
+
+        TxGroup old = groups.putIfAbsent(groupId, txGroup);
+        if (old != null) {
+            return CompletableFuture.completedFuture(old);
+        }
+        CompletableFuture<TxGroup> created = waiting.remove(groupId);
+        if (created != null) {
+            created.complete(txGroup);
+        }
+        //事务组字段异步写入存储,写入后其他TxManager上的参与方才能加入
+        writeBehind.save(txGroup);
+        //超过最大等待时间未关闭的事务组直接回滚
+        WheelTimer.newTimeout(new ExpireTask(txGroup), (transaction_wait_max_time + 1) * 1000L + dt, TimeUnit.MILLISECONDS);
+        return CompletableFuture.completedFuture(txGroup);
+    }
+
+    /**
+     * 是否为事务模块刚生成的事务组id: 时间戳(8位36进制)+节点(6位)+序列(4位),
+     * 时间戳在最大等待时间内时参与方可以先于创建到达,加入时等待创建
+     */
+    private boolean isNewClientGroupId(String groupId) {
+        if (groupId == null || groupId.length() != 18) {
+            return false;
+        }
+        long time;
+        try {
+            time = Long.parseLong(groupId.substring(0, 8), 36);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        long maxTime = transaction_wait_max_time * 1000L + dt;
+        long age = System.currentTimeMillis() - time;
+        return age > -maxTime && age < maxTime;
+    }
+
+    /**
+     * 事务组超时,与getHasOvertime的判断一致.
+     * 事务组已关闭时不处理,否则关闭事务组并通知已加入的模块回滚
+     */
+    private class ExpireTask implements TimerTask {
+
+        private final TxGroup txGroup;
+
+        private ExpireTask(TxGroup txGroup) {
+            this.txGroup = txGroup;
+        }
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            if (groups.get(txGroup.getGroupId()) != txGroup) {
+                return;
+            }
+            CompletableFuture<Boolean> closing = closeLocal(txGroup, 0);
+            if (closing == null) {
+                return;
+            }
+            logger.info("事务组超时->" + txGroup.getGroupId());
+            closing.thenAccept(new Consumer<Boolean>() {
+                @Override
+                public void accept(Boolean closed) {
+                    if (!closed) {
+                        return;
+                    }
+                    try {
+                        transactionConfirmService.timeout(txGroup);
+                    } catch (Exception e) {
+                        logger.error("timeout-error->" + txGroup.getGroupId(), e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 清理超过redis_save_max_time的事务组,与redis的过期时间一致
+     */
+    @PostConstruct
+    public void startExpire() {
+        expireExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                long expireTime = System.currentTimeMillis() - redis_save_max_time * 1000L;
+                for (TxGroup txGroup : groups.values()) {
+                    if (txGroup.getStartTime() < expireTime) {
+                        groups.remove(txGroup.getGroupId(), txGroup);
+                    }
+                }
+            }
+        }, 1, 1, TimeUnit.SECONDS);
     }
 
     @Override
     public TxGroup addTransactionGroup(String groupId, String taskId,int isGroup, String modelName) {
-        long t1 = System.currentTimeMillis();
-        ValueOperations<String, String> value = redisTemplate.opsForValue();
-        String key = key_prefix + groupId;
-        String json = value.get(key);
-        if (StringUtils.isEmpty(json)) {
-            long t2 = System.currentTimeMillis();
-            logger.info("addTransactionGroup-->json is null "+groupId);
-            logger.info("addTransactionGroup-time-1->"+groupId+":"+(t2-t1));
-            return null;
+        return addTransactionGroupAsync(groupId, taskId, isGroup, modelName).join();
+    }
+
+    @Override
+    public CompletableFuture<TxGroup> addTransactionGroupAsync(final String groupId, String taskId, int isGroup, String modelName) {
+        final long t1 = System.currentTimeMillis();
+        final TxInfo txInfo = new TxInfo();
+        txInfo.setModelName(modelName);
+        txInfo.setKid(taskId);
+        txInfo.setIsGroup(isGroup);
+
+        if (writeBehind.isDeleting(groupId)) {
+            logger.info("addTransactionGroup-->txGroup is null "+groupId);
+            return CompletableFuture.completedFuture(null);
         }
-        TxGroup txGroup = TxGroup.parser(json);
-//        long now = System.currentTimeMillis();
-//        double time = (now - txGroup.getStartTime() - dt) / 1000;
-//        logger.info("addTransactionGroup-->time is "+time);
-//        if(time > transaction_wait_max_time){
-//            //事务超时，返回失败
-//            logger.info("addTransactionGroup-->time is out-time");
-//            return null;
-//        }
+        return join(groupId, txInfo, t1 + dt).thenApply(new Function<TxGroup, TxGroup>() {
+            @Override
+            public TxGroup apply(TxGroup txGroup) {
+                if (txGroup != null && txGroup.isHasOver()) {
+                    //事务组已关闭,参与方未加入
+                    logger.info("addTransactionGroup-->txGroup is over "+groupId);
+                    txGroup = null;
+                }
+                long t2 = System.currentTimeMillis();
+                if (txGroup == null) {
+                    logger.info("addTransactionGroup-->txGroup is null "+groupId);
+                    logger.info("addTransactionGroup-time-1->"+groupId+":"+(t2-t1));
+                } else {
+                    logger.info("addTransactionGroup-time-2->"+groupId+":"+(t2-t1));
+                }
+                return txGroup;
+            }
+        });
+    }
 
-        if (txGroup != null) {
-            TxInfo txInfo = new TxInfo();
-            txInfo.setModelName(modelName);
-            txInfo.setKid(taskId);
-            txInfo.setIsGroup(isGroup);
-            txGroup.addTransactionInfo(txInfo);
-            value.set(key, txGroup.toJsonString(), redis_save_max_time, TimeUnit.SECONDS);
-            long t2 = System.currentTimeMillis();
-            logger.info("addTransactionGroup-time-2->"+groupId+":"+(t2-t1));
-            return txGroup;
+    /**
+     * 加入事务组. 本TxManager创建的事务组在本地加入,异步写入存储;
+     * 其他TxManager创建的事务组在存储中加入,关闭时由创建方合并
+     */
+    private CompletableFuture<TxGroup> join(final String groupId, final TxInfo txInfo, final long deadline) {
+        TxGroup localGroup = groups.get(groupId);
+        if (localGroup != null) {
+            return CompletableFuture.completedFuture(addTransactionInfo(localGroup, txInfo) ? localGroup : null);
         }
-//        logger.info("addTransactionGroup-->txGroup is null");
-        return null;
+        JoinTask task = new JoinTask(groupId, txInfo, deadline);
+        task.join();
+        return task.future;
     }
 
-    @Override
-    public  boolean checkTransactionGroup(String groupId, String taskId) {
-        logger.info("checkTransactionGroup->groupId:"+groupId+",taskId:"+taskId);
-        ValueOperations<String, String> value = redisTemplate.opsForValue();
-        String key = key_prefix + groupId;
-        String json = value.get(key);
-        if (StringUtils.isEmpty(json)) {
-            key = key_prefix_notify + groupId;
-            json = value.get(key);
-            if (StringUtils.isEmpty(json)) {
-                return false;
+    /**
+     * 在存储中加入本TxManager上没有的事务组. 事务模块刚生成的事务组id,创建(cg)可能尚未到达或尚未写入存储:
+     * 本TxManager创建该事务组时立即在本地加入,否则在deadline之前以加倍的间隔在存储中重试.
+     * 只有创建方TxManager在本地创建事务组,其他TxManager不会各自创建
+     */
+    private class JoinTask implements TimerTask {
+
+        private final String groupId;
+
+        private final TxInfo txInfo;
+
+        private final long deadline;
+
+        private final CompletableFuture<TxGroup> future = new CompletableFuture<>();
+
+        private long delay = join_retry_time;
+
+        private CompletableFuture<TxGroup> created;
+
+        private JoinTask(String groupId, TxInfo txInfo, long deadline) {
+            this.groupId = groupId;
+            this.txInfo = txInfo;
+            this.deadline = deadline;
+        }
+
+        private void join() {
+            TxGroup localGroup = groups.get(groupId);
+            if (localGroup != null) {
+                complete(addTransactionInfo(localGroup, txInfo) ? localGroup : null);
+                return;
+            }
+            txGroupStore.join(groupId, txInfo).whenComplete(new BiConsumer<TxGroup, Throwable>() {
+                @Override
+                public void accept(TxGroup txGroup, Throwable throwable) {
+                    if (throwable != null) {
+                        stopWaiting();
+                        future.completeExceptionally(throwable);
+                        return;
+                    }
+                    long now = System.currentTimeMillis();
+                    if (txGroup != null || now >= deadline || !isNewClientGroupId(groupId)) {
+                        complete(txGroup);
+                        return;
+                    }
+                    final Timeout timeout = WheelTimer.newTimeout(JoinTask.this, Math.min(delay, deadline - now), TimeUnit.MILLISECONDS);
+                    delay *= 2;
+                    if (created == null) {
+                        created = waitCreated(groupId);
+                    }
+                    created.thenAccept(new Consumer<TxGroup>() {
+                        @Override
+                        public void accept(TxGroup txGroup) {
+                            //本地创建时不等待下一次重试
+                            if (timeout.cancel()) {
+                                join();
+                            }
+                        }
+                    });
+                }
+            });
+        }
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            join();
+        }
+
+        private void complete(TxGroup txGroup) {
+            stopWaiting();
+            future.complete(txGroup);
+        }
+
+        private void stopWaiting() {
+            if (created != null) {
+                waiting.remove(groupId, created);
             }
         }
-        TxGroup txGroup = TxGroup.parser(json);
-        boolean res = txGroup.getState() == 1;
+    }
 
-        for (TxInfo info : txGroup.getList()) {
-            if (info.getKid().equals(taskId)) {
-                info.setNotify(1);
+    /**
+     * 等待本TxManager创建事务组
+     */
+    private CompletableFuture<TxGroup> waitCreated(String groupId) {
+        CompletableFuture<TxGroup> created = waiting.computeIfAbsent(groupId, new Function<String, CompletableFuture<TxGroup>>() {
+            @Override
+            public CompletableFuture<TxGroup> apply(String groupId) {
+                return new CompletableFuture<>();
             }
+        });
+        //在加入等待前已创建
+        TxGroup txGroup = groups.get(groupId);
+        if (txGroup != null) {
+            waiting.remove(groupId, created);
+            created.complete(txGroup);
         }
+        return created;
+    }
 
-        boolean isOver = true;
-        for (TxInfo info : txGroup.getList()) {
-            if (info.getIsGroup()==0&&info.getNotify() == 0) {
-                isOver = false;
-                break;
+    /**
+     * 加入本地事务组,事务组已关闭时返回false
+     */
+    private boolean addTransactionInfo(TxGroup txGroup, TxInfo txInfo) {
+        synchronized (txGroup) {
+            if (txGroup.isHasOver()) {
+                return false;
             }
+            txGroup.addTransactionInfo(txInfo);
         }
-        if (isOver) {
-            if(key.startsWith(key_prefix_notify)) {
-                redisTemplate.delete(key);
-            } else {
-                value.set(key, txGroup.toJsonString());
+        writeBehind.save(txGroup, txInfo);
+        return true;
+    }
+
+    @Override
+    public  boolean checkTransactionGroup(String groupId, String taskId) {
+        return checkTransactionGroupAsync(groupId, taskId).join();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> checkTransactionGroupAsync(final String groupId, final String taskId) {
+        logger.info("checkTransactionGroup->groupId:"+groupId+",taskId:"+taskId);
+        TxGroup localGroup = groups.get(groupId);
+        if (localGroup != null) {
+            boolean res = false;
+            synchronized (localGroup) {
+                for (TxInfo info : localGroup.getList()) {
+                    if (info.getKid().equals(taskId)) {
+                        //未加入的参与方不能提交
+                        res = localGroup.getState() == 1;
+                        info.setNotify(1);
+                        writeBehind.save(localGroup, info);
+                    }
+                }
             }
+            logger.info("end-checkTransactionGroup->groupId:"+groupId+",taskId:"+taskId+",res:"+res);
+            return CompletableFuture.completedFuture(res);
         }
-        logger.info("end-checkTransactionGroup->groupId:"+groupId+",taskId:"+taskId+",res:"+res);
-        return res;
+        int recovering = decisionLog.check(groupId, taskId);
+        if (recovering != -1) {
+            //重启前的决定尚未写入补偿存储
+            logger.info("end-checkTransactionGroup->groupId:"+groupId+",taskId:"+taskId+",res:"+(recovering == 1));
+            return CompletableFuture.completedFuture(recovering == 1);
+        }
+        CompletableFuture<Integer> future = writeBehind.isDeleting(groupId) ? CompletableFuture.completedFuture(-1)
+            : txGroupStore.notify(TxGroupStore.key_prefix, groupId, taskId, false);
+        return future.thenCompose(new Function<Integer, CompletionStage<Integer>>() {
+            @Override
+            public CompletionStage<Integer> apply(Integer state) {
+                if (state == -1) {
+                    //补偿中的事务组,全部通知后删除
+                    return txGroupStore.notify(TxGroupStore.key_prefix_notify, groupId, taskId, true);
+                }
+                return CompletableFuture.completedFuture(state);
+            }
+        }).thenApply(new Function<Integer, Boolean>() {
+            @Override
+            public Boolean apply(Integer state) {
+                boolean res = state == 1;
+                logger.info("end-checkTransactionGroup->groupId:"+groupId+",taskId:"+taskId+",res:"+res);
+                return res;
+            }
+        });
     }
 
 
     @Override
     public boolean checkTransactionGroupState(String groupId) {
-        ValueOperations<String, String> value = redisTemplate.opsForValue();
-        String key = key_prefix + groupId;
-        String json = value.get(key);
-        if (StringUtils.isEmpty(json)) {
-            key = key_prefix_notify + groupId;
-            json = value.get(key);
-            if (StringUtils.isEmpty(json)) {
-                return false;
-            }
+        TxGroup localGroup = groups.get(groupId);
+        if (localGroup != null) {
+            return localGroup.getState() == 1;
         }
-        TxGroup txGroup = TxGroup.parser(json);
-        return txGroup.getState() == 1;
+        int state = txGroupStore.getState(TxGroupStore.key_prefix, groupId);
+        if (state == -1) {
+            state = txGroupStore.getState(TxGroupStore.key_prefix_notify, groupId);
+        }
+        return state == 1;
     }
 
     @Override
     public boolean closeTransactionGroup(String groupId,int state) {
-        ValueOperations<String, String> value = redisTemplate.opsForValue();
-        String key = key_prefix + groupId;
-        String json = value.get(key);
-        if (StringUtils.isEmpty(json)) {
-            return false;
+        return closeTransactionGroupAsync(groupId, state).join();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> closeTransactionGroupAsync(final String groupId, int state) {
+        final TxGroup localGroup = groups.get(groupId);
+        if (localGroup != null) {
+            CompletableFuture<Boolean> closing = closeLocal(localGroup, state);
+            if (closing == null) {
+                //已超时回滚
+                return CompletableFuture.completedFuture(false);
+            }
+            return closing.thenApply(new Function<Boolean, Boolean>() {
+                @Override
+                public Boolean apply(Boolean closed) {
+                    if (closed) {
+                        confirm(localGroup);
+                    }
+                    return closed;
+                }
+            });
         }
-        final TxGroup txGroup = TxGroup.parser(json);
-        txGroup.hasOvered();
-        txGroup.setState(state);
-        txGroup.setEndTime(System.currentTimeMillis());
-        threadPool.execute(new Runnable() {
+        if (writeBehind.isDeleting(groupId)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        //其他TxManager创建的事务组,在redis中关闭后读取参与方
+        return txGroupStore.close(groupId, state, System.currentTimeMillis()).thenCompose(new Function<Integer, CompletionStage<TxGroup>>() {
             @Override
-            public void run() {
-                transactionConfirmService.confirm(txGroup);
+            public CompletionStage<TxGroup> apply(Integer res) {
+                if (res != 1) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return txGroupStore.load(TxGroupStore.key_prefix, groupId);
+            }
+        }).thenApply(new Function<TxGroup, Boolean>() {
+            @Override
+            public Boolean apply(TxGroup txGroup) {
+                if (txGroup == null) {
+                    return false;
+                }
+                confirm(txGroup);
+                return true;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> closeTransactionGroupAsync(final String groupId, final int state, List<TxInfo> infos) {
+        if (infos == null || infos.isEmpty()) {
+            return closeTransactionGroupAsync(groupId, state);
+        }
+        final CompletableFuture[] futures = new CompletableFuture[infos.size()];
+        for (int i = 0; i < futures.length; i++) {
+            TxInfo info = infos.get(i);
+            futures[i] = addTransactionGroupAsync(groupId, info.getKid(), info.getIsGroup(), info.getModelName()).exceptionally(new Function<Throwable, TxGroup>() {
+                @Override
+                public TxGroup apply(Throwable throwable) {
+                    logger.error("addTransactionGroup-error->" + groupId, throwable);
+                    return null;
+                }
+            });
+        }
+        return CompletableFuture.allOf(futures).thenCompose(new Function<Void, CompletionStage<Boolean>>() {
+            @Override
+            public CompletionStage<Boolean> apply(Void v) {
+                int res = state;
+                for (CompletableFuture future : futures) {
+                    if (future.getNow(null) == null) {
+                        //参与方未加入事务组,无法通知提交
+                        logger.info("closeTransactionGroup-participant-fail->" + groupId);
+                        res = 0;
+                    }
+                }
+                return closeTransactionGroupAsync(groupId, res);
+            }
+        });
+    }
+
+    /**
+     * 关闭本地事务组,事务组已关闭时返回null.
+     * 事务组字段尚未写入存储时其他TxManager上的参与方无法加入,直接在本地关闭,关闭状态随事务组字段异步写入;
+     * 否则在存储中关闭并合并经其他TxManager加入的参与方,已被其他TxManager关闭时由关闭方通知,删除本地事务组并返回false;
+     * 存储访问失败时无法确定完整的参与方,改为回滚
+     */
+    private CompletableFuture<Boolean> closeLocal(final TxGroup localGroup, int state) {
+        final String groupId = localGroup.getGroupId();
+        CompletableFuture<Integer> closing;
+        synchronized (localGroup) {
+            if (localGroup.isHasOver()) {
+                return null;
+            }
+            localGroup.hasOvered();
+            localGroup.setState(state);
+            localGroup.setEndTime(System.currentTimeMillis());
+            if (writeBehind.isHeaderPending(groupId)) {
+                return CompletableFuture.completedFuture(true);
+            }
+            //在锁内提交,与异步写入的事务组字段保持顺序
+            closing = txGroupStore.close(groupId, state, localGroup.getEndTime());
+        }
+        return closing.thenCompose(new Function<Integer, CompletionStage<Boolean>>() {
+            @Override
+            public CompletionStage<Boolean> apply(Integer res) {
+                if (res == 2) {
+                    logger.info("closeTransactionGroup-closed-by-other->" + groupId);
+                    groups.remove(groupId, localGroup);
+                    return CompletableFuture.completedFuture(false);
+                }
+                if (res == 0) {
+                    //存储中的事务组已过期或尚未写入,以本地参与方为准
+                    return CompletableFuture.completedFuture(true);
+                }
+                return txGroupStore.load(TxGroupStore.key_prefix, groupId).thenApply(new Function<TxGroup, Boolean>() {
+                    @Override
+                    public Boolean apply(TxGroup stored) {
+                        if (stored != null) {
+                            merge(localGroup, stored.getList());
+                        }
+                        return true;
+                    }
+                });
+            }
+        }).exceptionally(new Function<Throwable, Boolean>() {
+            @Override
+            public Boolean apply(Throwable throwable) {
+                logger.error("closeTransactionGroup-store-error->" + groupId, throwable);
+                synchronized (localGroup) {
+                    localGroup.setState(0);
+                }
+                return true;
             }
         });
-        return true;
+    }
+
+    /**
+     * 按kid合并参与方,本地已有的参与方不重复加入
+     */
+    private static void merge(TxGroup txGroup, List<TxInfo> infos) {
+        synchronized (txGroup) {
+            Set<String> kids = new HashSet<>();
+            for (TxInfo info : txGroup.getList()) {
+                kids.add(info.getKid());
+            }
+            for (TxInfo info : infos) {
+                if (kids.add(info.getKid())) {
+                    //事务组已关闭,直接加入列表
+                    txGroup.getList().add(info);
+                }
+            }
+        }
+    }
+
+    /**
+     * 发送通知后立即返回,确认由回调处理
+     */
+    private void confirm(TxGroup txGroup) {
+        try {
+            transactionConfirmService.confirm(txGroup);
+        } catch (Exception e) {
+            logger.error("confirm-error->" + txGroup.getGroupId(), e);
+        }
     }
 
 
@@ -224,25 +624,26 @@ public class TxManagerServiceImpl implements TxManagerService {
 
     @Override
     public void dealTxGroup(TxGroup txGroup, boolean hasOk) {
-        String key = key_prefix + txGroup.getGroupId();
+        groups.remove(txGroup.getGroupId(), txGroup);
         if (!hasOk) {
             //未通知成功
 
             if (txGroup.getState() == 1) {
-                ValueOperations<String, String> value = redisTemplate.opsForValue();
-                String newKey = key_prefix_notify + txGroup.getGroupId();
-                value.set(newKey, txGroup.toJsonString());
+                //dealTxGroup在通知确认的回调中执行,不等待写入完成
+                synchronized (txGroup) {
+                    txGroupStore.save(TxGroupStore.key_prefix_notify, txGroup, 0);
+                }
             }
 
         }
-        redisTemplate.delete(key);
+        writeBehind.delete(txGroup.getGroupId());
     }
 
 
     @Override
     public void deleteTxGroup(TxGroup txGroup) {
-        String key = key_prefix + txGroup.getGroupId();
-        redisTemplate.delete(key);
+        groups.remove(txGroup.getGroupId(), txGroup);
+        writeBehind.delete(txGroup.getGroupId());
     }
 
     @Override
@@ -256,4 +657,9 @@ public class TxManagerServiceImpl implements TxManagerService {
     public int getDelayTime() {
         return transaction_netty_delay_time;
     }
+
+    @Override
+    public int getGroupCount() {
+        return groups.size();
+    }
 }
@@ -0,0 +1,113 @@
+package com.lorne.tx.metrics;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 本TxManager的负载: 请求速率,请求处理延迟,io线程与请求线程池的排队任务数.
+ * 由/tx/manager/state返回,各TxManager据此选择负载最低的服务
+ */
+public class LoadMonitor {
+
+    private final static LoadMonitor monitor = new LoadMonitor();
+
+    /**
+     * 已处理的请求数
+     */
+    private final AtomicLong actions = new AtomicLong();
+
+    /**
+     * 请求处理延迟(微秒)
+     */
+    private final LatencyHistogram latency = new LatencyHistogram(10 * 1000);
+
+    private volatile EventLoopGroup eventLoopGroup;
+
+    private volatile ThreadPoolExecutor executor;
+
+    private long lastActions = 0;
+
+    private long lastTime = System.currentTimeMillis();
+
+    private double actionRate = 0;
+
+
+    public static LoadMonitor getInstance() {
+        return monitor;
+    }
+
+    private LoadMonitor() {
+    }
+
+    public void setEventLoopGroup(EventLoopGroup eventLoopGroup) {
+        this.eventLoopGroup = eventLoopGroup;
+    }
+
+    public void setExecutor(ThreadPoolExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 记录一次请求的处理时间
+     */
+    public void record(long micros) {
+        actions.incrementAndGet();
+        latency.record(micros);
+    }
+
+    /**
+     * 每秒请求数,距上次计算不足1秒时返回上次的结果
+     */
+    public synchronized double getActionRate() {
+        long now = System.currentTimeMillis();
+        if (now - lastTime >= 1000) {
+            long count = actions.get();
+            actionRate = (count - lastActions) * 1000.0 / (now - lastTime);
+            lastActions = count;
+            lastTime = now;
+        }
+        return actionRate;
+    }
+
+    /**
+     * 请求处理延迟p99(微秒),样本不足时返回0
+     */
+    public long getP99Latency() {
+        return Math.max(latency.percentile(0.99, 100), 0);
+    }
+
+    /**
+     * io线程与请求线程池中排队的任务数
+     */
+    public int getQueueDepth() {
+        return getEventLoopQueueDepth() + getRequestQueueDepth();
+    }
+
+    /**
+     * io线程中排队的任务数
+     */
+    public int getEventLoopQueueDepth() {
+        int depth = 0;
+        EventLoopGroup group = eventLoopGroup;
+        if (group != null) {
+            for (EventExecutor eventExecutor : group) {
+                if (eventExecutor instanceof SingleThreadEventExecutor) {
+                    depth += ((SingleThreadEventExecutor) eventExecutor).pendingTasks();
+                }
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * 请求线程池中排队的任务数
+     */
+    public int getRequestQueueDepth() {
+        ThreadPoolExecutor pool = executor;
+        return pool == null ? 0 : pool.getQueue().size();
+    }
+}
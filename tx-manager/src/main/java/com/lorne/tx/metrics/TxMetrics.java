@@ -0,0 +1,168 @@
+package com.lorne.tx.metrics;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TxManager内部指标: 各请求的处理延迟,redis操作延迟,提交通知耗时与确认结果,拒绝创建的事务组数.
+ * 由/tx/manager/metrics以prometheus文本格式输出
+ */
+public class TxMetrics {
+
+    private final static TxMetrics metrics = new TxMetrics();
+
+    /**
+     * 输出的直方图桶: LatencyHistogram中上界在64us ~ 20s之间的桶,更小的计入第一个桶,更大的计入+Inf
+     */
+    private final static int[] BUCKETS;
+
+    private final static String[] LABELS;
+
+    static {
+        List<Integer> buckets = new ArrayList<>();
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long bound = LatencyHistogram.upperBound(i);
+            if (bound > 64 && bound <= 20 * 1000 * 1000) {
+                buckets.add(i);
+            }
+        }
+        BUCKETS = new int[buckets.size()];
+        LABELS = new String[buckets.size()];
+        for (int i = 0; i < BUCKETS.length; i++) {
+            BUCKETS[i] = buckets.get(i);
+            LABELS[i] = BigDecimal.valueOf(LatencyHistogram.upperBound(BUCKETS[i]), 6).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    /**
+     * 各请求的处理延迟 key:action
+     */
+    private final ConcurrentHashMap<String, LatencyHistogram> actions = new ConcurrentHashMap<>();
+
+    private final LatencyHistogram redis = LatencyHistogram.cumulative();
+
+    /**
+     * 提交通知发出到全部确认或超时的时间
+     */
+    private final LatencyHistogram commit = LatencyHistogram.cumulative();
+
+    /**
+     * 提交通知的确认结果 key:ok/fail/missing/timeout/closed
+     */
+    private final ConcurrentHashMap<String, LongAdder> acks = new ConcurrentHashMap<>();
+
+    private final LongAdder rejected = new LongAdder();
+
+
+    public static TxMetrics getInstance() {
+        return metrics;
+    }
+
+    private TxMetrics() {
+    }
+
+    private static <T> T get(ConcurrentHashMap<String, T> map, String key, T value) {
+        T old = map.putIfAbsent(key, value);
+        return old == null ? value : old;
+    }
+
+    public void recordAction(String action, long micros) {
+        LatencyHistogram histogram = actions.get(action);
+        if (histogram == null) {
+            histogram = get(actions, action, LatencyHistogram.cumulative());
+        }
+        histogram.record(micros);
+    }
+
+    public void recordRedis(long micros) {
+        redis.record(micros);
+    }
+
+    public void recordCommit(long micros) {
+        commit.record(micros);
+    }
+
+    /**
+     * @param data 事务模块返回的确认 1成功 0失败 -2超时 空:连接断开 其他:事务单元不存在
+     */
+    public void recordAck(String data) {
+        String result;
+        if ("1".equals(data)) {
+            result = "ok";
+        } else if ("0".equals(data)) {
+            result = "fail";
+        } else if ("-2".equals(data)) {
+            result = "timeout";
+        } else if (data == null) {
+            result = "closed";
+        } else {
+            result = "missing";
+        }
+        LongAdder adder = acks.get(result);
+        if (adder == null) {
+            adder = get(acks, result, new LongAdder());
+        }
+        adder.increment();
+    }
+
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    private static void type(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    public static void gauge(StringBuilder out, String name, String help, double value) {
+        type(out, name, "gauge", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * 以prometheus histogram格式输出(秒).
+     * 延迟按微秒向下取整,等于桶上界的值实际不小于上界,计入下一个桶
+     * @param labels 其他标签,如 action="cg", 没有时为空
+     */
+    static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels == null || labels.isEmpty() ? "" : labels + ",";
+        long[] counts = histogram.getCounts();
+        long cumulative = 0;
+        int index = 0;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            while (index <= BUCKETS[i]) {
+                cumulative += counts[index++];
+            }
+            out.append(name).append("_bucket{").append(prefix).append("le=\"").append(LABELS[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        while (index < counts.length) {
+            cumulative += counts[index++];
+        }
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String suffix = prefix.isEmpty() ? " " : "{" + labels + "} ";
+        out.append(name).append("_sum").append(suffix).append(histogram.getSum() / 1000000.0).append('\n');
+        out.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+    }
+
+    public void write(StringBuilder out) {
+        type(out, "tx_manager_action_seconds", "histogram", "Time from receiving a request to its response, by action.");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(actions).entrySet()) {
+            histogram(out, "tx_manager_action_seconds", "action=\"" + entry.getKey() + "\"", entry.getValue());
+        }
+        type(out, "tx_manager_redis_seconds", "histogram", "Time from submitting a redis operation to its pipelined result.");
+        histogram(out, "tx_manager_redis_seconds", null, redis);
+        type(out, "tx_manager_commit_seconds", "histogram", "Time from sending commit notifications to all acks or timeout.");
+        histogram(out, "tx_manager_commit_seconds", null, commit);
+        type(out, "tx_manager_commit_acks_total", "counter", "Commit notification acks by result.");
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(acks).entrySet()) {
+            out.append("tx_manager_commit_acks_total{result=\"").append(entry.getKey()).append("\"} ").append(entry.getValue().sum()).append('\n');
+        }
+        type(out, "tx_manager_rejected_groups_total", "counter", "Group creations rejected by admission control.");
+        out.append("tx_manager_rejected_groups_total ").append(rejected.sum()).append('\n');
+    }
+}
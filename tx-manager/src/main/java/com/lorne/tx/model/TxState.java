@@ -53,6 +53,26 @@ public class TxState {
      */
     private List<String> slbList;
 
+    /**
+     * open transaction groups
+     */
+    private int openGroups;
+
+    /**
+     * actions per second
+     */
+    private double actionRate;
+
+    /**
+     * p99 action latency (micros)
+     */
+    private long p99Latency;
+
+    /**
+     * pending tasks of io threads and request pool
+     */
+    private int queueDepth;
+
 
     public String getIp() {
         return ip;
@@ -118,6 +138,38 @@ public class TxState {
         this.transactionNettyHeartTime = transactionNettyHeartTime;
     }
 
+    public int getOpenGroups() {
+        return openGroups;
+    }
+
+    public void setOpenGroups(int openGroups) {
+        this.openGroups = openGroups;
+    }
+
+    public double getActionRate() {
+        return actionRate;
+    }
+
+    public void setActionRate(double actionRate) {
+        this.actionRate = actionRate;
+    }
+
+    public long getP99Latency() {
+        return p99Latency;
+    }
+
+    public void setP99Latency(long p99Latency) {
+        this.p99Latency = p99Latency;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public void setQueueDepth(int queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
     public int getTransactionNettyDelayTime() {
         return transactionNettyDelayTime;
     }
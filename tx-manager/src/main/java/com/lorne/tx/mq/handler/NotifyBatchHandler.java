@@ -0,0 +1,105 @@
+package com.lorne.tx.mq.handler;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 事务通知(a:t)合并发送,TxManager的通知与事务模块的确认共用.
+ * 同一时刻写入的通知在io线程执行完已提交的任务后合并为一个批量帧(a:mt),
+ * 只在双方协商的协议版本支持批量通知时合并. 每个连接一个实例,只在io线程中执行.
+ * 与另一模块(lorne-tx-core/tx-manager)中的同名类相同,两个模块没有共同依赖,修改时需同时修改(由两个模块中的WireFormatTest检查)
+ */
+public class NotifyBatchHandler extends ChannelOutboundHandlerAdapter {
+
+    /**
+     * 单个批量帧的最大通知数
+     */
+    private final static int max_size = 256;
+
+    private final List<JSONObject> items = new ArrayList<>();
+
+    private final List<ChannelPromise> promises = new ArrayList<>();
+
+    private boolean scheduled = false;
+
+
+    @Override
+    public void write(final ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof JSONObject)
+            || !"t".equals(((JSONObject) msg).getString("a"))
+            || MessageProtocol.getVersion(ctx.channel()) < MessageProtocol.VERSION_BATCH_NOTIFY) {
+            ctx.write(msg, promise);
+            return;
+        }
+        items.add((JSONObject) msg);
+        promises.add(promise);
+        if (items.size() >= max_size) {
+            writeBatch(ctx);
+        } else if (!scheduled) {
+            scheduled = true;
+            //排在已提交的写任务之后执行,同一时刻的通知合并发送
+            ctx.executor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    scheduled = false;
+                    writeBatch(ctx);
+                    ctx.flush();
+                }
+            });
+        }
+    }
+
+    private void writeBatch(ChannelHandlerContext ctx) {
+        if (items.isEmpty()) {
+            return;
+        }
+        if (items.size() == 1) {
+            ctx.write(items.get(0), promises.get(0));
+        } else {
+            JSONArray array = new JSONArray(items.size());
+            for (JSONObject item : items) {
+                JSONObject copy = new JSONObject(item);
+                copy.remove("a");
+                array.add(copy);
+            }
+            JSONObject msg = new JSONObject();
+            msg.put("a", "mt");
+            msg.put("p", array);
+
+            final List<ChannelPromise> batchPromises = new ArrayList<>(promises);
+            ctx.write(msg).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    for (ChannelPromise promise : batchPromises) {
+                        if (future.isSuccess()) {
+                            promise.trySuccess();
+                        } else {
+                            promise.tryFailure(future.cause());
+                        }
+                    }
+                }
+            });
+        }
+        items.clear();
+        promises.clear();
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception {
+        for (ChannelPromise p : promises) {
+            p.tryFailure(new ClosedChannelException());
+        }
+        items.clear();
+        promises.clear();
+        ctx.close(promise);
+    }
+}
@@ -4,15 +4,17 @@ package com.lorne.tx.mq.handler;
  * Created by lorne on 2017/6/29.
  */
 
+import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.lorne.core.framework.utils.DateUtil;
-import com.lorne.core.framework.utils.task.ConditionUtils;
-import com.lorne.core.framework.utils.task.IBack;
-import com.lorne.core.framework.utils.task.Task;
 import com.lorne.tx.manager.service.TxManagerService;
+import com.lorne.tx.metrics.LoadMonitor;
+import com.lorne.tx.metrics.TxMetrics;
 import com.lorne.tx.model.NotifyMsg;
 import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
 import com.lorne.tx.mq.service.MQTxManagerService;
+import com.lorne.tx.socket.NotifyRequests;
 import com.lorne.tx.socket.SocketManager;
 import com.lorne.tx.socket.utils.SocketUtils;
 import io.netty.channel.ChannelHandler;
@@ -24,9 +26,18 @@ import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * Handles a server-side channel.
@@ -43,64 +54,326 @@ public class TxCoreServerHandler extends ChannelInboundHandlerAdapter { // (1)
 
     private final static int max_size = 100;
 
-    private Executor  threadPool = Executors.newFixedThreadPool(max_size);
+    /**
+     * 队列已满时由rejected返回繁忙,不在io线程中执行
+     */
+    private final ThreadPoolExecutor threadPool;
 
+    /**
+     * 异步模式下请求直接在io线程中处理,redis操作完成后在回调中返回响应,不占用线程池
+     */
+    private final boolean async;
 
-    public TxCoreServerHandler(MQTxManagerService txManagerService) {
+    /**
+     * 准入控制: 进行中的事务组达到maxGroups或处理中的请求达到maxActions时,
+     * 创建事务组(cg)立即返回繁忙,事务模块retryTime毫秒内不再向本TxManager创建事务组.
+     * 已有事务组的请求不受该限制,以便尽快完成事务组释放资源,只在线程池队列已满时返回繁忙
+     */
+    private final int maxGroups;
+
+    private final int maxActions;
+
+    private final int retryTime;
+
+    /**
+     * 处理中(等待redis或通知)的请求数
+     */
+    private final AtomicInteger actions = new AtomicInteger();
+
+    private final BiConsumer<Object, Throwable> actionDone = new BiConsumer<Object, Throwable>() {
+        @Override
+        public void accept(Object o, Throwable throwable) {
+            actions.decrementAndGet();
+        }
+    };
+
+
+    public TxCoreServerHandler(MQTxManagerService txManagerService, boolean async, int maxGroups, int maxActions, int retryTime) {
         this.txManagerService = txManagerService;
+        this.async = async;
+        this.maxGroups = maxGroups;
+        this.maxActions = maxActions;
+        this.retryTime = retryTime;
+        this.threadPool = new ThreadPoolExecutor(max_size, max_size, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(Math.max(maxActions, 1)), rejected);
+        LoadMonitor.getInstance().setExecutor(threadPool);
+    }
+
+    /**
+     * 记录请求从收到到返回的时间
+     */
+    private static void record(String action, long startTime) {
+        long micros = (System.nanoTime() - startTime) / 1000;
+        LoadMonitor.getInstance().record(micros);
+        TxMetrics.getInstance().recordAction(action, micros);
+    }
+
+    /**
+     * 是否可以创建新的事务组
+     */
+    private boolean admit() {
+        return txManagerService.getGroupCount() < maxGroups
+            && actions.get() + threadPool.getQueue().size() < maxActions;
+    }
+
+    /**
+     * 繁忙响应 {"k":key,"d":"","e":"busy","r":建议等待毫秒数}
+     */
+    private void busy(ChannelHandlerContext ctx, Object key) {
+        logger.info("TxManager繁忙,拒绝请求->" + key);
+        TxMetrics.getInstance().recordRejected();
+        JSONObject resObj = new JSONObject();
+        resObj.put("k", key);
+        resObj.put("d", "");
+        resObj.put("e", "busy");
+        resObj.put("r", retryTime);
+        SocketUtils.sendMsg(ctx, resObj);
     }
 
+    /**
+     * 线程池中处理的请求
+     */
+    private class ServiceTask implements Runnable {
+
+        private final JSONObject jsonObject;
+
+        private final ChannelHandlerContext ctx;
+
+        private final long startTime;
+
+        private ServiceTask(JSONObject jsonObject, ChannelHandlerContext ctx, long startTime) {
+            this.jsonObject = jsonObject;
+            this.ctx = ctx;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public void run() {
+            service(jsonObject, ctx, startTime);
+        }
+    }
+
+    /**
+     * 线程池队列已满时在io线程中直接返回,不执行请求.
+     * 批量请求的每个请求返回空结果,其他请求返回繁忙,事务模块按失败处理
+     */
+    private final RejectedExecutionHandler rejected = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            ServiceTask task = (ServiceTask) r;
+            if (!"b".equals(task.jsonObject.getString("a"))) {
+                busy(task.ctx, task.jsonObject.get("k"));
+                return;
+            }
+            logger.info("TxManager繁忙,拒绝批量请求->" + task.jsonObject.get("k"));
+            TxMetrics.getInstance().recordRejected();
+            JSONArray items = task.jsonObject.getJSONArray("p");
+            JSONArray resArray = new JSONArray();
+            for (int i = 0; i < items.size(); i++) {
+                JSONObject resObj = new JSONObject();
+                resObj.put("k", items.getJSONObject(i).get("k"));
+                resObj.put("d", "");
+                resArray.add(resObj);
+            }
+            JSONObject resObj = new JSONObject();
+            resObj.put("k", task.jsonObject.get("k"));
+            resObj.put("b", resArray);
+            SocketUtils.sendMsg(task.ctx, resObj);
+        }
+    };
+
     @Override
     public void channelRead(final ChannelHandlerContext ctx, Object msg) throws Exception {
-        final String json = SocketUtils.getJson(msg);
-        logger.info("接受-json->"+json);
-        threadPool.execute(new Runnable() {
+        //MessageDecoder已解码
+        final JSONObject jsonObject = (JSONObject) msg;
+        final long startTime = System.nanoTime();
+        logger.info("接受-json->"+jsonObject);
+        String action = jsonObject.getString("a");
+        if ("t".equals(action)) {
+            //通知确认直接在io线程中唤醒等待的通知
+            notifyResponse(jsonObject, ctx);
+            TxMetrics.getInstance().recordAction("t", (System.nanoTime() - startTime) / 1000);
+            return;
+        }
+        if ("mt".equals(action)) {
+            //批量通知确认
+            JSONArray items = jsonObject.getJSONArray("p");
+            for (int i = 0; i < items.size(); i++) {
+                notifyResponse(items.getJSONObject(i), ctx);
+                TxMetrics.getInstance().recordAction("t", (System.nanoTime() - startTime) / 1000);
+            }
+            return;
+        }
+        if ("cg".equals(action) && !admit()) {
+            //超过上限时不进入线程池排队
+            busy(ctx, jsonObject.get("k"));
+            return;
+        }
+        if (async || "p".equals(action) || "h".equals(action)) {
+            //握手及心跳不访问存储,直接在io线程中返回
+            service(jsonObject, ctx, startTime);
+            return;
+        }
+        threadPool.execute(new ServiceTask(jsonObject, ctx, startTime));
+    }
+
+    /**
+     * 事务模块对通知的确认
+     */
+    private void notifyResponse(JSONObject jsonObject, ChannelHandlerContext ctx) {
+        long key;
+        try {
+            key = jsonObject.getLongValue("k");
+        } catch (Exception e) {
+            logger.error("notify-key-error->" + jsonObject);
+            return;
+        }
+        JSONObject params = MessageProtocol.getParams(jsonObject);
+        NotifyRequests.get(ctx.channel()).complete(key, params.getString("d"));
+    }
+
+    /**
+     * @param startTime 收到请求的时间,包含在线程池中排队的时间
+     */
+    private void service(JSONObject jsonObject, final ChannelHandlerContext ctx, final long startTime){
+        final String action = jsonObject.getString("a");
+        final Object key = jsonObject.get("k");
+        if (StringUtils.isEmpty(action)) {
+            return;
+        }
+
+        //批量请求
+        if ("b".equals(action)) {
+            batch(key, jsonObject.getJSONArray("p"), ctx, startTime);
+            return;
+        }
+
+        JSONObject params = MessageProtocol.getParams(jsonObject);
+        CompletableFuture<String> future;
+        if ("p".equals(action)) {
+            //协议握手,返回双方都支持的二进制协议版本
+            MessageProtocol.setVersion(ctx.channel(), params.getIntValue("v"));
+            future = CompletableFuture.completedFuture(String.valueOf(MessageProtocol.getVersion(ctx.channel())));
+        } else {
+            future = execute(action, params, ctx);
+        }
+        actions.incrementAndGet();
+        future.whenComplete(actionDone);
+        future.whenComplete(new BiConsumer<String, Throwable>() {
             @Override
-            public void run() {
-                service(json,ctx);
+            public void accept(String res, Throwable throwable) {
+                record(action, startTime);
+                if (throwable != null) {
+                    logger.error("service-error->" + key, throwable);
+                    return;
+                }
+                if (res == null) {
+                    return;
+                }
+                JSONObject resObj = new JSONObject();
+                resObj.put("k", key);
+                resObj.put("d", res);
+
+                SocketUtils.sendMsg(ctx,resObj);
             }
         });
     }
 
-    private void service(String json,ChannelHandlerContext ctx){
-        if (StringUtils.isNotEmpty(json)) {
-            JSONObject jsonObject = JSONObject.parseObject(json);
-            String action = jsonObject.getString("a");
-            String key = jsonObject.getString("k");
-            JSONObject params = JSONObject.parseObject(jsonObject.getString("p"));
-
-            String res = "";
-            switch (action) {
-                //创建事务组
-                case "cg": {
-                    String taskId = params.getString("t");
-                    String modelName = ctx.channel().remoteAddress().toString();
-                    TxGroup txGroup = txManagerService.createTransactionGroup(taskId,modelName);
-                    if(txGroup!=null) {
-                        txGroup.setNowTime(System.currentTimeMillis());
-                        res = txGroup.toJsonString(false);
-                    }else {
+    /**
+     * 批量请求中的每个请求并行执行,全部完成后以一个批量响应返回
+     * {"k":批量key,"b":[{"k":key,"d":data}]}
+     */
+    private void batch(final Object batchKey, JSONArray items, final ChannelHandlerContext ctx, final long startTime) {
+        final int size = items.size();
+        final CompletableFuture[] futures = new CompletableFuture[size];
+        actions.addAndGet(size);
+        for (int i = 0; i < size; i++) {
+            final JSONObject item = items.getJSONObject(i);
+            CompletableFuture<String> future;
+            try {
+                future = execute(item.getString("a"), MessageProtocol.getParams(item), ctx);
+            } catch (Exception e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            futures[i] = future.handle(new BiFunction<String, Throwable, JSONObject>() {
+                @Override
+                public JSONObject apply(String res, Throwable throwable) {
+                    actions.decrementAndGet();
+                    record(item.getString("a"), startTime);
+                    if (throwable != null) {
+                        logger.error("batch-item-error->" + item, throwable);
                         res = "";
                     }
-                    break;
+                    if (res == null) {
+                        return null;
+                    }
+                    JSONObject resObj = new JSONObject();
+                    resObj.put("k", item.get("k"));
+                    resObj.put("d", res);
+                    return resObj;
                 }
-                //添加事务组
-                case "atg": {
-                    String groupId = params.getString("g");
-                    String taskId = params.getString("t");
-                    int isGroup = params.getInteger("s");
-                    String modelName = ctx.channel().remoteAddress().toString();
-                    if (StringUtils.isNotEmpty(modelName)) {
-                        TxGroup txGroup = txManagerService.addTransactionGroup(groupId, taskId, isGroup,modelName);
-                        if(txGroup!=null) {
-                            txGroup.setNowTime(System.currentTimeMillis());
-                            res = txGroup.toJsonString(false);
-                        }
-                    } else {
-                        res = "";
+            });
+        }
+        CompletableFuture.allOf(futures).whenComplete(new BiConsumer<Void, Throwable>() {
+            @Override
+            public void accept(Void v, Throwable throwable) {
+                JSONArray resArray = new JSONArray();
+                for (CompletableFuture future : futures) {
+                    Object resObj = future.getNow(null);
+                    if (resObj != null) {
+                        resArray.add(resObj);
                     }
-                    break;
                 }
+                JSONObject resObj = new JSONObject();
+                resObj.put("k", batchKey);
+                resObj.put("b", resArray);
+                SocketUtils.sendMsg(ctx, resObj);
+            }
+        });
+    }
+
+    private final static Function<Boolean, String> stateFormat = new Function<Boolean, String>() {
+        @Override
+        public String apply(Boolean bs) {
+            return bs ? "1" : "0";
+        }
+    };
+
+    private final static Function<TxGroup, String> txGroupFormat = new Function<TxGroup, String>() {
+        @Override
+        public String apply(TxGroup txGroup) {
+            if (txGroup == null) {
+                return "";
+            }
+            txGroup.setNowTime(System.currentTimeMillis());
+            return txGroup.toJsonString(false);
+        }
+    };
+
+    /**
+     * 执行单个请求,本地事务组直接完成,需要访问redis时在redis响应后完成
+     */
+    private CompletableFuture<String> execute(String action, JSONObject params, ChannelHandlerContext ctx) {
+        switch (action) {
+            //创建事务组
+            case "cg": {
+                String groupId = params.getString("g");
+                String taskId = params.getString("t");
+                String modelName = ctx.channel().remoteAddress().toString();
+                return txManagerService.createTransactionGroupAsync(groupId, taskId, modelName).thenApply(txGroupFormat);
+            }
+            //添加事务组
+            case "atg": {
+                String groupId = params.getString("g");
+                String taskId = params.getString("t");
+                int isGroup = params.getInteger("s");
+                String modelName = ctx.channel().remoteAddress().toString();
+                if (StringUtils.isNotEmpty(modelName)) {
+                    return txManagerService.addTransactionGroupAsync(groupId, taskId, isGroup, modelName).thenApply(txGroupFormat);
+                }
+                return CompletableFuture.completedFuture("");
+            }
 //                //修改模块信息
 //                case "nti": {
 //                    String groupId = params.getString("g");
@@ -115,66 +388,50 @@ public class TxCoreServerHandler extends ChannelInboundHandlerAdapter { // (1)
 //                    break;
 //                }
 
-                //关闭事务组
-                case "ctg": {
-                    String groupId = params.getString("g");
-                    int state = params.getInteger("s");
-                    boolean bs = txManagerService.closeTransactionGroup(groupId,state);
-
-                    res = bs ? "1" : "0";
-                    break;
-                }
-
-                //检查事务组
-                case "ckg": {
-                    String groupId = params.getString("g");
-                    String taskId = params.getString("t");
-                    boolean bs = txManagerService.checkTransactionGroup(groupId,taskId);
-
-                    res = bs ? "1" : "0";
-                    break;
+            //关闭事务组
+            case "ctg": {
+                String groupId = params.getString("g");
+                int state = params.getInteger("s");
+                //随rpc响应返回到发起方的参与方
+                JSONArray list = params.getJSONArray("l");
+                if (list != null && !list.isEmpty()) {
+                    List<TxInfo> infos = new ArrayList<>(list.size());
+                    for (int i = 0; i < list.size(); i++) {
+                        JSONObject item = list.getJSONObject(i);
+                        TxInfo info = new TxInfo();
+                        info.setKid(item.getString("t"));
+                        info.setIsGroup(item.getIntValue("s"));
+                        info.setModelName(item.getString("m"));
+                        infos.add(info);
+                    }
+                    return txManagerService.closeTransactionGroupAsync(groupId, state, infos).thenApply(stateFormat);
                 }
+                return txManagerService.closeTransactionGroupAsync(groupId, state).thenApply(stateFormat);
+            }
 
+            //检查事务组
+            case "ckg": {
+                String groupId = params.getString("g");
+                String taskId = params.getString("t");
+                return txManagerService.checkTransactionGroupAsync(groupId, taskId).thenApply(stateFormat);
+            }
 
-                //心跳包
-                case "h": {
-                    res = String.valueOf(txManagerService.getDelayTime());
-                    break;
-                }
-
-                //通知事务单元
-                case "t": {
-                    final String data = params.getString("d");
-                    Task task = ConditionUtils.getInstance().getTask(key);
-                    if (task != null) {
-                        task.setBack(new IBack() {
-                            @Override
-                            public Object doing(Object... objs) throws Throwable {
-                                return data;
-                            }
-                        });
-                        task.signalTask();
-                    }
-                    return;
-                }
 
+            //心跳包
+            case "h": {
+                return CompletableFuture.completedFuture(String.valueOf(txManagerService.getDelayTime()));
             }
-            JSONObject resObj = new JSONObject();
-            resObj.put("k", key);
-            resObj.put("d", res);
 
-            SocketUtils.sendMsg(ctx,resObj.toString());
 
         }
+        return CompletableFuture.completedFuture("");
     }
 
     @Override
     public void channelRegistered(ChannelHandlerContext ctx) throws Exception {
 
         //是否到达最大上线连接数
-        if (SocketManager.getInstance().isAllowConnection()) {
-            SocketManager.getInstance().addClient(ctx.channel());
-        } else {
+        if (!SocketManager.getInstance().addClient(ctx.channel())) {
             ctx.close();
         }
         super.channelRegistered(ctx);
@@ -183,6 +440,7 @@ public class TxCoreServerHandler extends ChannelInboundHandlerAdapter { // (1)
     @Override
     public void channelUnregistered(ChannelHandlerContext ctx) throws Exception {
         SocketManager.getInstance().removeClient(ctx.channel());
+        NotifyRequests.get(ctx.channel()).failAll();
         super.channelUnregistered(ctx);
     }
 
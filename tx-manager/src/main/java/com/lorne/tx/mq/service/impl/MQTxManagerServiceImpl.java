@@ -2,10 +2,14 @@ package com.lorne.tx.mq.service.impl;
 
 import com.lorne.tx.manager.service.TxManagerService;
 import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
 import com.lorne.tx.mq.service.MQTxManagerService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Created by lorne on 2017/6/7.
  */
@@ -18,8 +22,13 @@ public class MQTxManagerServiceImpl implements MQTxManagerService {
 
 
     @Override
-    public TxGroup createTransactionGroup(String taskId,String modelName) {
-        return txManagerService.createTransactionGroup(taskId,modelName);
+    public TxGroup createTransactionGroup(String groupId, String taskId,String modelName) {
+        return txManagerService.createTransactionGroup(groupId, taskId,modelName);
+    }
+
+    @Override
+    public CompletableFuture<TxGroup> createTransactionGroupAsync(String groupId, String taskId, String modelName) {
+        return txManagerService.createTransactionGroupAsync(groupId, taskId, modelName);
     }
 
     @Override
@@ -27,11 +36,26 @@ public class MQTxManagerServiceImpl implements MQTxManagerService {
         return txManagerService.addTransactionGroup(groupId, taskId,isGroup, modelName);
     }
 
+    @Override
+    public CompletableFuture<TxGroup> addTransactionGroupAsync(String groupId, String taskId, int isGroup, String modelName) {
+        return txManagerService.addTransactionGroupAsync(groupId, taskId, isGroup, modelName);
+    }
+
     @Override
     public boolean closeTransactionGroup(String groupId,int state) {
         return txManagerService.closeTransactionGroup(groupId,state);
     }
 
+    @Override
+    public CompletableFuture<Boolean> closeTransactionGroupAsync(String groupId, int state) {
+        return txManagerService.closeTransactionGroupAsync(groupId, state);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> closeTransactionGroupAsync(String groupId, int state, List<TxInfo> infos) {
+        return txManagerService.closeTransactionGroupAsync(groupId, state, infos);
+    }
+
 
 //    @Override
 //    public NotifyMsg notifyTransactionInfo(String groupId, String kid, boolean state) {
@@ -44,6 +68,11 @@ public class MQTxManagerServiceImpl implements MQTxManagerService {
         return txManagerService.checkTransactionGroup(groupId, taskId);
     }
 
+    @Override
+    public CompletableFuture<Boolean> checkTransactionGroupAsync(String groupId, String taskId) {
+        return txManagerService.checkTransactionGroupAsync(groupId, taskId);
+    }
+
     @Override
     public boolean checkTransactionGroupState(String groupId) {
         return txManagerService.checkTransactionGroupState(groupId);
@@ -63,4 +92,9 @@ public class MQTxManagerServiceImpl implements MQTxManagerService {
     public int getDelayTime() {
         return txManagerService.getDelayTime();
     }
+
+    @Override
+    public int getGroupCount() {
+        return txManagerService.getGroupCount();
+    }
 }
@@ -1,18 +1,21 @@
 package com.lorne.tx.mq.service.impl;
 
 import com.lorne.tx.Constants;
+import com.lorne.tx.metrics.LoadMonitor;
+import com.lorne.tx.mq.handler.MessageDecoder;
+import com.lorne.tx.mq.handler.MessageEncoder;
+import com.lorne.tx.mq.handler.NotifyBatchHandler;
 import com.lorne.tx.mq.handler.TxCoreServerHandler;
 import com.lorne.tx.mq.service.MQTxManagerService;
 import com.lorne.tx.mq.service.NettyServerService;
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
-import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.timeout.IdleStateHandler;
@@ -46,28 +49,47 @@ public class NettyServerServiceImpl implements NettyServerService {
     @Value("${transaction_netty_heart_time}")
     private int transaction_netty_heart_time;
 
+    @Value("${socket.async}")
+    private boolean socket_async;
+
+    @Value("${socket.frame.max}")
+    private int socket_frame_max;
+
+    @Value("${admission.max.groups}")
+    private int admission_max_groups;
+
+    @Value("${admission.max.actions}")
+    private int admission_max_actions;
+
+    @Value("${admission.retry.time}")
+    private int admission_retry_time;
+
 
 
 
     @Override
     public void start() {
         int heartTime = transaction_netty_heart_time+10;
-        txCoreServerHandler = new TxCoreServerHandler(mqTxManagerService);
+        txCoreServerHandler = new TxCoreServerHandler(mqTxManagerService, socket_async,
+            admission_max_groups, admission_max_actions, admission_retry_time);
         bossGroup = new NioEventLoopGroup(50); // (1)
         workerGroup = new NioEventLoopGroup();
+        LoadMonitor.getInstance().setEventLoopGroup(workerGroup);
         try {
             ServerBootstrap b = new ServerBootstrap();
             b.group(bossGroup, workerGroup)
                     .channel(NioServerSocketChannel.class)
                     .option(ChannelOption.SO_BACKLOG, 100)
+                    .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
                     .handler(new LoggingHandler(LogLevel.INFO))
                     .childHandler(new ChannelInitializer<SocketChannel>() {
                         @Override
                         public void initChannel(SocketChannel ch) throws Exception {
                             ch.pipeline().addLast("timeout", new IdleStateHandler(heartTime, heartTime, heartTime, TimeUnit.SECONDS));
 
-                            ch.pipeline().addLast(new LengthFieldPrepender(4, false));
-                            ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(Integer.MAX_VALUE, 0, 4, 0, 4));
+                            ch.pipeline().addLast(new MessageDecoder(socket_frame_max));
+                            ch.pipeline().addLast(MessageEncoder.INSTANCE);
+                            ch.pipeline().addLast(new NotifyBatchHandler());
 
                             ch.pipeline().addLast(txCoreServerHandler);
                         }
@@ -15,4 +15,9 @@ public interface TxService {
     boolean getServerGroup(String groupId,String taskId);
 
     boolean getServerGroupState(String groupId);
+
+    /**
+     * prometheus文本格式的指标
+     */
+    String getMetrics();
 }
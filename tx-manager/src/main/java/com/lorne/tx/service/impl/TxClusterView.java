@@ -0,0 +1,161 @@
+package com.lorne.tx.service.impl;
+
+import com.lorne.tx.model.TxState;
+import com.lorne.tx.service.TxService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TxManager集群负载视图,每cluster_refresh_time毫秒读取一次各TxManager的/tx/manager/state.
+ * getServer直接从缓存中按负载加权随机选择,不再每次请求都访问所有TxManager
+ */
+@Component
+public class TxClusterView {
+
+    @Value("${cluster_refresh_time}")
+    private int cluster_refresh_time;
+
+    @Autowired
+    private TxService txService;
+
+    @Autowired
+    private RestTemplate restTemplate;
+
+    private Logger logger = LoggerFactory.getLogger(TxClusterView.class);
+
+    private ScheduledExecutorService refreshExecutor = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * 最近一次读取成功的TxManager,读取失败的不参与选择
+     */
+    private volatile List<TxState> states = Collections.emptyList();
+
+
+    @PostConstruct
+    public void start() {
+        refreshExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (Exception e) {
+                    logger.error("cluster-refresh-error", e);
+                }
+            }
+        }, Math.max(cluster_refresh_time, 100), Math.max(cluster_refresh_time, 100), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() {
+        refreshExecutor.shutdownNow();
+    }
+
+    private void refresh() {
+        TxState local = txService.getState();
+        List<TxState> list = new ArrayList<>();
+        boolean hasLocal = false;
+        for (String url : local.getSlbList()) {
+            TxState state;
+            try {
+                state = restTemplate.getForObject(url + "/tx/manager/state", TxState.class);
+            } catch (Exception e) {
+                logger.info("cluster-state-error->" + url);
+                continue;
+            }
+            if (state == null) {
+                continue;
+            }
+            if (local.getIp().equals(state.getIp()) && local.getPort() == state.getPort()) {
+                hasLocal = true;
+                state = local;
+            }
+            list.add(state);
+        }
+        if (!hasLocal) {
+            list.add(local);
+        }
+        states = list;
+    }
+
+    private static double mean(double sum, int count) {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * 负载相对集群平均值的倍数,各项负载取平均
+     */
+    private static double pressure(TxState state, double openGroups, double actionRate, double p99Latency, double queueDepth) {
+        return ((state.getOpenGroups() + 1) / (openGroups + 1)
+            + (state.getActionRate() + 1) / (actionRate + 1)
+            + (state.getP99Latency() + 1) / (p99Latency + 1)
+            + (state.getQueueDepth() + 1) / (queueDepth + 1)) / 4;
+    }
+
+    /**
+     * 按剩余连接比例/负载加权随机选择TxManager,都已达到最大连接数时返回null
+     */
+    public TxState select() {
+        List<TxState> list = states;
+        if (list.isEmpty()) {
+            //尚未读取集群状态
+            TxState state = txService.getState();
+            return state.getMaxConnection() > state.getNowConnection() ? state : null;
+        }
+        List<TxState> candidates = new ArrayList<>(list.size());
+        double openGroups = 0, actionRate = 0, p99Latency = 0, queueDepth = 0;
+        for (TxState state : list) {
+            if (state.getMaxConnection() > state.getNowConnection()) {
+                candidates.add(state);
+                openGroups += state.getOpenGroups();
+                actionRate += state.getActionRate();
+                p99Latency += state.getP99Latency();
+                queueDepth += state.getQueueDepth();
+            }
+        }
+        int count = candidates.size();
+        if (count == 0) {
+            return null;
+        }
+        openGroups = mean(openGroups, count);
+        actionRate = mean(actionRate, count);
+        p99Latency = mean(p99Latency, count);
+        queueDepth = mean(queueDepth, count);
+
+        double[] weights = new double[count];
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            TxState state = candidates.get(i);
+            double free = (state.getMaxConnection() - state.getNowConnection()) / (double) state.getMaxConnection();
+            weights[i] = free / pressure(state, openGroups, actionRate, p99Latency, queueDepth);
+            total += weights[i];
+        }
+        double random = ThreadLocalRandom.current().nextDouble() * total;
+        TxState selected = candidates.get(count - 1);
+        for (int i = 0; i < count; i++) {
+            random -= weights[i];
+            if (random < 0) {
+                selected = candidates.get(i);
+                break;
+            }
+        }
+        synchronized (selected) {
+            //下次刷新前按已分配的连接估算
+            selected.setNowConnection(selected.getNowConnection() + 1);
+        }
+        return selected;
+    }
+}
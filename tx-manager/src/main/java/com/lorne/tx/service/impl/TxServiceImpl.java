@@ -3,7 +3,10 @@ package com.lorne.tx.service.impl;
 
 import com.lorne.tx.Constants;
 import com.lorne.tx.eureka.DiscoveryService;
+import com.lorne.tx.manager.service.TxGroupStore;
 import com.lorne.tx.manager.service.TxManagerService;
+import com.lorne.tx.metrics.LoadMonitor;
+import com.lorne.tx.metrics.TxMetrics;
 import com.lorne.tx.model.TxServer;
 import com.lorne.tx.model.TxState;
 import com.lorne.tx.service.TxService;
@@ -14,7 +17,6 @@ import com.netflix.eureka.EurekaServerContextHolder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -44,58 +46,20 @@ public class TxServiceImpl implements TxService {
     private TxManagerService managerService;
 
     @Autowired
-    private RestTemplate restTemplate;
+    private TxClusterView clusterView;
 
     @Autowired
     private DiscoveryService discoveryService;
 
+    @Autowired
+    private TxGroupStore txGroupStore;
+
 
     @Override
     public TxServer getServer() {
-        List<String> urls= getServices();
-        List<TxState> states = new ArrayList<>();
-        for(String url:urls){
-            TxState state = restTemplate.getForObject(url+"/tx/manager/state",TxState.class);
-            states.add(state);
-        }
-        if(states.size()<=1) {
-            TxState state = getState();
-            if (state.getMaxConnection() > state.getNowConnection()) {
-                return TxServer.format(state);
-            } else {
-                return null;
-            }
-        }else{
-            //找默认数据
-            TxState state = getDefault(states,0);
-            if (state == null) {
-                //没有满足的默认数据
-                return null;
-            }
-            int minNowConnection = state.getNowConnection();
-            for (TxState s : states) {
-                if (s.getMaxConnection() > s.getNowConnection()) {
-                    if (s.getNowConnection() < minNowConnection) {
-                        state = s;
-                    }
-                }
-            }
-            return TxServer.format(state);
-        }
-    }
-
-    private TxState getDefault(List<TxState> states, int index) {
-        TxState state = states.get(index);
-        if (state.getMaxConnection() == state.getNowConnection()) {
-            index++;
-            if (states.size() - 1 >= index) {
-                return getDefault(states, index);
-            } else {
-                return null;
-            }
-        } else {
-            return state;
-        }
+        //从定时刷新的集群视图中选择,不再同步访问所有TxManager
+        TxState state = clusterView.select();
+        return state == null ? null : TxServer.format(state);
     }
 
 
@@ -115,6 +79,10 @@ public class TxServiceImpl implements TxService {
         state.setTransactionNettyDelayTime(transaction_netty_delay_time);
         state.setTransactionNettyHeartTime(transaction_netty_heart_time);
         state.setSlbList(getServices());
+        state.setOpenGroups(managerService.getGroupCount());
+        state.setActionRate(LoadMonitor.getInstance().getActionRate());
+        state.setP99Latency(LoadMonitor.getInstance().getP99Latency());
+        state.setQueueDepth(LoadMonitor.getInstance().getQueueDepth());
         return state;
     }
 
@@ -146,6 +114,19 @@ public class TxServiceImpl implements TxService {
 
 
 
+    @Override
+    public String getMetrics() {
+        StringBuilder out = new StringBuilder();
+        LoadMonitor monitor = LoadMonitor.getInstance();
+        TxMetrics.gauge(out, "tx_manager_open_groups", "Transaction groups open on this TxManager.", managerService.getGroupCount());
+        TxMetrics.gauge(out, "tx_manager_connections", "Connected transaction modules.", SocketManager.getInstance().getNowConnection());
+        TxMetrics.gauge(out, "tx_manager_event_loop_pending_tasks", "Tasks queued on the netty io threads.", monitor.getEventLoopQueueDepth());
+        TxMetrics.gauge(out, "tx_manager_request_pool_pending_tasks", "Requests queued for the request thread pool.", monitor.getRequestQueueDepth());
+        TxMetrics.gauge(out, "tx_manager_store_pending_operations", "Group store operations waiting to be written.", txGroupStore.getQueueSize());
+        TxMetrics.getInstance().write(out);
+        return out.toString();
+    }
+
     @Override
     public boolean getServerGroup(String groupId,String taskId) {
         return managerService.checkTransactionGroup(groupId,taskId);
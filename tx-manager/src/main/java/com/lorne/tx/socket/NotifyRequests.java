@@ -0,0 +1,85 @@
+package com.lorne.tx.socket;
+
+import io.netty.channel.Channel;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.collection.LongObjectHashMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单个连接上等待事务模块确认的通知,按连接内递增的请求id关联
+ */
+public class NotifyRequests {
+
+    private final static AttributeKey<NotifyRequests> KEY = AttributeKey.valueOf("notifyRequests");
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * key:请求id,访问时需同步
+     */
+    private final LongObjectHashMap<CompletableFuture<String>> requests = new LongObjectHashMap<>();
+
+
+    public static NotifyRequests get(Channel channel) {
+        Attribute<NotifyRequests> attribute = channel.attr(KEY);
+        NotifyRequests notifyRequests = attribute.get();
+        if (notifyRequests == null) {
+            notifyRequests = new NotifyRequests();
+            NotifyRequests old = attribute.setIfAbsent(notifyRequests);
+            if (old != null) {
+                notifyRequests = old;
+            }
+        }
+        return notifyRequests;
+    }
+
+    public long nextId() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * 注册等待确认的通知,需在发送前调用
+     */
+    public CompletableFuture<String> register(long id) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        synchronized (requests) {
+            requests.put(id, future);
+        }
+        return future;
+    }
+
+    public void complete(long id, String data) {
+        CompletableFuture<String> future;
+        synchronized (requests) {
+            future = requests.remove(id);
+        }
+        if (future != null) {
+            future.complete(data);
+        }
+    }
+
+    public void remove(long id) {
+        synchronized (requests) {
+            requests.remove(id);
+        }
+    }
+
+    /**
+     * 连接断开时释放所有等待中的通知
+     */
+    public void failAll() {
+        List<CompletableFuture<String>> futures;
+        synchronized (requests) {
+            futures = new ArrayList<>(requests.values());
+            requests.clear();
+        }
+        for (CompletableFuture<String> future : futures) {
+            future.complete(null);
+        }
+    }
+}
@@ -3,8 +3,8 @@ package com.lorne.tx.socket;
 import com.lorne.tx.Constants;
 import io.netty.channel.Channel;
 
-import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by lorne on 2017/6/30.
@@ -19,14 +19,12 @@ public class SocketManager {
     /**
      * 当前连接数
      */
-    private int nowConnection;
+    private final AtomicInteger nowConnection = new AtomicInteger();
 
     /**
-     * 允许连接请求 true允许 false拒绝
+     * 已连接的模块 key:模块地址(remoteAddress)
      */
-    private boolean allowConnection = true;
-
-    private List<Channel> clients = null;
+    private final ConcurrentHashMap<String, Channel> clients = new ConcurrentHashMap<>();
 
     private static SocketManager manager = null;
 
@@ -43,32 +41,41 @@ public class SocketManager {
 
 
     public Channel getChannelByModelName(String name) {
-        for (Channel channel : clients) {
-            String modelName = channel.remoteAddress().toString();
-
-            if (modelName.equals(name)) {
-                return channel;
-            }
-        }
-        return null;
+        return clients.get(name);
     }
 
     private SocketManager() {
-        clients = new CopyOnWriteArrayList<Channel>();
     }
 
-    public void addClient(Channel client) {
-        clients.add(client);
-        nowConnection = clients.size();
+    private static String getModelName(Channel client) {
+        return String.valueOf(client.remoteAddress());
+    }
 
-        allowConnection = (maxConnection != nowConnection);
+    /**
+     * 添加连接,达到最大连接数时返回false
+     */
+    public boolean addClient(Channel client) {
+        while (true) {
+            int now = nowConnection.get();
+            if (now >= maxConnection) {
+                return false;
+            }
+            if (nowConnection.compareAndSet(now, now + 1)) {
+                break;
+            }
+        }
+        Channel old = clients.put(getModelName(client), client);
+        if (old != null && old != client) {
+            //同一地址的旧连接尚未移除
+            nowConnection.decrementAndGet();
+        }
+        return true;
     }
 
     public void removeClient(Channel client) {
-        clients.remove(client);
-        nowConnection = clients.size();
-
-        allowConnection = (maxConnection != nowConnection);
+        if (clients.remove(getModelName(client), client)) {
+            nowConnection.decrementAndGet();
+        }
     }
 
 
@@ -77,10 +84,13 @@ public class SocketManager {
     }
 
     public int getNowConnection() {
-        return nowConnection;
+        return nowConnection.get();
     }
 
+    /**
+     * 允许连接请求 true允许 false拒绝
+     */
     public boolean isAllowConnection() {
-        return allowConnection;
+        return nowConnection.get() < maxConnection;
     }
 }
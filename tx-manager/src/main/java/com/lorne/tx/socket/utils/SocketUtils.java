@@ -1,9 +1,10 @@
 package com.lorne.tx.socket.utils;
 
+import com.alibaba.fastjson.JSONObject;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.CharsetUtil;
 import io.netty.util.ReferenceCountUtil;
 
 /**
@@ -11,13 +12,17 @@ import io.netty.util.ReferenceCountUtil;
  */
 public class SocketUtils {
 
+    /**
+     * 消息已由MessageDecoder解码为字符串
+     */
     public static String getJson(Object msg) {
+        if (msg instanceof String) {
+            return (String) msg;
+        }
         String json;
         try {
             ByteBuf buf = (ByteBuf) msg;
-            byte[] bytes = new byte[buf.readableBytes()];
-            buf.readBytes(bytes);
-            json = new String(bytes);
+            json = buf.toString(CharsetUtil.UTF_8);
         } finally {
             ReferenceCountUtil.release(msg);
         }
@@ -25,12 +30,27 @@ public class SocketUtils {
 
     }
 
-    public static void sendMsg(ChannelHandlerContext ctx, String msg){
-        ctx.writeAndFlush(Unpooled.buffer().writeBytes(msg.getBytes()));
+    /**
+     * 由MessageEncoder编码为UTF-8
+     */
+    public static void sendMsg(ChannelHandlerContext ctx, String msg) {
+        ctx.writeAndFlush(msg);
+    }
+
+
+    public static void sendMsg(Channel ctx, String msg) {
+        ctx.writeAndFlush(msg);
+    }
+
+    /**
+     * 连接协商了二进制协议时由MessageEncoder按二进制编码
+     */
+    public static void sendMsg(ChannelHandlerContext ctx, JSONObject msg) {
+        ctx.writeAndFlush(msg);
     }
 
 
-    public static void sendMsg(Channel ctx,String msg){
-        ctx.writeAndFlush(Unpooled.buffer().writeBytes(msg.getBytes()));
+    public static void sendMsg(Channel ctx, JSONObject msg) {
+        ctx.writeAndFlush(msg);
     }
 }
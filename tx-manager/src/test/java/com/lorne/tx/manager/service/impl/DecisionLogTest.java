@@ -0,0 +1,157 @@
+package com.lorne.tx.manager.service.impl;
+
+import com.lorne.tx.manager.service.TxGroupStore;
+import com.lorne.tx.mq.model.TxGroup;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+
+/**
+ * 决定日志在TxManager重启后的恢复
+ */
+public class DecisionLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    private int segmentSize = 64 * 1024;
+
+    private EmbeddedTxGroupStore store;
+
+    private DecisionLog decisionLog;
+
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder();
+        store = TestStores.embedded(folder.newFolder());
+        decisionLog = newDecisionLog(dir.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        decisionLog.close();
+        store.close();
+    }
+
+    private DecisionLog newDecisionLog(String path) throws Exception {
+        DecisionLog decisionLog = new DecisionLog();
+        ReflectionTestUtils.setField(decisionLog, "decision_path", path);
+        ReflectionTestUtils.setField(decisionLog, "decision_segment_size", segmentSize);
+        ReflectionTestUtils.setField(decisionLog, "decision_sync_window", 100);
+        //测试中手动压缩
+        ReflectionTestUtils.setField(decisionLog, "decision_compact_time", 3600);
+        ReflectionTestUtils.setField(decisionLog, "txGroupStore", store);
+        decisionLog.start();
+        return decisionLog;
+    }
+
+    private void restart() throws Exception {
+        decisionLog.close();
+        decisionLog = newDecisionLog(dir.getAbsolutePath());
+    }
+
+    /**
+     * 启动完成后写入补偿存储,等待写入结束
+     */
+    private void recover(String groupId) throws Exception {
+        decisionLog.onApplicationEvent(null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (decisionLog.check(groupId, "") != -1) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private TxGroup newGroup(String groupId, String... kids) {
+        TxGroup txGroup = TestStores.newGroup(groupId);
+        for (int i = 0; i < kids.length; i++) {
+            //第一个为发起方
+            txGroup.getList().add(TestStores.newInfo(kids[i], i == 0 ? 1 : 0));
+        }
+        return txGroup;
+    }
+
+    @Test
+    public void doneDecisionIsNotRecovered() throws Exception {
+        decisionLog.decide(newGroup("g1", "k1", "k2"), 1).join();
+        decisionLog.done("g1");
+        restart();
+
+        Assert.assertEquals(-1, decisionLog.check("g1", "k2"));
+        recover("g1");
+        Assert.assertNull(store.load(TxGroupStore.key_prefix_notify, "g1").join());
+    }
+
+    @Test
+    public void undoneDecisionIsRecovered() throws Exception {
+        TxGroup txGroup = newGroup("g1", "k1", "k2", "k3");
+        store.saveHeader(TxGroupStore.key_prefix, txGroup, 30).join();
+        decisionLog.decide(txGroup, 1).join();
+        decisionLog.decide(newGroup("g2", "k4", "k5"), -1).join();
+        restart();
+
+        //写入补偿存储前按决定返回
+        Assert.assertEquals(1, decisionLog.check("g1", "k2"));
+        Assert.assertEquals(0, decisionLog.check("g1", "k9"));
+        Assert.assertEquals(0, decisionLog.check("g2", "k5"));
+        Assert.assertEquals(-1, decisionLog.check("g3", "k1"));
+
+        recover("g1");
+        recover("g2");
+        Assert.assertNull(store.load(TxGroupStore.key_prefix, "g1").join());
+
+        TxGroup recovered = store.load(TxGroupStore.key_prefix_notify, "g1").join();
+        Assert.assertTrue(recovered.isHasOver());
+        Assert.assertEquals(1, recovered.getState());
+        Assert.assertEquals(3, recovered.getList().size());
+        Assert.assertEquals(1, recovered.getList().get(0).getIsGroup());
+        Assert.assertEquals("model-k3", recovered.getList().get(2).getModelName());
+        //恢复前已通知的参与方
+        Assert.assertEquals(1, recovered.getList().get(1).getNotify());
+        Assert.assertEquals(0, recovered.getList().get(2).getNotify());
+
+        //超时回滚以回滚写入
+        Assert.assertEquals(0, store.getState(TxGroupStore.key_prefix_notify, "g2"));
+
+        //恢复后不再重复恢复
+        restart();
+        Assert.assertEquals(-1, decisionLog.check("g1", "k3"));
+        Assert.assertEquals(-1, decisionLog.check("g2", "k5"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unwritablePath() throws Exception {
+        File file = folder.newFile();
+        newDecisionLog(file.getAbsolutePath());
+    }
+
+    @Test
+    public void compact() throws Exception {
+        decisionLog.close();
+        segmentSize = 1024;
+        decisionLog = newDecisionLog(dir.getAbsolutePath());
+
+        decisionLog.decide(newGroup("undone", "k1", "k2"), 1).join();
+        for (int i = 0; i < 50; i++) {
+            decisionLog.decide(newGroup("g" + i, "k1", "k2"), 1).join();
+            decisionLog.done("g" + i);
+        }
+        Assert.assertTrue(dir.listFiles().length > 1);
+
+        ReflectionTestUtils.invokeMethod(decisionLog, "compact");
+        Assert.assertEquals(1, dir.listFiles().length);
+
+        restart();
+        Assert.assertEquals(1, decisionLog.check("undone", "k2"));
+        Assert.assertEquals(-1, decisionLog.check("g0", "k2"));
+    }
+}
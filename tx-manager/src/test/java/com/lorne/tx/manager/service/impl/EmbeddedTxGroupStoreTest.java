@@ -0,0 +1,191 @@
+package com.lorne.tx.manager.service.impl;
+
+import com.lorne.tx.manager.service.TxGroupStore;
+import com.lorne.tx.mq.model.TxGroup;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * 本地存储的事务组操作与重启后的恢复
+ */
+public class EmbeddedTxGroupStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    private int segmentSize = 64 * 1024;
+
+    private EmbeddedTxGroupStore store;
+
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder();
+        store = newStore();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+    }
+
+    private EmbeddedTxGroupStore newStore() throws Exception {
+        return TestStores.embedded(dir, segmentSize);
+    }
+
+    private EmbeddedTxGroupStore restart() throws Exception {
+        store.close();
+        store = newStore();
+        return store;
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        TxGroup txGroup = TestStores.newGroup("g1");
+        txGroup.getList().add(TestStores.newInfo("k1", 1));
+        txGroup.getList().add(TestStores.newInfo("k2", 0));
+        store.save(TxGroupStore.key_prefix, txGroup, 30).join();
+
+        TxGroup loaded = store.load(TxGroupStore.key_prefix, "g1").join();
+        Assert.assertEquals("g1", loaded.getGroupId());
+        Assert.assertEquals(txGroup.getStartTime(), loaded.getStartTime());
+        Assert.assertEquals(10, loaded.getWaitTime());
+        Assert.assertFalse(loaded.isHasOver());
+        Assert.assertEquals(Arrays.asList("k1", "k2"), TestStores.kids(loaded));
+        Assert.assertEquals(1, loaded.getList().get(0).getIsGroup());
+        Assert.assertEquals("model-k2", loaded.getList().get(1).getModelName());
+        Assert.assertEquals(0, store.getState(TxGroupStore.key_prefix, "g1"));
+
+        //前缀不同的事务组互不影响
+        Assert.assertNull(store.load(TxGroupStore.key_prefix_notify, "g1").join());
+        Assert.assertEquals(-1, store.getState(TxGroupStore.key_prefix_notify, "g1"));
+    }
+
+    @Test
+    public void joinAndClose() throws Exception {
+        Assert.assertNull(store.join("g1", TestStores.newInfo("k1", 0)).join());
+        Assert.assertEquals(0, (int) store.close("g1", 1, 1).join());
+
+        store.saveHeader(TxGroupStore.key_prefix, TestStores.newGroup("g1"), 30).join();
+        TxGroup joined = store.join("g1", TestStores.newInfo("k1", 0)).join();
+        Assert.assertEquals("g1", joined.getGroupId());
+        Assert.assertFalse(joined.isHasOver());
+        Assert.assertTrue(joined.getList().isEmpty());
+
+        Assert.assertEquals(1, (int) store.close("g1", 1, 123).join());
+        //已关闭时不修改
+        Assert.assertEquals(2, (int) store.close("g1", 0, 456).join());
+
+        //关闭后加入的参与方不在列表中
+        joined = store.join("g1", TestStores.newInfo("k2", 0)).join();
+        Assert.assertTrue(joined.isHasOver());
+
+        TxGroup loaded = store.load(TxGroupStore.key_prefix, "g1").join();
+        Assert.assertTrue(loaded.isHasOver());
+        Assert.assertEquals(1, loaded.getState());
+        Assert.assertEquals(123, loaded.getEndTime());
+        Assert.assertEquals(Arrays.asList("k1"), TestStores.kids(loaded));
+    }
+
+    @Test
+    public void notifyParticipants() throws Exception {
+        Assert.assertEquals(-1, (int) store.notify(TxGroupStore.key_prefix_notify, "g1", "k1", true).join());
+
+        TxGroup txGroup = TestStores.newGroup("g1");
+        txGroup.hasOvered();
+        txGroup.setState(1);
+        txGroup.getList().add(TestStores.newInfo("k1", 1));
+        txGroup.getList().add(TestStores.newInfo("k2", 0));
+        txGroup.getList().add(TestStores.newInfo("k3", 0));
+        store.save(TxGroupStore.key_prefix_notify, txGroup, 0).join();
+
+        //未加入的参与方不能提交
+        Assert.assertEquals(0, (int) store.notify(TxGroupStore.key_prefix_notify, "g1", "k9", true).join());
+
+        Assert.assertEquals(1, (int) store.notify(TxGroupStore.key_prefix_notify, "g1", "k2", true).join());
+        TxGroup loaded = store.load(TxGroupStore.key_prefix_notify, "g1").join();
+        Assert.assertEquals(1, loaded.getList().get(1).getNotify());
+        Assert.assertEquals(0, loaded.getList().get(2).getNotify());
+
+        //发起方(isGroup=1)以外的参与方都已通知后删除
+        Assert.assertEquals(1, (int) store.notify(TxGroupStore.key_prefix_notify, "g1", "k3", true).join());
+        Assert.assertNull(store.load(TxGroupStore.key_prefix_notify, "g1").join());
+    }
+
+    @Test
+    public void expire() throws Exception {
+        store.saveHeader(TxGroupStore.key_prefix, TestStores.newGroup("g1"), 1).join();
+        store.saveHeader(TxGroupStore.key_prefix, TestStores.newGroup("g2"), 0).join();
+        Thread.sleep(1100);
+        Assert.assertNull(store.load(TxGroupStore.key_prefix, "g1").join());
+        Assert.assertNull(store.join("g1", TestStores.newInfo("k1", 0)).join());
+        Assert.assertNotNull(store.load(TxGroupStore.key_prefix, "g2").join());
+    }
+
+    @Test
+    public void recoverAfterRestart() throws Exception {
+        store.saveHeader(TxGroupStore.key_prefix, TestStores.newGroup("g1"), 30).join();
+        store.join("g1", TestStores.newInfo("k1", 1)).join();
+        store.join("g1", TestStores.newInfo("k2", 0)).join();
+        store.close("g1", 1, 123).join();
+
+        TxGroup notifyGroup = TestStores.newGroup("g2");
+        notifyGroup.hasOvered();
+        notifyGroup.getList().add(TestStores.newInfo("k3", 0));
+        notifyGroup.getList().add(TestStores.newInfo("k4", 0));
+        store.save(TxGroupStore.key_prefix_notify, notifyGroup, 0).join();
+        store.notify(TxGroupStore.key_prefix_notify, "g2", "k3", false).join();
+
+        store.saveHeader(TxGroupStore.key_prefix, TestStores.newGroup("g3"), 30).join();
+        store.delete(TxGroupStore.key_prefix, "g3").join();
+
+        restart();
+
+        TxGroup loaded = store.load(TxGroupStore.key_prefix, "g1").join();
+        Assert.assertTrue(loaded.isHasOver());
+        Assert.assertEquals(1, loaded.getState());
+        Assert.assertEquals(123, loaded.getEndTime());
+        Assert.assertEquals(Arrays.asList("k1", "k2"), TestStores.kids(loaded));
+        Assert.assertEquals(2, (int) store.close("g1", 0, 0).join());
+
+        loaded = store.load(TxGroupStore.key_prefix_notify, "g2").join();
+        Assert.assertEquals(1, loaded.getList().get(0).getNotify());
+        Assert.assertEquals(0, loaded.getList().get(1).getNotify());
+
+        Assert.assertNull(store.load(TxGroupStore.key_prefix, "g3").join());
+    }
+
+    @Test
+    public void compact() throws Exception {
+        store.close();
+        segmentSize = 1024;
+        store = newStore();
+
+        store.saveHeader(TxGroupStore.key_prefix, TestStores.newGroup("live"), 0).join();
+        store.join("live", TestStores.newInfo("k1", 0)).join();
+        for (int i = 0; i < 50; i++) {
+            store.saveHeader(TxGroupStore.key_prefix, TestStores.newGroup("g" + i), 30).join();
+            store.delete(TxGroupStore.key_prefix, "g" + i).join();
+        }
+        Assert.assertTrue(dir.listFiles().length > 1);
+
+        ReflectionTestUtils.invokeMethod(store, "compact");
+        Assert.assertEquals(1, dir.listFiles().length);
+
+        restart();
+        TxGroup loaded = store.load(TxGroupStore.key_prefix, "live").join();
+        Assert.assertEquals(Arrays.asList("k1"), TestStores.kids(loaded));
+        Assert.assertNull(store.load(TxGroupStore.key_prefix, "g0").join());
+        Assert.assertEquals(1, dir.listFiles().length);
+    }
+}
@@ -0,0 +1,69 @@
+package com.lorne.tx.manager.service.impl;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 组提交: 写入磁盘后完成等待的记录
+ */
+public class GroupCommitTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SegmentedLog open() throws IOException {
+        SegmentedLog log = new SegmentedLog(folder.newFolder(), 4096);
+        log.open(new Consumer<byte[]>() {
+            @Override
+            public void accept(byte[] data) {
+            }
+        });
+        return log;
+    }
+
+    @Test
+    public void commitsCompleteAfterForce() throws Exception {
+        SegmentedLog log = open();
+        GroupCommit groupCommit = new GroupCommit(log, 1000, "test-commit");
+
+        log.append(new byte[]{1});
+        CompletableFuture<Void> first = groupCommit.commit();
+        log.append(new byte[]{2});
+        CompletableFuture<Void> second = groupCommit.commit();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+
+        //之后的记录在下一次写入磁盘时完成
+        log.append(new byte[]{3});
+        groupCommit.commit().get(5, TimeUnit.SECONDS);
+
+        groupCommit.close();
+        log.close();
+    }
+
+    @Test
+    public void closeCompletesWaitingCommits() throws Exception {
+        SegmentedLog log = open();
+        //窗口足够长,关闭前不会写入磁盘
+        GroupCommit groupCommit = new GroupCommit(log, 10 * 1000 * 1000, "test-commit");
+
+        log.append(new byte[]{1});
+        CompletableFuture<Void> future = groupCommit.commit();
+        Thread.sleep(50);
+        Assert.assertFalse(future.isDone());
+
+        long start = System.nanoTime();
+        groupCommit.close();
+        Assert.assertTrue(future.isDone());
+        Assert.assertFalse(future.isCompletedExceptionally());
+        Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        log.close();
+    }
+}
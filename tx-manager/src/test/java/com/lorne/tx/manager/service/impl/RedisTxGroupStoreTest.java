@@ -0,0 +1,133 @@
+package com.lorne.tx.manager.service.impl;
+
+import com.lorne.tx.manager.service.TxGroupStore;
+import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.UUID;
+
+/**
+ * redis中加入、通知、关闭事务组的lua脚本. 需要本机6379端口的redis,没有时跳过
+ */
+public class RedisTxGroupStoreTest {
+
+    private JedisConnectionFactory connectionFactory;
+
+    private RedisPipeline redisPipeline;
+
+    private RedisTxGroupStore store;
+
+    /**
+     * 每次测试使用不同的事务组id
+     */
+    private final String prefix = "test-" + UUID.randomUUID().toString() + "-";
+
+
+    @Before
+    public void setUp() throws Exception {
+        connectionFactory = new JedisConnectionFactory();
+        connectionFactory.setHostName("127.0.0.1");
+        connectionFactory.setPort(6379);
+        connectionFactory.setTimeout(1000);
+        connectionFactory.afterPropertiesSet();
+        try {
+            RedisConnection connection = connectionFactory.getConnection();
+            connection.ping();
+            connection.close();
+        } catch (Exception e) {
+            connectionFactory.destroy();
+            Assume.assumeNoException("redis不可用", e);
+        }
+
+        redisPipeline = new RedisPipeline();
+        ReflectionTestUtils.setField(redisPipeline, "redis_pipeline_size", 128);
+        ReflectionTestUtils.setField(redisPipeline, "redisTemplate", new StringRedisTemplate(connectionFactory));
+        redisPipeline.start();
+
+        store = new RedisTxGroupStore();
+        ReflectionTestUtils.setField(store, "redisPipeline", redisPipeline);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (store == null) {
+            return;
+        }
+        for (String groupId : new String[]{"g1", "g2"}) {
+            store.delete(TxGroupStore.key_prefix, prefix + groupId).join();
+            store.delete(TxGroupStore.key_prefix_notify, prefix + groupId).join();
+        }
+        redisPipeline.close();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    public void joinAndClose() throws Exception {
+        String groupId = prefix + "g1";
+        Assert.assertNull(store.join(groupId, TestStores.newInfo("k1", 0)).join());
+        Assert.assertEquals(0, (int) store.close(groupId, 1, 1).join());
+
+        TxGroup txGroup = TestStores.newGroup(prefix + "g1");
+        store.saveHeader(TxGroupStore.key_prefix, txGroup, 30).join();
+        TxGroup joined = store.join(groupId, TestStores.newInfo("k1", 1)).join();
+        Assert.assertEquals(groupId, joined.getGroupId());
+        Assert.assertFalse(joined.isHasOver());
+        Assert.assertEquals(10, joined.getWaitTime());
+        Assert.assertEquals(txGroup.getStartTime(), joined.getStartTime());
+        store.join(groupId, TestStores.newInfo("k2", 0)).join();
+
+        Assert.assertEquals(1, (int) store.close(groupId, 1, 123).join());
+        //已关闭时不修改
+        Assert.assertEquals(2, (int) store.close(groupId, 0, 456).join());
+
+        //关闭后加入的参与方不在列表中
+        joined = store.join(groupId, TestStores.newInfo("k3", 0)).join();
+        Assert.assertTrue(joined.isHasOver());
+
+        TxGroup loaded = store.load(TxGroupStore.key_prefix, groupId).join();
+        Assert.assertTrue(loaded.isHasOver());
+        Assert.assertEquals(1, loaded.getState());
+        Assert.assertEquals(123, loaded.getEndTime());
+        Assert.assertEquals(2, loaded.getList().size());
+        for (TxInfo info : loaded.getList()) {
+            Assert.assertNotEquals("k3", info.getKid());
+        }
+        Assert.assertEquals(1, store.getState(TxGroupStore.key_prefix, groupId));
+    }
+
+    @Test
+    public void notifyParticipants() throws Exception {
+        String groupId = prefix + "g2";
+        Assert.assertEquals(-1, (int) store.notify(TxGroupStore.key_prefix_notify, groupId, "k1", true).join());
+
+        TxGroup txGroup = TestStores.newGroup(prefix + "g2");
+        txGroup.hasOvered();
+        txGroup.setState(1);
+        txGroup.getList().add(TestStores.newInfo("k1", 1));
+        txGroup.getList().add(TestStores.newInfo("k2", 0));
+        txGroup.getList().add(TestStores.newInfo("k3", 0));
+        store.save(TxGroupStore.key_prefix_notify, txGroup, 30).join();
+
+        //未加入的参与方不能提交
+        Assert.assertEquals(0, (int) store.notify(TxGroupStore.key_prefix_notify, groupId, "k9", true).join());
+
+        Assert.assertEquals(1, (int) store.notify(TxGroupStore.key_prefix_notify, groupId, "k2", true).join());
+        TxGroup loaded = store.load(TxGroupStore.key_prefix_notify, groupId).join();
+        for (TxInfo info : loaded.getList()) {
+            Assert.assertEquals("k2".equals(info.getKid()) ? 1 : 0, info.getNotify());
+        }
+
+        //发起方(isGroup=1)以外的参与方都已通知后删除
+        Assert.assertEquals(1, (int) store.notify(TxGroupStore.key_prefix_notify, groupId, "k3", true).join());
+        Assert.assertNull(store.load(TxGroupStore.key_prefix_notify, groupId).join());
+    }
+}
@@ -0,0 +1,148 @@
+package com.lorne.tx.manager.service.impl;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 分段日志的追加、回放、分段与压缩
+ */
+public class SegmentedLogTest {
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 打开日志并返回回放的记录
+     */
+    private List<String> open(SegmentedLog log) throws IOException {
+        final List<String> records = new ArrayList<>();
+        log.open(new Consumer<byte[]>() {
+            @Override
+            public void accept(byte[] data) {
+                records.add(new String(data, UTF8));
+            }
+        });
+        return records;
+    }
+
+    private void append(SegmentedLog log, String... records) throws IOException {
+        for (String record : records) {
+            log.append(record.getBytes(UTF8));
+        }
+    }
+
+    private File[] segments(File dir) {
+        File[] files = dir.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    @Test
+    public void replayAfterReopen() throws Exception {
+        File dir = folder.newFolder();
+        SegmentedLog log = new SegmentedLog(dir, 4096);
+        Assert.assertTrue(open(log).isEmpty());
+        append(log, "r1", "记录2", "r3");
+        log.close();
+
+        log = new SegmentedLog(dir, 4096);
+        Assert.assertEquals(Arrays.asList("r1", "记录2", "r3"), open(log));
+        //继续追加在最后一条记录之后
+        append(log, "r4");
+        log.close();
+
+        log = new SegmentedLog(dir, 4096);
+        Assert.assertEquals(Arrays.asList("r1", "记录2", "r3", "r4"), open(log));
+        Assert.assertEquals(1, log.getSegmentCount());
+        log.close();
+    }
+
+    @Test
+    public void rollWhenSegmentIsFull() throws Exception {
+        File dir = folder.newFolder();
+        //每条记录8+20字节,一个分段放两条
+        SegmentedLog log = new SegmentedLog(dir, 64);
+        open(log);
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            records.add(String.format("record-%013d", i));
+        }
+        append(log, records.toArray(new String[0]));
+        Assert.assertEquals(3, log.getSegmentCount());
+        log.close();
+
+        log = new SegmentedLog(dir, 64);
+        Assert.assertEquals(records, open(log));
+        log.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void recordLargerThanSegment() throws Exception {
+        SegmentedLog log = new SegmentedLog(folder.newFolder(), 64);
+        open(log);
+        try {
+            log.append(new byte[60]);
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void tornRecordIsDropped() throws Exception {
+        File dir = folder.newFolder();
+        SegmentedLog log = new SegmentedLog(dir, 4096);
+        open(log);
+        append(log, "r1", "r2");
+        log.close();
+
+        //第二条记录的内容未写完整,校验失败
+        RandomAccessFile file = new RandomAccessFile(segments(dir)[0], "rw");
+        file.seek(8 + 2 + 8);
+        file.write('x');
+        file.close();
+
+        log = new SegmentedLog(dir, 4096);
+        Assert.assertEquals(Arrays.asList("r1"), open(log));
+        //新记录覆盖未写完整的记录
+        append(log, "r3");
+        log.close();
+
+        log = new SegmentedLog(dir, 4096);
+        Assert.assertEquals(Arrays.asList("r1", "r3"), open(log));
+        log.close();
+    }
+
+    @Test
+    public void compactIntoNewSegment() throws Exception {
+        File dir = folder.newFolder();
+        SegmentedLog log = new SegmentedLog(dir, 64);
+        open(log);
+        append(log, "old-1", "old-2", "old-3", "old-4", "old-5");
+        Assert.assertTrue(log.getSegmentCount() > 1);
+
+        //仍然有效的记录写入新分段后删除之前的分段
+        long segmentId = log.roll();
+        append(log, "live");
+        log.force();
+        log.deleteBefore(segmentId);
+        Assert.assertEquals(1, log.getSegmentCount());
+        log.close();
+
+        log = new SegmentedLog(dir, 64);
+        Assert.assertEquals(Arrays.asList("live"), open(log));
+        log.close();
+    }
+}
@@ -0,0 +1,59 @@
+package com.lorne.tx.manager.service.impl;
+
+import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 测试共用的事务组存储与事务组数据
+ */
+class TestStores {
+
+    private TestStores() {
+    }
+
+    static EmbeddedTxGroupStore embedded(File dir) throws Exception {
+        return embedded(dir, 64 * 1024);
+    }
+
+    /**
+     * 启动日志写入dir的本地存储,不自动压缩,由测试手动调用compact
+     */
+    static EmbeddedTxGroupStore embedded(File dir, int segmentSize) throws Exception {
+        EmbeddedTxGroupStore store = new EmbeddedTxGroupStore();
+        ReflectionTestUtils.setField(store, "store_path", dir.getAbsolutePath());
+        ReflectionTestUtils.setField(store, "store_segment_size", segmentSize);
+        ReflectionTestUtils.setField(store, "store_compact_time", 3600);
+        ReflectionTestUtils.setField(store, "store_sync_window", 100);
+        store.start();
+        return store;
+    }
+
+    static TxGroup newGroup(String groupId) {
+        TxGroup txGroup = new TxGroup();
+        txGroup.setGroupId(groupId);
+        txGroup.setStartTime(System.currentTimeMillis());
+        txGroup.setWaitTime(10);
+        return txGroup;
+    }
+
+    static TxInfo newInfo(String kid, int isGroup) {
+        TxInfo info = new TxInfo();
+        info.setKid(kid);
+        info.setModelName("model-" + kid);
+        info.setIsGroup(isGroup);
+        return info;
+    }
+
+    static List<String> kids(TxGroup txGroup) {
+        List<String> kids = new ArrayList<>();
+        for (TxInfo info : txGroup.getList()) {
+            kids.add(info.getKid());
+        }
+        return kids;
+    }
+}
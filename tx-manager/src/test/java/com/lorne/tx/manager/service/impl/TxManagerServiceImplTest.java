@@ -0,0 +1,202 @@
+package com.lorne.tx.manager.service.impl;
+
+import com.lorne.tx.manager.service.TransactionConfirmService;
+import com.lorne.tx.manager.service.TxGroupStore;
+import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.model.TxInfo;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本地事务组的加入与关闭,关闭事务组(ctg)时一并提交随rpc响应返回的参与方
+ */
+public class TxManagerServiceImplTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private EmbeddedTxGroupStore embeddedStore;
+
+    private TxGroupStore store;
+
+    private TransactionConfirmService transactionConfirmService;
+
+    private TxGroupWriteBehind writeBehind;
+
+    private TxManagerServiceImpl txManagerService;
+
+
+    @Before
+    public void setUp() throws Exception {
+        embeddedStore = TestStores.embedded(folder.newFolder());
+        store = Mockito.spy(embeddedStore);
+
+        transactionConfirmService = Mockito.mock(TransactionConfirmService.class);
+        DecisionLog decisionLog = Mockito.mock(DecisionLog.class);
+        Mockito.when(decisionLog.check(Mockito.anyString(), Mockito.anyString())).thenReturn(-1);
+
+        //不启动定时写入,测试中手动写入
+        writeBehind = new TxGroupWriteBehind();
+        ReflectionTestUtils.setField(writeBehind, "redis_save_max_time", 30);
+        ReflectionTestUtils.setField(writeBehind, "txGroupStore", store);
+
+        txManagerService = new TxManagerServiceImpl();
+        ReflectionTestUtils.setField(txManagerService, "redis_save_max_time", 30);
+        ReflectionTestUtils.setField(txManagerService, "transaction_wait_max_time", 10);
+        ReflectionTestUtils.setField(txManagerService, "transaction_netty_delay_time", 5);
+        ReflectionTestUtils.setField(txManagerService, "txGroupStore", store);
+        ReflectionTestUtils.setField(txManagerService, "writeBehind", writeBehind);
+        ReflectionTestUtils.setField(txManagerService, "transactionConfirmService", transactionConfirmService);
+        ReflectionTestUtils.setField(txManagerService, "decisionLog", decisionLog);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        embeddedStore.close();
+    }
+
+    private void flush() {
+        ReflectionTestUtils.invokeMethod(writeBehind, "flush");
+    }
+
+    /**
+     * 发送提交通知的事务组
+     */
+    private TxGroup confirmed() {
+        ArgumentCaptor<TxGroup> captor = ArgumentCaptor.forClass(TxGroup.class);
+        Mockito.verify(transactionConfirmService).confirm(captor.capture());
+        return captor.getValue();
+    }
+
+    @Test
+    public void participantsAreClosedWithTheGroup() throws Exception {
+        Assert.assertNotNull(txManagerService.createTransactionGroupAsync("g1", "k0", "m0").join());
+
+        List<TxInfo> infos = Arrays.asList(TestStores.newInfo("k0", 1), TestStores.newInfo("k1", 0), TestStores.newInfo("k2", 0));
+        Assert.assertTrue(txManagerService.closeTransactionGroupAsync("g1", 1, infos).join());
+
+        TxGroup txGroup = confirmed();
+        Assert.assertEquals(1, txGroup.getState());
+        Assert.assertTrue(txGroup.isHasOver());
+        Assert.assertEquals(Arrays.asList("k0", "k1", "k2"), TestStores.kids(txGroup));
+        Assert.assertEquals("model-k1", txGroup.getList().get(1).getModelName());
+
+        //事务组字段尚未写入存储,在本地加入与关闭,不访问存储
+        Mockito.verify(store, Mockito.never()).join(Mockito.anyString(), Mockito.any(TxInfo.class));
+        Mockito.verify(store, Mockito.never()).close(Mockito.anyString(), Mockito.anyInt(), Mockito.anyLong());
+        Assert.assertNull(store.load(TxGroupStore.key_prefix, "g1").join());
+
+        //异步写入后存储中的参与方为完整列表
+        flush();
+        TxGroup stored = store.load(TxGroupStore.key_prefix, "g1").join();
+        Assert.assertTrue(stored.isHasOver());
+        Assert.assertEquals(Arrays.asList("k0", "k1", "k2"), TestStores.kids(stored));
+
+        //提交的参与方可以检查事务组,未加入的不能提交
+        Assert.assertTrue(txManagerService.checkTransactionGroupAsync("g1", "k2").join());
+        Assert.assertFalse(txManagerService.checkTransactionGroupAsync("g1", "k9").join());
+
+        //关闭后不再加入
+        Assert.assertNull(txManagerService.addTransactionGroupAsync("g1", "k3", 0, "m3").join());
+    }
+
+    @Test
+    public void participantsJoinedElsewhereAreMerged() throws Exception {
+        txManagerService.createTransactionGroupAsync("g1", "k0", "m0").join();
+        txManagerService.addTransactionGroupAsync("g1", "k1", 0, "m1").join();
+        //事务组字段写入存储后其他TxManager上的参与方才能加入
+        flush();
+        store.join("g1", TestStores.newInfo("k9", 0)).join();
+        txManagerService.addTransactionGroupAsync("g1", "k2", 0, "m2").join();
+
+        Assert.assertTrue(txManagerService.closeTransactionGroupAsync("g1", 1).join());
+        TxGroup txGroup = confirmed();
+        Assert.assertEquals(1, txGroup.getState());
+        Assert.assertEquals(Arrays.asList("k1", "k2", "k9"), TestStores.kids(txGroup));
+
+        //关闭后其他TxManager上的参与方不能加入
+        Assert.assertTrue(store.join("g1", TestStores.newInfo("k8", 0)).join().isHasOver());
+    }
+
+    @Test
+    public void failedParticipantRollsBack() throws Exception {
+        //其他TxManager创建的事务组,参与方在存储中加入
+        store.saveHeader(TxGroupStore.key_prefix, TestStores.newGroup("g1"), 30).join();
+        CompletableFuture<TxGroup> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("store-append-error"));
+        Mockito.doReturn(failed).when(store).join(Mockito.eq("g1"), Mockito.argThat(new ArgumentMatcher<TxInfo>() {
+            @Override
+            public boolean matches(Object argument) {
+                return "k2".equals(((TxInfo) argument).getKid());
+            }
+        }));
+
+        //参与方未加入时无法通知提交,改为回滚
+        Assert.assertTrue(txManagerService.closeTransactionGroupAsync("g1", 1, Arrays.asList(TestStores.newInfo("k1", 0), TestStores.newInfo("k2", 0))).join());
+        TxGroup txGroup = confirmed();
+        Assert.assertEquals(0, txGroup.getState());
+        Assert.assertEquals(Arrays.asList("k1"), TestStores.kids(txGroup));
+        Assert.assertEquals(0, store.getState(TxGroupStore.key_prefix, "g1"));
+    }
+
+    @Test
+    public void groupCreatedByOtherTxManager() throws Exception {
+        store.saveHeader(TxGroupStore.key_prefix, TestStores.newGroup("g1"), 30).join();
+
+        Assert.assertTrue(txManagerService.closeTransactionGroupAsync("g1", 1, Arrays.asList(TestStores.newInfo("k1", 0))).join());
+        TxGroup txGroup = confirmed();
+        Assert.assertEquals(1, txGroup.getState());
+        Assert.assertEquals(Arrays.asList("k1"), TestStores.kids(txGroup));
+
+        //已关闭的事务组不重复通知
+        Assert.assertFalse(txManagerService.closeTransactionGroupAsync("g1", 1, Arrays.asList(TestStores.newInfo("k2", 0))).join());
+        Mockito.verify(transactionConfirmService, Mockito.times(1)).confirm(Mockito.any(TxGroup.class));
+    }
+
+    /**
+     * 事务模块生成的事务组id: 时间戳(8位36进制)+节点(6位)+序列(4位)
+     */
+    private String newClientGroupId() {
+        return Long.toString(System.currentTimeMillis(), 36) + "node01" + "0001";
+    }
+
+    @Test
+    public void joinBeforeCreateWaitsForLocalGroup() throws Exception {
+        String groupId = newClientGroupId();
+        CompletableFuture<TxGroup> joined = txManagerService.addTransactionGroupAsync(groupId, "k1", 0, "m1");
+        Thread.sleep(50);
+        Assert.assertFalse(joined.isDone());
+
+        //本地创建后立即在本地加入,不等待下一次重试
+        TxGroup txGroup = txManagerService.createTransactionGroupAsync(groupId, "k0", "m0").join();
+        Assert.assertSame(txGroup, joined.get(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(Arrays.asList("k1"), TestStores.kids(txGroup));
+        Assert.assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(txManagerService, "waiting")).isEmpty());
+    }
+
+    @Test
+    public void joinUnknownGroupBacksOff() throws Exception {
+        String groupId = newClientGroupId();
+        long start = System.currentTimeMillis();
+        Assert.assertNull(txManagerService.addTransactionGroupAsync(groupId, "k1", 0, "m1").join());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 400);
+
+        //间隔加倍,最大等待时间内只重试几次
+        Mockito.verify(store, Mockito.atMost(8)).join(Mockito.eq(groupId), Mockito.any(TxInfo.class));
+        Assert.assertTrue(((Map<?, ?>) ReflectionTestUtils.getField(txManagerService, "waiting")).isEmpty());
+    }
+}
@@ -0,0 +1,116 @@
+package com.lorne.tx.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 延迟直方图的统计与prometheus格式输出
+ */
+public class HistogramTest {
+
+    private String write(LatencyHistogram histogram, String labels) {
+        StringBuilder out = new StringBuilder();
+        TxMetrics.histogram(out, "test_seconds", labels, histogram);
+        return out.toString();
+    }
+
+    @Test
+    public void cumulativeBuckets() {
+        LatencyHistogram histogram = LatencyHistogram.cumulative();
+        //小于第一个输出的桶的值计入该桶
+        histogram.record(50);
+        histogram.record(79);
+        //等于上界时计入下一个桶
+        histogram.record(80);
+        histogram.record(20 * 1000 * 1000);
+
+        String out = write(histogram, null);
+        Assert.assertTrue(out.startsWith("test_seconds_bucket{le=\"0.00008\"} 2\n"));
+        Assert.assertTrue(out.contains("test_seconds_bucket{le=\"0.000096\"} 3\n"));
+        Assert.assertTrue(out.contains("test_seconds_bucket{le=\"1.048576\"} 3\n"));
+        Assert.assertTrue(out.contains("test_seconds_bucket{le=\"16.777216\"} 3\n"));
+        Assert.assertTrue(out.contains("test_seconds_bucket{le=\"+Inf\"} 4\n"));
+        Assert.assertTrue(out.contains("test_seconds_sum 20.000209\n"));
+        Assert.assertTrue(out.endsWith("test_seconds_count 4\n"));
+        //64us ~ 20s之间每2倍4个桶共72个,+Inf,sum,count
+        Assert.assertEquals(75, out.split("\n").length);
+    }
+
+    @Test
+    public void labels() {
+        LatencyHistogram histogram = LatencyHistogram.cumulative();
+        histogram.record(1000);
+
+        String out = write(histogram, "action=\"cg\"");
+        Assert.assertTrue(out.contains("test_seconds_bucket{action=\"cg\",le=\"0.000896\"} 0\n"));
+        Assert.assertTrue(out.contains("test_seconds_bucket{action=\"cg\",le=\"0.001024\"} 1\n"));
+        Assert.assertTrue(out.contains("test_seconds_sum{action=\"cg\"} 0.001\n"));
+        Assert.assertTrue(out.contains("test_seconds_count{action=\"cg\"} 1\n"));
+    }
+
+    @Test
+    public void rollingHistogramHasNoSum() {
+        LatencyHistogram histogram = new LatencyHistogram(60 * 1000);
+        histogram.record(1000);
+        Assert.assertEquals(0, histogram.getSum());
+        Assert.assertEquals(1, histogram.getCounts()[39]);
+        Assert.assertEquals(1024, LatencyHistogram.upperBound(39));
+    }
+
+    @Test
+    public void bucketBounds() {
+        //lorne-tx-core与tx-manager中的LatencyHistogram使用相同的桶
+        Assert.assertEquals(164, LatencyHistogram.BUCKETS);
+        long[] bounds = {2, 2, 2, 2, 4, 4, 4, 4, 5, 6, 7, 8, 10, 12, 14, 16};
+        for (int i = 0; i < bounds.length; i++) {
+            Assert.assertEquals(bounds[i], LatencyHistogram.upperBound(i));
+        }
+        Assert.assertEquals(1L << 41, LatencyHistogram.upperBound(LatencyHistogram.BUCKETS - 1));
+
+        LatencyHistogram histogram = LatencyHistogram.cumulative();
+        histogram.record(5);
+        histogram.record(Long.MAX_VALUE);
+        long[] counts = histogram.getCounts();
+        Assert.assertEquals(1, counts[9]);
+        Assert.assertEquals(1, counts[LatencyHistogram.BUCKETS - 1]);
+    }
+
+    @Test
+    public void metricsOutput() {
+        TxMetrics metrics = TxMetrics.getInstance();
+        metrics.recordAction("test-action", 300);
+        metrics.recordAck("1");
+        metrics.recordAck(null);
+
+        StringBuilder out = new StringBuilder();
+        metrics.write(out);
+        String text = out.toString();
+        Assert.assertTrue(text.contains("# TYPE tx_manager_action_seconds histogram\n"));
+        Assert.assertTrue(text.contains("tx_manager_action_seconds_bucket{action=\"test-action\",le=\"0.00032\"} 1\n"));
+        Assert.assertTrue(text.contains("tx_manager_action_seconds_count{action=\"test-action\"} 1\n"));
+        Assert.assertTrue(text.contains("# TYPE tx_manager_redis_seconds histogram\n"));
+        Assert.assertTrue(text.contains("# TYPE tx_manager_commit_acks_total counter\n"));
+        Assert.assertTrue(text.contains("tx_manager_commit_acks_total{result=\"ok\"} "));
+        Assert.assertTrue(text.contains("tx_manager_commit_acks_total{result=\"closed\"} "));
+        Assert.assertTrue(text.contains("tx_manager_rejected_groups_total "));
+        //每个指标名的HELP与TYPE只输出一次
+        Assert.assertEquals(text.indexOf("# TYPE tx_manager_action_seconds "), text.lastIndexOf("# TYPE tx_manager_action_seconds "));
+    }
+
+    @Test
+    public void latencyPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram(60 * 1000);
+        Assert.assertEquals(-1, histogram.percentile(0.99, 1));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(100 * 1000);
+        Assert.assertEquals(-1, histogram.percentile(0.99, 101));
+
+        //桶的上界,误差不超过25%
+        long p99 = histogram.percentile(0.99, 100);
+        Assert.assertTrue(p99 >= 1000 && p99 <= 1250);
+        long max = histogram.percentile(1, 100);
+        Assert.assertTrue(max >= 100 * 1000 && max <= 125 * 1000);
+    }
+}
@@ -0,0 +1,183 @@
+package com.lorne.tx.mq.handler;
+
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.lorne.tx.mq.model.TxGroup;
+import com.lorne.tx.mq.service.MQTxManagerService;
+import com.lorne.tx.socket.SocketManager;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 握手与准入控制: 超过上限时创建事务组立即返回繁忙
+ */
+public class TxCoreServerHandlerTest {
+
+    private final static int RETRY_TIME = 200;
+
+    private MQTxManagerService txManagerService;
+
+    private TxCoreServerHandler handler;
+
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(SocketManager.getInstance(), "maxConnection", 100);
+        txManagerService = Mockito.mock(MQTxManagerService.class);
+        TxGroup txGroup = new TxGroup();
+        txGroup.setGroupId("g1");
+        Mockito.when(txManagerService.createTransactionGroupAsync(Mockito.anyString(), Mockito.anyString(), Mockito.anyString()))
+            .thenReturn(CompletableFuture.completedFuture(txGroup));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ThreadPoolExecutor threadPool = (ThreadPoolExecutor) ReflectionTestUtils.getField(handler, "threadPool");
+        threadPool.shutdown();
+        Assert.assertTrue(threadPool.awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    private EmbeddedChannel newChannel(boolean async, int maxGroups, int maxActions) {
+        handler = new TxCoreServerHandler(txManagerService, async, maxGroups, maxActions, RETRY_TIME);
+        return new EmbeddedChannel(handler);
+    }
+
+    private JSONObject request(String action, long key, String groupId) {
+        JSONObject params = new JSONObject();
+        params.put("g", groupId);
+        params.put("t", "k" + key);
+        params.put("s", 0);
+        JSONObject msg = new JSONObject();
+        msg.put("a", action);
+        msg.put("k", key);
+        msg.put("p", params);
+        return msg;
+    }
+
+    private void assertBusy(JSONObject res, long key) {
+        Assert.assertEquals(key, res.getLongValue("k"));
+        Assert.assertEquals("busy", res.getString("e"));
+        Assert.assertEquals(RETRY_TIME, res.getIntValue("r"));
+        Assert.assertEquals("", res.getString("d"));
+    }
+
+    @Test
+    public void handshake() {
+        EmbeddedChannel channel = newChannel(false, 10, 10);
+        JSONObject params = new JSONObject();
+        params.put("v", MessageProtocol.VERSION + 1);
+        JSONObject msg = new JSONObject();
+        msg.put("a", "p");
+        msg.put("k", 1);
+        msg.put("p", params);
+        channel.writeInbound(msg);
+
+        //在io线程中直接返回
+        JSONObject res = channel.readOutbound();
+        Assert.assertEquals(String.valueOf(MessageProtocol.VERSION), res.getString("d"));
+        Assert.assertEquals(MessageProtocol.VERSION, MessageProtocol.getVersion(channel));
+    }
+
+    @Test
+    public void rejectWhenTooManyGroups() {
+        EmbeddedChannel channel = newChannel(true, 10, 10);
+        Mockito.when(txManagerService.getGroupCount()).thenReturn(9);
+        channel.writeInbound(request("cg", 1, "g1"));
+        JSONObject res = channel.readOutbound();
+        Assert.assertTrue(res.getString("d").contains("g1"));
+
+        Mockito.when(txManagerService.getGroupCount()).thenReturn(10);
+        channel.writeInbound(request("cg", 2, "g2"));
+        assertBusy((JSONObject) channel.readOutbound(), 2);
+        Mockito.verify(txManagerService, Mockito.never()).createTransactionGroupAsync(Mockito.eq("g2"), Mockito.anyString(), Mockito.anyString());
+    }
+
+    @Test
+    public void rejectWhenTooManyActions() {
+        EmbeddedChannel channel = newChannel(true, 10, 2);
+        CompletableFuture<TxGroup> first = new CompletableFuture<>();
+        CompletableFuture<TxGroup> second = new CompletableFuture<>();
+        Mockito.when(txManagerService.addTransactionGroupAsync(Mockito.anyString(), Mockito.anyString(), Mockito.anyInt(), Mockito.anyString()))
+            .thenReturn(first, second);
+
+        //已有事务组的请求不受限制
+        channel.writeInbound(request("atg", 1, "g0"));
+        channel.writeInbound(request("atg", 2, "g0"));
+        Assert.assertNull(channel.readOutbound());
+
+        channel.writeInbound(request("cg", 3, "g1"));
+        assertBusy((JSONObject) channel.readOutbound(), 3);
+
+        //请求完成后可以再创建事务组
+        first.complete(null);
+        second.complete(null);
+        Assert.assertEquals("", ((JSONObject) channel.readOutbound()).getString("d"));
+        Assert.assertEquals("", ((JSONObject) channel.readOutbound()).getString("d"));
+        channel.writeInbound(request("cg", 4, "g1"));
+        JSONObject res = channel.readOutbound();
+        Assert.assertEquals(4, res.getLongValue("k"));
+        Assert.assertNull(res.get("e"));
+    }
+
+    @Test
+    public void rejectWhenQueueIsFull() throws Exception {
+        EmbeddedChannel channel = newChannel(false, 1000, 1);
+        final CountDownLatch started = new CountDownLatch(100);
+        final CountDownLatch release = new CountDownLatch(1);
+        Mockito.when(txManagerService.addTransactionGroupAsync(Mockito.anyString(), Mockito.anyString(), Mockito.anyInt(), Mockito.anyString()))
+            .thenAnswer(new Answer<CompletableFuture<TxGroup>>() {
+                @Override
+                public CompletableFuture<TxGroup> answer(InvocationOnMock invocation) throws Throwable {
+                    started.countDown();
+                    release.await();
+                    return CompletableFuture.completedFuture(null);
+                }
+            });
+        try {
+            //占满线程池与队列
+            for (int i = 0; i < 100; i++) {
+                channel.writeInbound(request("atg", i, "g0"));
+            }
+            Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+            channel.writeInbound(request("atg", 100, "g0"));
+
+            //不在io线程中执行,直接返回繁忙
+            channel.writeInbound(request("ckg", 101, "g0"));
+            assertBusy((JSONObject) channel.readOutbound(), 101);
+
+            //批量请求的每个请求返回空结果
+            JSONArray items = new JSONArray();
+            items.add(request("atg", 102, "g0"));
+            items.add(request("ctg", 103, "g0"));
+            JSONObject batch = new JSONObject();
+            batch.put("a", "b");
+            batch.put("k", 104);
+            batch.put("p", items);
+            channel.writeInbound(batch);
+            JSONObject res = channel.readOutbound();
+            Assert.assertEquals(104, res.getLongValue("k"));
+            JSONArray resArray = res.getJSONArray("b");
+            Assert.assertEquals(2, resArray.size());
+            Assert.assertEquals(102, resArray.getJSONObject(0).getLongValue("k"));
+            Assert.assertEquals("", resArray.getJSONObject(1).getString("d"));
+
+            //心跳不进入线程池
+            channel.writeInbound(request("h", 105, "g0"));
+            Assert.assertEquals(105, ((JSONObject) channel.readOutbound()).getLongValue("k"));
+        } finally {
+            release.countDown();
+        }
+    }
+}